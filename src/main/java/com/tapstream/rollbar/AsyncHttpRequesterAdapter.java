@@ -0,0 +1,70 @@
+package com.tapstream.rollbar;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Sends the requests of an {@link IAsyncHttpRequester} with a blocking {@link IHttpRequester}, each one taking a
+ * thread of the executor for as long as it is in flight. A request the executor rejects, because it was shut down,
+ * is sent on the calling thread.
+ */
+public class AsyncHttpRequesterAdapter implements IAsyncHttpRequester {
+    private final IHttpRequester requester;
+    private final Executor executor;
+
+    public AsyncHttpRequesterAdapter(IHttpRequester requester, Executor executor) {
+        this.requester = requester;
+        this.executor = executor;
+    }
+
+    public IHttpRequester getRequester() {
+        return requester;
+    }
+
+    @Override
+    public void sendAsync(final HttpRequest request, final ResponseCallback callback) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    send(request, callback);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            send(request, callback);
+        }
+    }
+
+    private void send(HttpRequest request, final ResponseCallback callback) {
+        if (requester instanceof IBatchHttpRequester) {
+            // the requester keeps the connection alive from one call to the next, and reads the response headers
+            ((IBatchHttpRequester) requester).sendBatch(Collections.singletonList(request), new BatchCallback() {
+                @Override
+                public boolean beforeSend(HttpRequest request) {
+                    return true;
+                }
+
+                @Override
+                public void onResponse(HttpRequest request, HttpResponse response) {
+                    callback.onResponse(request, response);
+                }
+
+                @Override
+                public void onFailure(HttpRequest request, IOException e) {
+                    callback.onFailure(request, e);
+                }
+            });
+            return;
+        }
+        HttpResponse response;
+        try {
+            response = new HttpResponse(requester.send(request));
+        } catch (IOException e) {
+            callback.onFailure(request, e);
+            return;
+        }
+        callback.onResponse(request, response);
+    }
+}
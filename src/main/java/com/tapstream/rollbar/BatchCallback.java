@@ -0,0 +1,14 @@
+package com.tapstream.rollbar;
+
+/**
+ * Callback of {@link IBatchHttpRequester#sendBatch}, also asked before each request of the batch whether it should
+ * still be sent.
+ */
+public interface BatchCallback extends ResponseCallback {
+
+    /**
+     * @return false to skip the request, whose outcome is then not reported.
+     */
+    boolean beforeSend(HttpRequest request);
+
+}
@@ -0,0 +1,20 @@
+package com.tapstream.rollbar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a request body straight into the connection. A request may be sent more than once, so
+ * {@link #writeTo(OutputStream)} must be repeatable.
+ */
+public interface BodyWriter {
+
+    /**
+     * @return number of bytes {@link #writeTo(OutputStream)} writes, or -1 if unknown and the body has to be
+     * sent chunked.
+     */
+    long getContentLength();
+
+    void writeTo(OutputStream out) throws IOException;
+
+}
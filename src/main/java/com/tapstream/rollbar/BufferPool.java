@@ -0,0 +1,56 @@
+package com.tapstream.rollbar;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Heap buffers holding request bodies, reused once the request is done with. At most {@code maxBuffers} are kept;
+ * buffers larger than {@code maxBufferBytes} are left to the garbage collector.
+ */
+public class BufferPool {
+    private static final int MIN_BUFFER_BYTES = 1024;
+
+    private final int maxBuffers;
+    private final int maxBufferBytes;
+    private final ConcurrentLinkedQueue<ByteBuffer> buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public BufferPool(int maxBuffers, int maxBufferBytes) {
+        this.maxBuffers = maxBuffers;
+        this.maxBufferBytes = maxBufferBytes;
+    }
+
+    /**
+     * @return a cleared buffer of at least the given capacity.
+     */
+    public ByteBuffer acquire(int capacity) {
+        ByteBuffer buffer = buffers.poll();
+        if (buffer != null) {
+            pooled.decrementAndGet();
+            if (buffer.capacity() >= capacity) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(Math.max(MIN_BUFFER_BYTES, Integer.highestOneBit(capacity - 1) << 1));
+    }
+
+    public void release(ByteBuffer buffer) {
+        if (buffer.capacity() > maxBufferBytes || !buffer.hasArray()) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxBuffers) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return number of buffers waiting to be reused.
+     */
+    public int size() {
+        return pooled.get();
+    }
+}
@@ -0,0 +1,167 @@
+package com.tapstream.rollbar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Sorts MDC entries into the sections of an item in a single pass over the map. Each entry goes to the section
+ * of the longest prefix its key starts with, or to the custom data if there is none. Prefixes are indexed by
+ * their first character, so a key is only compared with the few prefixes that can match it.
+ * <p>
+ * Prefixes must all be added before the partitioner is shared between threads.
+ */
+public class ContextPartitioner {
+    public enum Section {
+        PERSON, REQUEST_HEADER, REQUEST_PARAM, REQUEST, CUSTOM
+    }
+
+    private static final int INDEXED_CHARS = 128;
+    private static final Prefix[] NONE = new Prefix[0];
+
+    private final List<Prefix> prefixes = new ArrayList<Prefix>();
+    /** Per first character, the prefixes starting with it, longest first; the last slot is for any other char. */
+    private Prefix[][] index;
+
+    /**
+     * @return a partitioner for the keys set by {@link RollbarFilter} and the {@code person.} ones.
+     */
+    public static ContextPartitioner withDefaultPrefixes() {
+        ContextPartitioner partitioner = new ContextPartitioner();
+        partitioner.addPrefix(NotifyBuilder.PERSON_PREFIX, Section.PERSON);
+        partitioner.addPrefix(RollbarFilter.REQUEST_HEADER_PREFIX, Section.REQUEST_HEADER);
+        partitioner.addPrefix(RollbarFilter.REQUEST_PARAM_PREFIX, Section.REQUEST_PARAM);
+        partitioner.addPrefix(RollbarFilter.REQUEST_PREFIX, Section.REQUEST);
+        return partitioner;
+    }
+
+    /**
+     * Sends the keys starting with the prefix to the section, under their name without the prefix; custom data
+     * keeps the whole key. Replaces the section of a prefix added before.
+     */
+    public void addPrefix(String prefix, Section section) {
+        if (prefix == null || prefix.isEmpty()) {
+            throw new IllegalArgumentException("Empty context prefix");
+        }
+        for (int i = 0; i < prefixes.size(); i++) {
+            if (prefixes.get(i).prefix.equals(prefix)) {
+                prefixes.remove(i);
+                break;
+            }
+        }
+        prefixes.add(new Prefix(prefix, section));
+        index = buildIndex(prefixes);
+    }
+
+    public Partition partition(Map<String, String> context) {
+        Partition partition = new Partition();
+        for (Entry<String, String> entry : context.entrySet()) {
+            String key = entry.getKey();
+            if (entry.getValue() == null) {
+                continue;
+            }
+            Prefix prefix = match(key);
+            if (prefix == null || prefix.section == Section.CUSTOM) {
+                partition.add(Section.CUSTOM, key, entry.getValue());
+            } else {
+                partition.add(prefix.section, key.substring(prefix.prefix.length()), entry.getValue());
+            }
+        }
+        return partition;
+    }
+
+    private Prefix match(String key) {
+        if (key.isEmpty() || index == null) {
+            return null;
+        }
+        char first = key.charAt(0);
+        for (Prefix prefix : index[first < INDEXED_CHARS ? first : INDEXED_CHARS]) {
+            if (key.startsWith(prefix.prefix)) {
+                return prefix;
+            }
+        }
+        return null;
+    }
+
+    private static Prefix[][] buildIndex(List<Prefix> prefixes) {
+        List<List<Prefix>> buckets = new ArrayList<List<Prefix>>(INDEXED_CHARS + 1);
+        for (int i = 0; i <= INDEXED_CHARS; i++) {
+            buckets.add(new ArrayList<Prefix>());
+        }
+        for (Prefix prefix : prefixes) {
+            char first = prefix.prefix.charAt(0);
+            buckets.get(first < INDEXED_CHARS ? first : INDEXED_CHARS).add(prefix);
+        }
+        Prefix[][] index = new Prefix[INDEXED_CHARS + 1][];
+        for (int i = 0; i <= INDEXED_CHARS; i++) {
+            Prefix[] bucket = buckets.get(i).toArray(NONE);
+            Arrays.sort(bucket, LONGEST_FIRST);
+            index[i] = bucket;
+        }
+        return index;
+    }
+
+    private static final Comparator<Prefix> LONGEST_FIRST = new Comparator<Prefix>() {
+        @Override
+        public int compare(Prefix a, Prefix b) {
+            return b.prefix.length() - a.prefix.length();
+        }
+    };
+
+    private static final class Prefix {
+        final String prefix;
+        final Section section;
+
+        Prefix(String prefix, Section section) {
+            this.prefix = prefix;
+            this.section = section;
+        }
+    }
+
+    /**
+     * MDC entries of one item by section, in map order. Names are stripped of their prefix, except in custom data.
+     */
+    public static final class Partition {
+        private final List<List<String>> sections = new ArrayList<List<String>>();
+
+        Partition() {
+            for (int i = 0; i < Section.values().length; i++) {
+                sections.add(new ArrayList<String>());
+            }
+        }
+
+        void add(Section section, String name, String value) {
+            List<String> entries = sections.get(section.ordinal());
+            entries.add(name);
+            entries.add(value);
+        }
+
+        public int size(Section section) {
+            return sections.get(section.ordinal()).size() / 2;
+        }
+
+        public String name(Section section, int i) {
+            return sections.get(section.ordinal()).get(2 * i);
+        }
+
+        public String value(Section section, int i) {
+            return sections.get(section.ordinal()).get(2 * i + 1);
+        }
+
+        /**
+         * @return value of the first entry of the section with the name, null if there is none.
+         */
+        public String get(Section section, String name) {
+            List<String> entries = sections.get(section.ordinal());
+            for (int i = 0; i < entries.size(); i += 2) {
+                if (entries.get(i).equals(name)) {
+                    return entries.get(i + 1);
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.tapstream.rollbar;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses request bodies to the gzip format. The gzip header and trailer are written by hand around raw
+ * deflate output, so a {@link Deflater} can be reused instead of creating one, and its native memory, for every
+ * request the way {@code GZIPOutputStream} does. At most {@code maxDeflaters} are kept for reuse; the others, and
+ * all of them once the encoder is closed, are ended as soon as they are done with.
+ */
+public class GzipEncoder implements Closeable {
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+    private static final int TRAILER_BYTES = 8;
+    private static final int DEFAULT_MAX_DEFLATERS = 4;
+
+    private final int level;
+    private final int maxDeflaters;
+    private final ConcurrentLinkedQueue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * @param level 0 to 9, or -1 for the default level.
+     */
+    public GzipEncoder(int level) {
+        this(level, DEFAULT_MAX_DEFLATERS);
+    }
+
+    /**
+     * @param level 0 to 9, or -1 for the default level.
+     * @param maxDeflaters number of deflaters kept for reuse, about the number of threads compressing at once.
+     */
+    public GzipEncoder(int level, int maxDeflaters) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+        if (maxDeflaters < 0) {
+            throw new IllegalArgumentException("Negative deflater count: " + maxDeflaters);
+        }
+        this.level = level;
+        this.maxDeflaters = maxDeflaters;
+    }
+
+    /**
+     * @return true if the body starts with the gzip magic number, which a JSON document never does.
+     */
+    public static boolean isGzip(byte[] body) {
+        return body != null && body.length >= 2 && body[0] == HEADER[0] && body[1] == HEADER[1];
+    }
+
+    /**
+     * @return flipped buffer from the pool holding the compressed data.
+     */
+    public ByteBuffer encode(byte[] data, int offset, int length, BufferPool pool) {
+        Deflater deflater = acquire();
+        try {
+            return encode(deflater, data, offset, length, pool);
+        } finally {
+            release(deflater);
+        }
+    }
+
+    private ByteBuffer encode(Deflater deflater, byte[] data, int offset, int length, BufferPool pool) {
+        deflater.setInput(data, offset, length);
+        deflater.finish();
+
+        // room for incompressible data, which deflate expands by a few bytes per block
+        ByteBuffer out = pool.acquire(HEADER.length + length + length / 100 + 64 + TRAILER_BYTES);
+        out.put(HEADER);
+        while (!deflater.finished()) {
+            if (out.remaining() < TRAILER_BYTES + 64) {
+                ByteBuffer larger = pool.acquire(out.capacity() * 2);
+                out.flip();
+                larger.put(out);
+                pool.release(out);
+                out = larger;
+            }
+            int written = deflater.deflate(out.array(), out.arrayOffset() + out.position(), out.remaining() - TRAILER_BYTES);
+            out.position(out.position() + written);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        putIntLittleEndian(out, (int) crc.getValue());
+        putIntLittleEndian(out, length);
+        out.flip();
+        return out;
+    }
+
+    private Deflater acquire() {
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            return new Deflater(level, true);
+        }
+        pooled.decrementAndGet();
+        deflater.reset();
+        return deflater;
+    }
+
+    private void release(Deflater deflater) {
+        if (closed || pooled.incrementAndGet() > maxDeflaters) {
+            if (!closed) {
+                pooled.decrementAndGet();
+            }
+            deflater.end();
+            return;
+        }
+        deflaters.offer(deflater);
+        if (closed) {
+            // closed in the meantime
+            endPooled();
+        }
+    }
+
+    /**
+     * Frees the native memory of the pooled deflaters; the ones in use are ended once done with.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        endPooled();
+    }
+
+    private void endPooled() {
+        Deflater deflater;
+        while ((deflater = deflaters.poll()) != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return number of deflaters waiting to be reused.
+     */
+    public int getPooledCount() {
+        return closed ? 0 : pooled.get();
+    }
+
+    private static void putIntLittleEndian(ByteBuffer out, int value) {
+        out.put((byte) value).put((byte) (value >>> 8)).put((byte) (value >>> 16)).put((byte) (value >>> 24));
+    }
+}
@@ -1,7 +1,12 @@
 package com.tapstream.rollbar;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -11,6 +16,9 @@ public class HttpRequest {
     private final Map<String, String> requestProperties;
     private String method;
     private byte[] body;
+    private ByteBuffer buffer;
+    private BufferPool pool;
+    private BodyWriter bodyWriter;
 
     public HttpRequest(URL url, String method) {
         this.url = url;
@@ -36,14 +44,138 @@ public class HttpRequest {
 
     public void setBody(String body) {
         try {
-            this.body = body.getBytes("UTF-8");
+            setBody(body.getBytes("UTF-8"));
         } catch (UnsupportedEncodingException e) {
-            this.body = body.getBytes();
+            setBody(body.getBytes());
         }
     }
     
+    public void setBody(byte[] body) {
+        clearBody();
+        this.body = body;
+    }
+
+    /**
+     * Uses the bytes between the buffer's position and limit as the body, without copying them.
+     */
+    public void setBody(ByteBuffer buffer) {
+        setBody(buffer, null);
+    }
+
+    /**
+     * Uses the bytes between the buffer's position and limit as the body and gives the buffer back to the pool
+     * when the request is {@link #release() released}.
+     */
+    public void setBody(ByteBuffer buffer, BufferPool pool) {
+        clearBody();
+        this.buffer = buffer;
+        this.pool = pool;
+    }
+
+    public void setBody(BodyWriter bodyWriter) {
+        clearBody();
+        this.bodyWriter = bodyWriter;
+    }
+
+    /**
+     * @return a copy of the body unless it was given as a byte array, null if there is none.
+     */
     public byte[] getBody(){
-        return this.body;
+        if (body != null || (buffer == null && bodyWriter == null)) {
+            return body;
+        }
+        if (buffer != null) {
+            byte[] copy = new byte[buffer.remaining()];
+            buffer.duplicate().get(copy);
+            return copy;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            bodyWriter.writeTo(out);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write body", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the body, without copying it, or null if there is none or it is only available from its writer.
+     */
+    public ByteBuffer getBodyBuffer() {
+        if (buffer != null) {
+            return buffer.asReadOnlyBuffer();
+        }
+        return body == null ? null : ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return writer of the body, whatever form it was given in, null if there is none.
+     */
+    public BodyWriter getBodyWriter() {
+        if (bodyWriter != null) {
+            return bodyWriter;
+        }
+        if (buffer != null) {
+            return new BufferBody(buffer);
+        }
+        return body == null ? null : new ArrayBody(body);
+    }
+
+    /**
+     * Gives a pooled body back to its pool. The request must not be sent or read afterwards.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(buffer);
+        }
+        clearBody();
+    }
+
+    private void clearBody() {
+        body = null;
+        buffer = null;
+        pool = null;
+        bodyWriter = null;
+    }
+
+    private static class ArrayBody implements BodyWriter {
+        private final byte[] body;
+
+        ArrayBody(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public long getContentLength() {
+            return body.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(body);
+        }
+    }
+
+    private static class BufferBody implements BodyWriter {
+        private final ByteBuffer buffer;
+
+        BufferBody(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long getContentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                Channels.newChannel(out).write(buffer.duplicate());
+            }
+        }
     }
 
 }
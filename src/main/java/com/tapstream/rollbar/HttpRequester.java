@@ -1,13 +1,23 @@
 package com.tapstream.rollbar;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 
-public class HttpRequester implements IHttpRequester {
+import javax.net.ssl.HttpsURLConnection;
+
+import com.tapstream.rollbar.transport.Http11;
+import com.tapstream.rollbar.transport.Sockets;
+
+public class HttpRequester implements IBatchHttpRequester, IWarmableHttpRequester {
 
     private int timeout = 5000;
     
@@ -26,31 +36,126 @@ public class HttpRequester implements IHttpRequester {
         HttpURLConnection connection = (HttpURLConnection) url.openConnection();
 
         try {
-            connection.setRequestMethod(request.getMethod());
-            connection.setConnectTimeout(timeout);
-            connection.setReadTimeout(timeout);
+            writeRequest(request, connection);
+            return connection.getResponseCode();
+            
+        } finally {
+            if (connection != null)
+                connection.disconnect();
+        }
+    }
 
-            for (Entry<String, String> pair : request.getHeaders().entrySet()) {
-                connection.setRequestProperty(pair.getKey(), pair.getValue());
+    /**
+     * Sends the requests one after another without disconnecting in between, so the JDK keeps the
+     * socket alive and every request after the first one reuses it.
+     */
+    @Override
+    public void sendBatch(List<HttpRequest> requests, BatchCallback callback) {
+        for (HttpRequest request : requests) {
+            if (!callback.beforeSend(request)) {
+                continue;
             }
+            HttpResponse response;
+            try {
+                response = exchange(request);
+            } catch (IOException e) {
+                callback.onFailure(request, e);
+                continue;
+            }
+            callback.onResponse(request, response);
+        }
+    }
 
-            byte[] body = request.getBody();
-            if (body != null) {
-                connection.setDoOutput(true);
-                writeBody(body, connection);
+    /**
+     * Resolves the url's host, which the JVM then caches for {@code networkaddress.cache.ttl}, and for HTTPS
+     * completes a TLS handshake with the socket factory of {@link HttpsURLConnection}, leaving a session for the
+     * first connection to resume. The connection itself can only be opened by a request.
+     */
+    @Override
+    public void warmUp(URL url) throws IOException {
+        InetAddress address = InetAddress.getByName(url.getHost());
+        if ("https".equalsIgnoreCase(url.getProtocol())) {
+            int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+            Sockets.handshake(address, url.getHost(), port, HttpsURLConnection.getDefaultSSLSocketFactory(), timeout);
+        }
+    }
+
+    private HttpResponse exchange(HttpRequest request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) request.getUrl().openConnection();
+        try {
+            writeRequest(request, connection);
+            int statusCode = connection.getResponseCode();
+            Map<String, String> headers = readHeaders(connection);
+            byte[] body = consumeResponse(connection, statusCode);
+            return new HttpResponse(statusCode, headers, body);
+        } catch (IOException e) {
+            // the connection is in an unknown state, don't let it go back to the keep-alive cache
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private void writeRequest(HttpRequest request, HttpURLConnection connection) throws IOException {
+        connection.setRequestMethod(request.getMethod());
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+
+        for (Entry<String, String> pair : request.getHeaders().entrySet()) {
+            connection.setRequestProperty(pair.getKey(), pair.getValue());
+        }
+
+        BodyWriter body = request.getBodyWriter();
+        if (body != null) {
+            connection.setDoOutput(true);
+            writeBody(body, connection);
+        }
+    }
+
+    private Map<String, String> readHeaders(HttpURLConnection connection) {
+        Map<String, String> headers = new HashMap<String, String>();
+        for (Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+            if (header.getKey() != null && !header.getValue().isEmpty()) {
+                headers.put(header.getKey(), header.getValue().get(0));
             }
+        }
+        return headers;
+    }
 
-            return connection.getResponseCode();
-            
+    /**
+     * The connection is only returned to the keep-alive cache once its response has been read to the end and closed.
+     *
+     * @return the first {@link Http11#MAX_BODY_LENGTH} bytes of the body, the rest is discarded.
+     */
+    private byte[] consumeResponse(HttpURLConnection connection, int statusCode) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in == null) {
+            return body.toByteArray();
+        }
+        try {
+            byte[] buffer = new byte[512];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                body.write(buffer, 0, Math.min(read, Http11.MAX_BODY_LENGTH - body.size()));
+            }
         } finally {
-            if (connection != null)
-                connection.disconnect();
+            in.close();
         }
+        return body.toByteArray();
     }
     
-    private void writeBody(byte[] body, HttpURLConnection connection) throws IOException {
-        try (OutputStream out = new BufferedOutputStream(connection.getOutputStream())){
-            out.write(body);
+    /**
+     * Streams the body to the socket instead of letting the connection buffer a copy of it to compute its length.
+     */
+    private void writeBody(BodyWriter body, HttpURLConnection connection) throws IOException {
+        long length = body.getContentLength();
+        if (length >= 0) {
+            connection.setFixedLengthStreamingMode(length);
+        } else {
+            connection.setChunkedStreamingMode(0);
+        }
+        try (OutputStream out = connection.getOutputStream()){
+            body.writeTo(out);
         }
     }
 
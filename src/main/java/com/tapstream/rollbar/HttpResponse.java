@@ -0,0 +1,70 @@
+package com.tapstream.rollbar;
+
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class HttpResponse {
+    private static final byte[] NO_BODY = new byte[0];
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int statusCode;
+    private final Map<String, String> headers;
+    private final byte[] body;
+
+    public HttpResponse(int statusCode) {
+        this(statusCode, Collections.<String, String>emptyMap());
+    }
+
+    public HttpResponse(int statusCode, Map<String, String> headers) {
+        this(statusCode, headers, NO_BODY);
+    }
+
+    /**
+     * @param body the body, or as much of it as the requester keeps.
+     */
+    public HttpResponse(int statusCode, Map<String, String> headers, byte[] body) {
+        this.statusCode = statusCode;
+        this.body = body == null ? NO_BODY : body;
+        this.headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey() != null) {
+                this.headers.put(header.getKey(), header.getValue());
+            }
+        }
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public boolean isSuccessful() {
+        return statusCode >= 200 && statusCode <= 299;
+    }
+
+    /**
+     * @return value of the header (name is case insensitive) or null if it was not present.
+     */
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    /**
+     * @return the body, empty if the requester did not read it. Requesters may keep only its beginning.
+     */
+    public byte[] getBody() {
+        return body;
+    }
+
+    /**
+     * @return the body decoded as UTF-8, which the Rollbar API answers in.
+     */
+    public String getBodyText() {
+        return new String(body, UTF_8);
+    }
+}
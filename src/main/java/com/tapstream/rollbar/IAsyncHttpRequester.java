@@ -0,0 +1,18 @@
+package com.tapstream.rollbar;
+
+/**
+ * Requester that does not block the calling thread until the response arrives. It reports how each request went
+ * to a callback once that is known, possibly on one of its own threads, so a few threads can keep many requests in
+ * flight.
+ *
+ * @see AsyncHttpRequesterAdapter to send through an {@link IHttpRequester}.
+ */
+public interface IAsyncHttpRequester {
+
+    /**
+     * Sends the request and reports its response or failure to the callback, exactly once. The callback must not
+     * block, it may run on a thread the requester needs to send other requests.
+     */
+    public void sendAsync(HttpRequest request, ResponseCallback callback);
+
+}
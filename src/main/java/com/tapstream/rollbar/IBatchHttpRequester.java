@@ -0,0 +1,16 @@
+package com.tapstream.rollbar;
+
+import java.util.List;
+
+/**
+ * Requester able to send several requests back-to-back, reusing one connection where the endpoint allows it.
+ */
+public interface IBatchHttpRequester extends IHttpRequester {
+
+    /**
+     * Sends every request the callback lets through, in order, and reports the outcome of each one to the
+     * callback. A failure of one request does not prevent the remaining ones from being sent.
+     */
+    public void sendBatch(List<HttpRequest> requests, BatchCallback callback);
+
+}
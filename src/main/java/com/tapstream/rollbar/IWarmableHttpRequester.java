@@ -0,0 +1,17 @@
+package com.tapstream.rollbar;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Requester able to get ready for the first request to an endpoint before it is sent: resolving the host,
+ * connecting and, over HTTPS, completing a TLS handshake whose session later connections resume.
+ */
+public interface IWarmableHttpRequester extends IHttpRequester {
+
+    /**
+     * Does what it can ahead of the first request to the url, without sending any. Blocks until done.
+     */
+    public void warmUp(URL url) throws IOException;
+
+}
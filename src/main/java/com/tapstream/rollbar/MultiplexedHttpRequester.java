@@ -0,0 +1,254 @@
+package com.tapstream.rollbar;
+
+import com.tapstream.rollbar.dispatch.SenderExecutors;
+import com.tapstream.rollbar.transport.Http2Client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Sends requests over HTTP/2 where the server speaks it, keeping many of them in flight over one multiplexed
+ * connection instead of a connection each. Uses the HTTP client of the JVM, so needs Java 11; on older JVMs, or
+ * with {@code http2} set to false, requests are sent with an {@link HttpRequester} on a few threads instead.
+ * <p>
+ * At most {@code maxConcurrentStreams} requests are in flight at once, and at most {@code maxInFlightBytes} of
+ * request bodies, so a server slow to open its flow control windows holds items back here rather than in the
+ * connection's buffers. Further requests wait their turn, up to {@code maxQueuedRequests} of them; beyond that
+ * they fail right away. Until a first response arrives only one request is sent, so that concurrent first
+ * requests do not each open a connection before the server was found to speak HTTP/2.
+ * <p>
+ * Callbacks run on the HTTP client's threads and must not block.
+ */
+public class MultiplexedHttpRequester implements IAsyncHttpRequester, IHttpRequester, Closeable {
+    private static final int FALLBACK_THREADS = 4;
+
+    private int timeout = 5000;
+    private int maxConcurrentStreams = 100;
+    private long maxInFlightBytes = 1024 * 1024;
+    private int maxQueuedRequests = 1024;
+    private boolean http2 = true;
+    private SSLContext sslContext;
+
+    private boolean initialized;
+    private boolean closed;
+    private volatile Http2Client client;
+    private volatile ExecutorService fallbackExecutor;
+    private IAsyncHttpRequester fallback;
+    /** Requests waiting for their turn, oldest first, and the counts of those in flight; guarded by this. */
+    private final Deque<Exchange> queue = new ArrayDeque<Exchange>();
+    private int inFlight;
+    private long inFlightBytes;
+    private boolean answered;
+    private final AtomicLong http2Responses = new AtomicLong();
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout connect timeout, and time the server may take to answer once a request is sent.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param maxConcurrentStreams number of requests in flight at once. The server limits it too, requests above
+     * its limit wait in the HTTP client.
+     */
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    /**
+     * @param maxInFlightBytes size of the request bodies in flight at once; a larger request is sent alone.
+     */
+    public void setMaxInFlightBytes(long maxInFlightBytes) {
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * @param http2 false to always send with an {@link HttpRequester}.
+     */
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    /**
+     * @param sslContext context of the HTTPS connections, the JVM's default one if not set. Not used by the
+     * {@link HttpRequester} fallback.
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    @Override
+    public int send(HttpRequest request) throws IOException {
+        ResponseFuture future = new ResponseFuture();
+        sendAsync(request, future);
+        return future.getResponse().getStatusCode();
+    }
+
+    @Override
+    public void sendAsync(HttpRequest request, ResponseCallback callback) {
+        Exchange exchange = new Exchange(request, callback);
+        IAsyncHttpRequester blocking;
+        IOException refused = null;
+        synchronized (this) {
+            init();
+            blocking = fallback;
+            if (closed) {
+                refused = new IOException("Requester closed");
+            } else if (blocking == null && (!queue.isEmpty() || !tryAdmit(exchange))) {
+                if (queue.size() < maxQueuedRequests) {
+                    queue.add(exchange);
+                    return;
+                }
+                refused = new IOException("Too many requests waiting: " + queue.size());
+            }
+        }
+        if (refused != null) {
+            callback.onFailure(request, refused);
+        } else if (blocking != null) {
+            blocking.sendAsync(request, callback);
+        } else {
+            start(exchange);
+        }
+    }
+
+    /**
+     * @return whether requests are sent with the JVM's HTTP/2 capable client, false if they are sent with the
+     * {@link HttpRequester} fallback or nothing was sent yet.
+     */
+    public synchronized boolean isHttp2Available() {
+        return client != null;
+    }
+
+    /**
+     * @return number of responses received over HTTP/2.
+     */
+    public long getHttp2ResponseCount() {
+        return http2Responses.get();
+    }
+
+    public synchronized int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Closes the connections where the JVM allows it; requests still in flight or waiting fail.
+     */
+    @Override
+    public void close() {
+        List<Exchange> abandoned;
+        synchronized (this) {
+            closed = true;
+            abandoned = new ArrayList<Exchange>(queue);
+            queue.clear();
+        }
+        if (client != null) {
+            client.close();
+        }
+        if (fallbackExecutor != null) {
+            fallbackExecutor.shutdown();
+        }
+        for (Exchange exchange : abandoned) {
+            exchange.callback.onFailure(exchange.request, new IOException("Requester closed"));
+        }
+    }
+
+    private void init() {
+        if (initialized) {
+            return;
+        }
+        initialized = true;
+        if (http2) {
+            client = Http2Client.create(timeout, sslContext);
+        }
+        if (client == null) {
+            HttpRequester requester = new HttpRequester();
+            requester.setTimeout(timeout);
+            fallbackExecutor = SenderExecutors.newPlatformExecutor("rollbar-http", 0, FALLBACK_THREADS, 60000);
+            fallback = new AsyncHttpRequesterAdapter(requester, fallbackExecutor);
+        }
+    }
+
+    /**
+     * Called holding the lock.
+     */
+    private boolean tryAdmit(Exchange exchange) {
+        int limit = answered ? maxConcurrentStreams : 1;
+        if (inFlight > 0 && (inFlight >= limit || inFlightBytes + exchange.body.length > maxInFlightBytes)) {
+            return false;
+        }
+        inFlight++;
+        inFlightBytes += exchange.body.length;
+        return true;
+    }
+
+    private void start(Exchange exchange) {
+        try {
+            client.send(exchange.request.getUrl().toURI(), exchange.request.getMethod(), exchange.request.getHeaders(),
+                            exchange.body, timeout, exchange);
+        } catch (URISyntaxException e) {
+            exchange.onFailure(new IOException("Invalid url: " + exchange.request.getUrl(), e));
+        }
+    }
+
+    private void done(Exchange exchange, boolean responded) {
+        List<Exchange> next = new ArrayList<Exchange>();
+        synchronized (this) {
+            inFlight--;
+            inFlightBytes -= exchange.body.length;
+            answered |= responded;
+            while (!queue.isEmpty() && tryAdmit(queue.peek())) {
+                next.add(queue.poll());
+            }
+        }
+        for (Exchange admitted : next) {
+            start(admitted);
+        }
+    }
+
+    private class Exchange implements Http2Client.Listener {
+        final HttpRequest request;
+        final ResponseCallback callback;
+        final byte[] body;
+
+        Exchange(HttpRequest request, ResponseCallback callback) {
+            this.request = request;
+            this.callback = callback;
+            byte[] bytes = request.getBody();
+            this.body = bytes == null ? new byte[0] : bytes;
+        }
+
+        @Override
+        public void onResponse(int statusCode, Map<String, String> headers, byte[] body, boolean http2) {
+            if (http2) {
+                http2Responses.incrementAndGet();
+            }
+            done(this, true);
+            callback.onResponse(request, new HttpResponse(statusCode, headers, body));
+        }
+
+        @Override
+        public void onFailure(IOException e) {
+            done(this, false);
+            callback.onFailure(request, e);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.tapstream.rollbar;
+
+import com.tapstream.rollbar.transport.DnsCache;
+import com.tapstream.rollbar.transport.Http11;
+import com.tapstream.rollbar.transport.NioClient;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Sends requests over non-blocking keep-alive connections: a couple of event loop threads keep hundreds of
+ * requests in flight, where a blocking requester needs a thread for each one. The threads are started on first use
+ * and stopped by {@link #close()}.
+ * <p>
+ * Callbacks run on the event loop threads and must not block. {@link #send(HttpRequest)} blocks the calling thread
+ * until the response arrives, like any other requester.
+ */
+public class NioHttpRequester implements IAsyncHttpRequester, IWarmableHttpRequester, Closeable {
+    private int timeout = 5000;
+    private int eventLoopThreads = 2;
+    private int maxConnections = 64;
+    private int maxIdleConnections = 8;
+    private long idleTimeoutMillis = 30000;
+    private int maxQueuedRequests = 1024;
+    private long dnsTtlMillis = 60000;
+    private SSLContext sslContext;
+    private volatile NioClient client;
+    private boolean closed;
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout time a request may take from the moment it is sent, waiting for a connection included.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    /**
+     * @param maxConnections number of connections open at once, so of requests in flight.
+     */
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param maxQueuedRequests number of requests waiting for a connection when they all are in use, beyond which
+     * requests fail right away.
+     */
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    /**
+     * @param dnsTtlMillis how long a resolved address is used for new connections, 0 to resolve the host for each.
+     */
+    public void setDnsTtlMillis(long dnsTtlMillis) {
+        this.dnsTtlMillis = dnsTtlMillis;
+    }
+
+    /**
+     * @param sslContext context of the HTTPS connections, the JVM's default one if not set.
+     */
+    public void setSslContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    @Override
+    public int send(HttpRequest request) throws IOException {
+        ResponseFuture future = new ResponseFuture();
+        sendAsync(request, future);
+        return future.getResponse().getStatusCode();
+    }
+
+    @Override
+    public void sendAsync(final HttpRequest request, final ResponseCallback callback) {
+        URL url = request.getUrl();
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        NioClient current;
+        ByteBuffer[] encoded;
+        try {
+            if (!https && !"http".equalsIgnoreCase(url.getProtocol())) {
+                throw new IOException("Unsupported protocol: " + url.getProtocol());
+            }
+            current = client();
+            encoded = encode(request, url, port);
+        } catch (IOException e) {
+            callback.onFailure(request, e);
+            return;
+        }
+        current.execute(url.getHost(), port, https, encoded, request.getMethod(), timeout, new NioClient.Listener() {
+            @Override
+            public void onResponse(Http11.Response response) {
+                callback.onResponse(request, new HttpResponse(response.getStatusCode(), response.getHeaders(),
+                                response.getBody()));
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                callback.onFailure(request, e);
+            }
+        });
+    }
+
+    /**
+     * @return the head and the body, which is written as it is. Only a body given as a writer is encoded along
+     * with the head.
+     */
+    private static ByteBuffer[] encode(HttpRequest request, URL url, int port) throws IOException {
+        RequestBuffer head = new RequestBuffer();
+        ByteBuffer body = request.getBodyBuffer();
+        if (body == null && request.getBodyWriter() != null) {
+            PooledHttpRequester.writeRequest(request, url, port, head);
+            return new ByteBuffer[] {head.toByteBuffer()};
+        }
+        PooledHttpRequester.writeHead(request, url, port, body == null ? 0 : body.remaining(), head);
+        return body == null ? new ByteBuffer[] {head.toByteBuffer()} : new ByteBuffer[] {head.toByteBuffer(), body};
+    }
+
+    /**
+     * Resolves the url's host and, for HTTPS, leaves a TLS session for the first connection to resume.
+     */
+    @Override
+    public void warmUp(URL url) throws IOException {
+        boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        if (!https && !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException("Unsupported protocol: " + url.getProtocol());
+        }
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        client().warmUp(url.getHost(), port, https, timeout);
+    }
+
+    /**
+     * Closes the connections; requests still in flight fail.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (client != null) {
+            client.close();
+        }
+    }
+
+    /**
+     * @return number of connections opened, each one a TCP and, for HTTPS, a TLS handshake.
+     */
+    public long getHandshakeCount() {
+        return client == null ? 0 : client.getConnectCount();
+    }
+
+    /**
+     * @return number of requests sent over a connection kept open after an earlier one.
+     */
+    public long getReuseCount() {
+        return client == null ? 0 : client.getReuseCount();
+    }
+
+    /**
+     * @return number of idle connections found closed by the server.
+     */
+    public long getStaleCount() {
+        return client == null ? 0 : client.getStaleCount();
+    }
+
+    private NioClient client() throws IOException {
+        NioClient current = client;
+        if (current == null) {
+            synchronized (this) {
+                if (closed) {
+                    throw new IOException("Requester closed");
+                }
+                if (client == null) {
+                    client = new NioClient("rollbar-nio", eventLoopThreads, maxConnections, maxIdleConnections,
+                                    idleTimeoutMillis, maxQueuedRequests, sslContext, new DnsCache(dnsTtlMillis));
+                }
+                current = client;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Hands its bytes over without copying them.
+     */
+    private static class RequestBuffer extends ByteArrayOutputStream {
+        RequestBuffer() {
+            super(1024);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count).asReadOnlyBuffer();
+        }
+    }
+}
@@ -1,31 +1,132 @@
 package com.tapstream.rollbar;
 
+import com.tapstream.rollbar.ContextPartitioner.Partition;
+import com.tapstream.rollbar.ContextPartitioner.Section;
+import com.tapstream.rollbar.codec.JsonCodec;
+import com.tapstream.rollbar.codec.LimitExceededException;
+import com.tapstream.rollbar.codec.PayloadCodec;
+import com.tapstream.rollbar.codec.PayloadWriter;
 import com.tapstream.rollbar.fingerprinter.Fingerprinter;
-import org.json.JSONArray;
+import com.tapstream.rollbar.fingerprinter.ThrowableProxyFingerprinter;
+import com.tapstream.rollbar.json.FrameCache;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.ArrayList;
-import java.util.List;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+import java.util.Collections;
 import java.util.Map;
 import java.util.Map.Entry;
 
 public class NotifyBuilder {
-    private static final String PERSON_PREFIX = "person.";
-    private final String accessToken;
-    private final String environment;
+    static final String PERSON_PREFIX = "person.";
+    // names of the request values set by RollbarFilter, without their prefix
+    private static final String URL = RollbarFilter.REQUEST_URL.substring(RollbarFilter.REQUEST_PREFIX.length());
+    private static final String QUERY_STRING = RollbarFilter.REQUEST_QS.substring(RollbarFilter.REQUEST_PREFIX.length());
+    private static final String METHOD = RollbarFilter.REQUEST_METHOD.substring(RollbarFilter.REQUEST_PREFIX.length());
+    private static final String REMOTE_ADDR = RollbarFilter.REQUEST_REMOTE_ADDR.substring(RollbarFilter.REQUEST_PREFIX.length());
+    private static final String USER_AGENT = RollbarFilter.REQUEST_USER_AGENT.substring(RollbarFilter.REQUEST_PREFIX.length());
+
+    /**
+     * What is cut from an item, in increasing order, while it does not fit the payload budget: middle frames of
+     * each trace first, then long strings, then the custom data. The last step is written whatever its size.
+     */
+    private static final Truncation[] TRUNCATION_STEPS = {
+        new Truncation(Integer.MAX_VALUE, Integer.MAX_VALUE, false),
+        new Truncation(100, Integer.MAX_VALUE, false),
+        new Truncation(20, Integer.MAX_VALUE, false),
+        new Truncation(20, 1024, false),
+        new Truncation(20, 256, false),
+        new Truncation(20, 256, true),
+    };
 
-    private final JSONObject notifierData;
-    private final JSONObject serverData;
     private final Fingerprinter fingerprinter;
+    private final PayloadCodec codec;
+    private FrameCache frameCache;
+    private int maxPayloadBytes;
+    private boolean elideCommonFrames;
+    private int maxFramesPerTrace;
+    private ContextPartitioner partitioner = ContextPartitioner.withDefaultPrefixes();
+
+    // parts of every item that only depend on the configuration, encoded once
+    private final byte[] accessTokenMember;
+    private final byte[] constantDataMembers;
+    private final byte[] defaultPlatformMember;
+    private final byte[] defaultFrameworkMember;
+    private final byte[] serverNotifierMembers;
 
     public NotifyBuilder(String accessToken, String environment, ServerDataProvider serverDataProvider,
                     NotifierDataProvider notifierDataProvider, Fingerprinter fingerprinter) throws JSONException, RollbarException {
-        this.accessToken = accessToken;
-        this.environment = environment;
-        this.notifierData = notifierDataProvider.getNotifierData();
-        this.serverData = serverDataProvider.getServerData();
+        this(accessToken, environment, serverDataProvider, notifierDataProvider, fingerprinter, new JsonCodec());
+    }
+
+    /**
+     * @param codec encoding of the items written.
+     */
+    public NotifyBuilder(String accessToken, String environment, ServerDataProvider serverDataProvider,
+                    NotifierDataProvider notifierDataProvider, Fingerprinter fingerprinter, PayloadCodec codec)
+                    throws JSONException, RollbarException {
+        JSONObject notifierData = notifierDataProvider.getNotifierData();
+        JSONObject serverData = serverDataProvider.getServerData();
         this.fingerprinter = fingerprinter;
+        this.codec = codec;
+
+        PayloadWriter out = codec.newWriter(256, 256);
+        this.accessTokenMember = accessToken == null ? null : members(out.reset().beginObject().field("access_token", accessToken));
+        this.constantDataMembers = members(out.reset().beginObject().field("environment", environment).field("language", "java"));
+        this.defaultPlatformMember = members(out.reset().beginObject().field("platform", "java"));
+        this.defaultFrameworkMember = members(out.reset().beginObject().field("framework", "java"));
+        out.reset().beginObject();
+        if (serverData != null) {
+            out.name("server").value(serverData);
+        }
+        if (notifierData != null) {
+            out.name("notifier").value(notifierData);
+        }
+        this.serverNotifierMembers = serverData == null && notifierData == null ? null : members(out);
+    }
+
+    /**
+     * @param frameCache cache of encoded frames shared by the threads building items, null to encode every frame.
+     */
+    public void setFrameCache(FrameCache frameCache) {
+        this.frameCache = frameCache;
+    }
+
+    /**
+     * @param partitioner sorts MDC entries into the person, request and custom sections of items.
+     */
+    public void setContextPartitioner(ContextPartitioner partitioner) {
+        this.partitioner = partitioner;
+    }
+
+    /**
+     * @param elideCommonFrames whether the frames a cause shares with the trace of the exception it caused are left
+     * out of the cause's trace, like {@link Throwable#printStackTrace()} does.
+     */
+    public void setElideCommonFrames(boolean elideCommonFrames) {
+        this.elideCommonFrames = elideCommonFrames;
+    }
+
+    /**
+     * @param maxFramesPerTrace number of frames written per trace, half of them the outermost and half the
+     * innermost ones; 0 for no limit.
+     */
+    public void setMaxFramesPerTrace(int maxFramesPerTrace) {
+        this.maxFramesPerTrace = maxFramesPerTrace;
+    }
+
+    /**
+     * @param maxPayloadBytes size the written item should not exceed, 0 for no limit.
+     * @see #write(PayloadWriter, RollbarEvent, String, Map)
+     */
+    public void setMaxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    private static byte[] members(PayloadWriter object) {
+        return object.endObject().toMembers();
     }
 
     private String getValue(String key, Map<String, String> context, String defaultValue) {
@@ -39,190 +140,373 @@ public class NotifyBuilder {
         return value.toString();
     }
 
-    public JSONObject build(String level, String message, Throwable throwable, Map<String, String> context, String loggerName) {
-        try {
-            JSONObject payload = new JSONObject();
-
-            // access token
-            payload.put("access_token", this.accessToken);
+    public JSONObject build(RollbarEvent event) {
+        return build(event, fingerprint(event), Collections.<String, Object>emptyMap());
+    }
 
-            // data
-            JSONObject data = new JSONObject();
+    /**
+     * @param fingerprint as returned by {@link #fingerprint(RollbarEvent)}, may be null.
+     * @param extraCustom entries added to the item's custom data; values may be strings, numbers, booleans, collections or maps.
+     */
+    public JSONObject build(RollbarEvent event, String fingerprint, Map<String, ?> extraCustom) {
+        PayloadWriter out = newWriter();
+        write(out, event, fingerprint, extraCustom);
+        return parse(out);
+    }
 
-            maybeAddFingerprint(message, throwable, context, loggerName, data);
+    public JSONObject build(String level, String message, Throwable throwable, Map<String, String> context, String loggerName) {
+        PayloadWriter out = newWriter();
+        write(out, level, message, TraceChain.of(throwable), context, partitioner.partition(context), loggerName, System.currentTimeMillis(),
+                        fingerprint(message, throwable, context, loggerName), Collections.<String, Object>emptyMap(),
+                        TRUNCATION_STEPS[0].start());
+        return parse(out);
+    }
 
-            // general values
-            data.put("environment", this.environment);
-            data.put("level", level);
-            data.put("platform", getValue("platform", context, "java"));
-            data.put("framework", getValue("framework", context, "java"));
-            data.put("language", "java");
-            if (loggerName != null && !loggerName.isEmpty()) {
-                data.put("context", loggerName);
-            }
-            data.put("timestamp", System.currentTimeMillis() / 1000);
-            data.put("body", getBody(message, throwable));
-            data.put("request", buildRequest(context));
-
-            // Custom data and log message if there's a throwable
-            JSONObject customData = buildCustom(context);
-            if (throwable != null && message != null) {
-                customData.put("log", message);
+    /**
+     * Writes the item to the writer as UTF-8 JSON, without building an object tree, replacing anything written
+     * before. If the item exceeds the payload budget, writing stops as soon as it does and starts over with more
+     * cut out; custom data then has a {@code truncation} entry counting what was cut.
+     *
+     * @see #build(RollbarEvent, String, Map)
+     */
+    public void write(PayloadWriter out, RollbarEvent event, String fingerprint, Map<String, ?> extraCustom) {
+        TraceChain chain = TraceChain.of(event.getThrowableProxy());
+        Partition mdc = partitioner.partition(event.getContext());
+        if (maxPayloadBytes <= 0) {
+            write(out.reset(), event.getLevelName(), event.getMessage(), chain, event.getContext(), mdc,
+                            event.getLoggerName(), event.getTimestamp(), fingerprint, extraCustom, TRUNCATION_STEPS[0].start());
+            return;
+        }
+        try {
+            for (int step = 0;; step++) {
+                boolean last = step == TRUNCATION_STEPS.length - 1;
+                out.reset().limit(last ? Integer.MAX_VALUE : maxPayloadBytes);
+                try {
+                    write(out, event.getLevelName(), event.getMessage(), chain, event.getContext(), mdc,
+                                    event.getLoggerName(), event.getTimestamp(), fingerprint, extraCustom,
+                                    TRUNCATION_STEPS[step].start());
+                    return;
+                } catch (LimitExceededException e) {
+                    // try again with more cut out
+                }
             }
+        } finally {
+            out.limit(Integer.MAX_VALUE);
+        }
+    }
 
-            JSONObject person = buildPerson(context);
-            if (person != null) {
-                data.put("person", person);
-            }
+    /**
+     * @return a writer of the builder's encoding.
+     */
+    public PayloadWriter newWriter() {
+        return codec.newWriter(4096, 256 * 1024);
+    }
 
-            data.put("custom", customData);
-            data.put("client", buildClient(context));
-            data.put("server", serverData);
-            data.put("notifier", notifierData);
-            payload.put("data", data);
+    public PayloadCodec getCodec() {
+        return codec;
+    }
 
-            return payload;
-        } catch (JSONException e) {
-            throw new RuntimeException("Failed to create person representation", e);
+    private JSONObject parse(PayloadWriter out) {
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, Object> item = (Map<String, Object>) codec.decode(out.buffer(), 0, out.size());
+            return new JSONObject(item);
+        } catch (IllegalArgumentException e) {
+            throw new RuntimeException("Failed to parse written payload", e);
         }
     }
 
-    private void maybeAddFingerprint(String message, Throwable throwable, Map<String, String> context, String loggerName, JSONObject payload) throws JSONException {
-        if(fingerprinter == null) {
-            return;
+    /**
+     * @return fingerprint computed by the configured {@link Fingerprinter} or null if Rollbar should compute it.
+     */
+    public String fingerprint(RollbarEvent event) {
+        IThrowableProxy proxy = event.getThrowableProxy();
+        if (proxy == null || proxy instanceof ThrowableProxy) {
+            Throwable throwable = proxy == null ? null : ((ThrowableProxy) proxy).getThrowable();
+            return fingerprint(event.getMessage(), throwable, event.getContext(), event.getLoggerName());
         }
-        
-        String fingerprint = fingerprinter.fingerprint(message, throwable, context, loggerName);
-        if(fingerprint != null) {
-            payload.put("fingerprint", fingerprint);
+        // the event was serialized and only carries the proxy
+        if (fingerprinter instanceof ThrowableProxyFingerprinter) {
+            return ((ThrowableProxyFingerprinter) fingerprinter).fingerprintProxy(event.getMessage(), proxy,
+                            event.getContext(), event.getLoggerName());
         }
+        return null;
     }
-    
-    private JSONObject buildPerson(Map<String, String> ctx) throws JSONException {
-        JSONObject person = new JSONObject();
-        for (Entry<String, String> ctxEntry : ctx.entrySet()) {
-            String key = ctxEntry.getKey();
-            if (key.startsWith(PERSON_PREFIX)) {
-                person.put(stripPrefix(key, PERSON_PREFIX), ctxEntry.getValue());
-            }
-        }
-        if (!person.keys().hasNext()) {
+
+    private String fingerprint(String message, Throwable throwable, Map<String, String> context, String loggerName) {
+        if (fingerprinter == null) {
             return null;
+        }
+        return fingerprinter.fingerprint(message, throwable, context, loggerName);
+    }
+
+    private void write(PayloadWriter out, String level, String message, TraceChain chain, Map<String, String> context,
+                    Partition mdc, String loggerName, long timestamp, String fingerprint, Map<String, ?> extraCustom, Truncation cut) {
+        out.beginObject();
+        if (accessTokenMember != null) {
+            out.raw(accessTokenMember);
+        }
+
+        out.name("data").beginObject();
+        out.field("fingerprint", fingerprint);
+
+        // general values
+        out.raw(constantDataMembers);
+        out.field("level", level);
+        writeOverridable(out, "platform", context, defaultPlatformMember);
+        writeOverridable(out, "framework", context, defaultFrameworkMember);
+        if (loggerName != null && !loggerName.isEmpty()) {
+            out.field("context", loggerName);
+        }
+        out.field("timestamp", timestamp / 1000);
+        out.name("body");
+        writeBody(out, message, chain, cut);
+        out.name("request");
+        writeRequest(out, mdc, cut);
+        writePerson(out, mdc, cut);
+
+        // Custom data and log message if there's a throwable
+        out.name("custom");
+        writeCustom(out, mdc, chain != null ? message : null, extraCustom, cut);
+
+        out.name("client").beginObject();
+        out.name("javascript").beginObject().field("browser", mdc.get(Section.REQUEST, USER_AGENT)).endObject();
+        out.endObject();
+        if (serverNotifierMembers != null) {
+            out.raw(serverNotifierMembers);
+        }
+        out.endObject();
+
+        out.endObject();
+    }
+
+    /**
+     * Writes the MDC value of the key if there is one, the pre-encoded default otherwise.
+     */
+    private void writeOverridable(PayloadWriter out, String key, Map<String, String> context, byte[] defaultMember) {
+        String value = getValue(key, context, null);
+        if (value != null) {
+            out.field(key, value);
         } else {
-            return person;
+            out.raw(defaultMember);
         }
     }
 
-    private JSONObject buildClient(Map<String, String> ctx) throws JSONException {
-        JSONObject client = new JSONObject();
-        JSONObject javaScript = new JSONObject();
-        javaScript.put("browser", ctx.get(RollbarFilter.REQUEST_USER_AGENT));
-        client.put("javascript", javaScript);
-        return client;
+    private void writePerson(PayloadWriter out, Partition mdc, Truncation cut) {
+        int size = mdc.size(Section.PERSON);
+        if (size == 0) {
+            return;
+        }
+        out.name("person").beginObject();
+        for (int i = 0; i < size; i++) {
+            out.field(mdc.name(Section.PERSON, i), cut.string(mdc.value(Section.PERSON, i)));
+        }
+        out.endObject();
     }
-    
-    private JSONObject buildCustom(Map<String, String> ctx) throws JSONException {
-        JSONObject custom = new JSONObject();
-        for (Entry<String, String> ctxEntry : ctx.entrySet()){
-            String key = ctxEntry.getKey();
-            if (!key.startsWith(RollbarFilter.REQUEST_PREFIX) && !key.startsWith(PERSON_PREFIX)){
-                custom.put(key, ctxEntry.getValue());
+
+    /**
+     * Entries written later replace earlier ones with the same key: the log message replaces an MDC value, extra
+     * custom data replaces both. What the budget made cut from the item is recorded last.
+     */
+    private void writeCustom(PayloadWriter out, Partition mdc, String log, Map<String, ?> extraCustom, Truncation cut) {
+        out.beginObject();
+        for (int i = 0, size = mdc.size(Section.CUSTOM); i < size; i++) {
+            String key = mdc.name(Section.CUSTOM, i);
+            if (!(log != null && key.equals("log")) && !extraCustom.containsKey(key)) {
+                if (cut.dropCustom) {
+                    cut.droppedCustomEntries++;
+                } else {
+                    out.field(key, cut.string(mdc.value(Section.CUSTOM, i)));
+                }
             }
         }
-        return custom;
-    }
-    
-    private String stripPrefix(String value, String prefix){
-        return value.substring(prefix.length(), value.length());
+        if (log != null && !extraCustom.containsKey("log")) {
+            if (cut.dropCustom) {
+                cut.droppedCustomEntries++;
+            } else {
+                out.field("log", cut.string(log));
+            }
+        }
+        if (cut.dropCustom) {
+            cut.droppedCustomEntries += extraCustom.size();
+        } else {
+            for (Entry<String, ?> entry : extraCustom.entrySet()) {
+                out.name(entry.getKey()).value(entry.getValue());
+            }
+        }
+        if (cut.isTruncated()) {
+            out.name("truncation").beginObject();
+            out.field("elided_frames", cut.elidedFrames);
+            out.field("truncated_strings", cut.truncatedStrings);
+            out.field("dropped_custom_entries", cut.droppedCustomEntries);
+            out.endObject();
+        }
+        out.endObject();
     }
     
-    private JSONObject buildRequest(Map<String, String> ctx) throws JSONException {
-        JSONObject request = new JSONObject();
-        request.put("url", ctx.get(RollbarFilter.REQUEST_URL));
-        request.put("query_string", ctx.get(RollbarFilter.REQUEST_QS));
-        
-        JSONObject headers = new JSONObject();
-        JSONObject params = new JSONObject();
-        
-        for (Entry<String, String> ctxEntry : ctx.entrySet()){
-            String key = ctxEntry.getKey();
-            if (key.startsWith(RollbarFilter.REQUEST_HEADER_PREFIX)){
-                headers.put(stripPrefix(key, RollbarFilter.REQUEST_HEADER_PREFIX), ctxEntry.getValue());
-            } else if (key.startsWith(RollbarFilter.REQUEST_PARAM_PREFIX)){
-                params.put(stripPrefix(key, RollbarFilter.REQUEST_PARAM_PREFIX), ctxEntry.getValue());
-            }
+    private void writeRequest(PayloadWriter out, Partition mdc, Truncation cut) {
+        out.beginObject();
+        out.field("url", cut.string(mdc.get(Section.REQUEST, URL)));
+        out.field("query_string", cut.string(mdc.get(Section.REQUEST, QUERY_STRING)));
+
+        out.name("headers").beginObject();
+        for (int i = 0, size = mdc.size(Section.REQUEST_HEADER); i < size; i++) {
+            out.field(mdc.name(Section.REQUEST_HEADER, i), cut.string(mdc.value(Section.REQUEST_HEADER, i)));
         }
-        
-        request.put("headers", headers);
-        
-        String method = ctx.get(RollbarFilter.REQUEST_METHOD);
+        out.endObject();
+
+        String method = mdc.get(Section.REQUEST, METHOD);
         if (method != null) {
-            request.put("method", method);
-            request.put(method, params);
+            out.field("method", method);
+            out.name(method).beginObject();
+            for (int i = 0, size = mdc.size(Section.REQUEST_PARAM); i < size; i++) {
+                out.field(mdc.name(Section.REQUEST_PARAM, i), cut.string(mdc.value(Section.REQUEST_PARAM, i)));
+            }
+            out.endObject();
         }
-        
-        request.put("user_ip", ctx.get(RollbarFilter.REQUEST_REMOTE_ADDR));
-        return request;
-    }
 
-    private JSONObject getBody(String message, Throwable original) throws JSONException {
-        JSONObject body = new JSONObject();
+        out.field("user_ip", mdc.get(Section.REQUEST, REMOTE_ADDR));
+        out.endObject();
+    }
 
-        Throwable throwable = original;
+    private void writeBody(PayloadWriter out, String message, TraceChain chain, Truncation cut) {
+        out.beginObject();
 
-        if (throwable != null) {
-            List<JSONObject> traces = new ArrayList<JSONObject>();
-            do {
-                traces.add(0, createTrace(throwable));
-                throwable = throwable.getCause();
-            } while (throwable != null);
-            
+        if (chain != null) {
             // TODO consider in the future: if description is present it becomes the label for rollbar item instead of exception's message
-            // traces.get(0).getJSONObject("exception").put("description", "Something went wrong while trying to save the user object");
-
-            body.put("trace_chain", new JSONArray(traces));
+            // the innermost cause goes first
+            out.name("trace_chain").beginArray();
+            for (int i = chain.size() - 1; i >= 0; i--) {
+                int common = elideCommonFrames && i > 0 ? framesInCommon(chain.trace(i), chain.trace(i - 1)) : 0;
+                writeTrace(out, chain, i, common, cut);
+            }
+            out.endArray();
         }
 
         // note - can't send both message and exception, rollbar does not accept it
-        if (original == null && message != null) {
-            JSONObject messageBody = new JSONObject();
-            messageBody.put("body", message);
-            body.put("message", messageBody);
+        if (chain == null && message != null) {
+            out.name("message").beginObject().field("body", cut.string(message)).endObject();
         }
 
-        return body;
+        out.endObject();
     }
 
-    private JSONObject createTrace(Throwable throwable) throws JSONException {
-        JSONObject trace = new JSONObject();
+    /**
+     * @return number of outermost frames of the trace that are the same as those of the enclosing trace.
+     */
+    private static int framesInCommon(StackTraceElement[] trace, StackTraceElement[] enclosingTrace) {
+        int m = trace.length - 1;
+        int n = enclosingTrace.length - 1;
+        while (m >= 0 && n >= 0 && trace[m].equals(enclosingTrace[n])) {
+            m--;
+            n--;
+        }
+        return trace.length - 1 - m;
+    }
 
-        JSONArray frames = new JSONArray();
+    /**
+     * @param common number of outermost frames left out because the enclosing trace has them.
+     */
+    private void writeTrace(PayloadWriter out, TraceChain chain, int index, int common, Truncation cut) {
+        out.beginObject();
 
-        StackTraceElement[] elements = throwable.getStackTrace();
-        for (int i = elements.length - 1; i >= 0; --i) {
+        StackTraceElement[] elements = chain.trace(index);
+        out.name("frames").beginArray();
+        if (common > 0) {
+            writeMarkerFrame(out, common + " frames in common with the enclosing exception");
+        }
+        int count = elements.length - common;
+        // when there are too many frames, the outermost and innermost ones are kept
+        int configuredMax = maxFramesPerTrace > 0 ? maxFramesPerTrace : Integer.MAX_VALUE;
+        int maxFrames = Math.min(configuredMax, cut.maxFrames);
+        int elided = Math.max(0, count - maxFrames);
+        int elideFrom = count - 1 - maxFrames / 2;
+        for (int i = count - 1; i >= 0; --i) {
+            if (elided > 0 && i == elideFrom) {
+                writeMarkerFrame(out, elided + " frames elided");
+                // only what the budget cut is reported as truncation
+                cut.elidedFrames += elided - Math.max(0, count - configuredMax);
+                i -= elided - 1;
+                continue;
+            }
             StackTraceElement element = elements[i];
+            if (frameCache == null) {
+                writeFrame(out, element);
+                continue;
+            }
+            byte[] frame = frameCache.get(element);
+            if (frame == null) {
+                frame = writeFrame(codec.newWriter(128, 128), element).toByteArray();
+                frameCache.put(element, frame);
+            }
+            out.raw(frame);
+        }
+        out.endArray();
+
+        out.name("exception").beginObject();
+        out.field("class", chain.className(index));
+        out.field("message", cut.string(chain.message(index)));
+        out.endObject();
 
-            JSONObject frame = new JSONObject();
+        out.endObject();
+    }
 
-            frame.put("class_name", element.getClassName());
-            frame.put("filename", element.getFileName());
-            frame.put("method", element.getMethodName());
+    /**
+     * Writes a frame standing for the frames left out at its place.
+     */
+    private void writeMarkerFrame(PayloadWriter out, String description) {
+        out.beginObject().field("filename", "...").field("method", description).endObject();
+    }
 
-            if (element.getLineNumber() > 0) {
-                frame.put("lineno", element.getLineNumber());
-            }
+    private PayloadWriter writeFrame(PayloadWriter out, StackTraceElement element) {
+        out.beginObject();
+        out.field("class_name", element.getClassName());
+        out.field("filename", element.getFileName());
+        out.field("method", element.getMethodName());
+        if (element.getLineNumber() > 0) {
+            out.field("lineno", element.getLineNumber());
+        }
+        return out.endObject();
+    }
 
-            frames.put(frame);
+    /**
+     * Limits applied while writing one item, and what they cut from it.
+     */
+    private static final class Truncation {
+        final int maxFrames;
+        final int maxStringChars;
+        final boolean dropCustom;
+        int elidedFrames;
+        int truncatedStrings;
+        int droppedCustomEntries;
+
+        Truncation(int maxFrames, int maxStringChars, boolean dropCustom) {
+            this.maxFrames = maxFrames;
+            this.maxStringChars = maxStringChars;
+            this.dropCustom = dropCustom;
         }
 
-        JSONObject exceptionData = new JSONObject();
-        exceptionData.put("class", throwable.getClass().getName());
-        exceptionData.put("message", throwable.getMessage());
+        /**
+         * @return fresh counters for one attempt at writing an item.
+         */
+        Truncation start() {
+            return new Truncation(maxFrames, maxStringChars, dropCustom);
+        }
 
-        trace.put("frames", frames);
-        trace.put("exception", exceptionData);
+        String string(String value) {
+            if (value == null || value.length() <= maxStringChars) {
+                return value;
+            }
+            truncatedStrings++;
+            int end = maxStringChars;
+            if (Character.isHighSurrogate(value.charAt(end - 1))) {
+                end--;
+            }
+            return value.substring(0, end) + "...";
+        }
 
-        return trace;
+        boolean isTruncated() {
+            return elidedFrames > 0 || truncatedStrings > 0 || droppedCustomEntries > 0;
+        }
     }
-
 }
@@ -0,0 +1,225 @@
+package com.tapstream.rollbar;
+
+import com.tapstream.rollbar.transport.ConnectionPool;
+import com.tapstream.rollbar.transport.DnsCache;
+import com.tapstream.rollbar.transport.Http11;
+import com.tapstream.rollbar.transport.PooledConnection;
+import com.tapstream.rollbar.transport.Sockets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.URL;
+import java.util.List;
+
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Speaks HTTP/1.1 over its own pool of keep-alive connections, so that items sent one after another, from any
+ * thread, do not each pay for a TCP and TLS handshake. Connections are opened lazily and the pool is configured
+ * on first use; {@link #close()} closes the idle ones.
+ * <p>
+ * A connection is only reused once its previous response was read to the end and the server did not ask to close
+ * it. One that failed in any way is closed. Hosts are resolved once per {@code dnsTtlMillis}.
+ */
+public class PooledHttpRequester implements IBatchHttpRequester, IWarmableHttpRequester, Closeable {
+    private int timeout = 5000;
+    private int maxTotalConnections = 4;
+    private int maxIdleConnections = 2;
+    private long idleTimeoutMillis = 30000;
+    private long validateAfterIdleMillis = 2000;
+    private long dnsTtlMillis = 60000;
+    private SSLSocketFactory sslSocketFactory;
+    private volatile ConnectionPool pool;
+    private DnsCache dns;
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout connect and read timeout, also how long to wait for a connection when they all are in use.
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        this.maxTotalConnections = maxTotalConnections;
+    }
+
+    public void setMaxIdleConnections(int maxIdleConnections) {
+        this.maxIdleConnections = maxIdleConnections;
+    }
+
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * @param validateAfterIdleMillis how long a connection may stay idle before it is checked to still be open
+     * when about to be reused.
+     */
+    public void setValidateAfterIdleMillis(long validateAfterIdleMillis) {
+        this.validateAfterIdleMillis = validateAfterIdleMillis;
+    }
+
+    /**
+     * @param dnsTtlMillis how long a resolved address is used for new connections, 0 to resolve the host for each.
+     */
+    public void setDnsTtlMillis(long dnsTtlMillis) {
+        this.dnsTtlMillis = dnsTtlMillis;
+    }
+
+    /**
+     * @param sslSocketFactory factory of the HTTPS connections, the JVM's default one if not set.
+     */
+    public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+        this.sslSocketFactory = sslSocketFactory;
+    }
+
+    @Override
+    public int send(HttpRequest request) throws IOException {
+        return exchange(request).getStatusCode();
+    }
+
+    @Override
+    public void sendBatch(List<HttpRequest> requests, BatchCallback callback) {
+        for (HttpRequest request : requests) {
+            if (!callback.beforeSend(request)) {
+                continue;
+            }
+            HttpResponse response;
+            try {
+                response = exchange(request);
+            } catch (IOException e) {
+                callback.onFailure(request, e);
+                continue;
+            }
+            callback.onResponse(request, response);
+        }
+    }
+
+    /**
+     * Opens a connection to the url and leaves it idle in the pool, for the first request to take.
+     */
+    @Override
+    public void warmUp(URL url) throws IOException {
+        pool().release(connect(url), true);
+    }
+
+    @Override
+    public void close() {
+        ConnectionPool current = pool;
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * @return number of connections opened, each one a TCP and, for HTTPS, a TLS handshake.
+     */
+    public long getHandshakeCount() {
+        return pool == null ? 0 : pool.getConnectCount();
+    }
+
+    /**
+     * @return number of exchanges made over a connection kept open after an earlier one.
+     */
+    public long getReuseCount() {
+        return pool == null ? 0 : pool.getReuseCount();
+    }
+
+    /**
+     * @return number of idle connections found closed by the server when about to be reused.
+     */
+    public long getStaleCount() {
+        return pool == null ? 0 : pool.getStaleCount();
+    }
+
+    public int getIdleConnectionCount() {
+        return pool == null ? 0 : pool.getIdleCount();
+    }
+
+    private HttpResponse exchange(HttpRequest request) throws IOException {
+        URL url = request.getUrl();
+        int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        ConnectionPool connections = pool();
+        PooledConnection connection = connect(url);
+        boolean reusable = false;
+        try {
+            connection.getSocket().setSoTimeout(timeout);
+            writeRequest(request, url, port, connection.getOutput());
+            Http11.Response response = Http11.readResponse(connection.getInput(), request.getMethod());
+            reusable = response.isKeepAlive();
+            return new HttpResponse(response.getStatusCode(), response.getHeaders(), response.getBody());
+        } finally {
+            connections.release(connection, reusable);
+        }
+    }
+
+    /**
+     * Writes the head and body of the request, with the given port.
+     */
+    static void writeRequest(HttpRequest request, URL url, int port, OutputStream out) throws IOException {
+        BodyWriter body = request.getBodyWriter();
+        long length = body == null ? 0 : body.getContentLength();
+        writeHead(request, url, port, length, out);
+        if (body != null) {
+            if (length >= 0) {
+                body.writeTo(out);
+            } else {
+                OutputStream chunked = Http11.chunked(out);
+                body.writeTo(chunked);
+                chunked.close();
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the head of the request, with the given port, for a body of the given length, -1 to send it chunked.
+     */
+    static void writeHead(HttpRequest request, URL url, int port, long length, OutputStream out) throws IOException {
+        String target = url.getFile().isEmpty() ? "/" : url.getFile();
+        String host = port == url.getDefaultPort() ? url.getHost() : url.getHost() + ":" + port;
+        Http11.writeHead(out, request.getMethod(), target, host, request.getHeaders(), length);
+    }
+
+    /**
+     * @return an idle connection to the url's endpoint, or a new one.
+     */
+    private PooledConnection connect(URL url) throws IOException {
+        final boolean https = "https".equalsIgnoreCase(url.getProtocol());
+        if (!https && !"http".equalsIgnoreCase(url.getProtocol())) {
+            throw new IOException("Unsupported protocol: " + url.getProtocol());
+        }
+        final String host = url.getHost();
+        final int port = url.getPort() >= 0 ? url.getPort() : url.getDefaultPort();
+        String route = url.getProtocol().toLowerCase() + "://" + host + ":" + port;
+        return pool().acquire(route, new ConnectionPool.Connector() {
+            @Override
+            public Socket connect() throws IOException {
+                SSLSocketFactory factory = !https ? null
+                                : sslSocketFactory != null ? sslSocketFactory : (SSLSocketFactory) SSLSocketFactory.getDefault();
+                return Sockets.open(dns.resolve(host), host, port, factory, timeout);
+            }
+        }, timeout);
+    }
+
+    private ConnectionPool pool() {
+        ConnectionPool current = pool;
+        if (current == null) {
+            synchronized (this) {
+                if (pool == null) {
+                    dns = new DnsCache(dnsTtlMillis);
+                    pool = new ConnectionPool(maxTotalConnections, maxIdleConnections, idleTimeoutMillis,
+                                    validateAfterIdleMillis);
+                }
+                current = pool;
+            }
+        }
+        return current;
+    }
+}
@@ -0,0 +1,11 @@
+package com.tapstream.rollbar;
+
+import java.io.IOException;
+
+public interface ResponseCallback {
+
+    void onResponse(HttpRequest request, HttpResponse response);
+
+    void onFailure(HttpRequest request, IOException e);
+
+}
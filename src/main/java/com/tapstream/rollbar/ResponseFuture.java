@@ -0,0 +1,87 @@
+package com.tapstream.rollbar;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Callback to wait on for the response to a request sent with {@link IAsyncHttpRequester#sendAsync}. A request
+ * cannot be taken back once sent, so the future cannot be cancelled.
+ */
+public class ResponseFuture implements ResponseCallback, Future<HttpResponse> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile HttpResponse response;
+    private volatile IOException failure;
+
+    @Override
+    public void onResponse(HttpRequest request, HttpResponse response) {
+        this.response = response;
+        done.countDown();
+    }
+
+    @Override
+    public void onFailure(HttpRequest request, IOException e) {
+        this.failure = e;
+        done.countDown();
+    }
+
+    /**
+     * Waits for the response.
+     *
+     * @throws IOException why the request failed, {@link InterruptedIOException} if the thread was interrupted
+     * while waiting.
+     */
+    public HttpResponse getResponse() throws IOException {
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return response;
+    }
+
+    @Override
+    public HttpResponse get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public HttpResponse get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+                    TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private HttpResponse result() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return response;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+}
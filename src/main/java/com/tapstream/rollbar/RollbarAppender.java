@@ -1,30 +1,161 @@
 package com.tapstream.rollbar;
 
+import com.tapstream.rollbar.ContextPartitioner.Section;
+import com.tapstream.rollbar.codec.JsonCodec;
+import com.tapstream.rollbar.codec.PayloadCodec;
+import com.tapstream.rollbar.codec.PayloadWriter;
+import com.tapstream.rollbar.dispatch.Dispatcher;
+import com.tapstream.rollbar.dispatch.EventHandler;
+import com.tapstream.rollbar.dispatch.Lane;
+import com.tapstream.rollbar.dispatch.LaneSelector;
+import com.tapstream.rollbar.dispatch.NamedThreadFactory;
+import com.tapstream.rollbar.dispatch.OverflowPolicy;
+import com.tapstream.rollbar.dispatch.SenderExecutors;
+import com.tapstream.rollbar.dispatch.ShutdownReport;
 import com.tapstream.rollbar.fingerprinter.DefaultFingerprinter;
 import com.tapstream.rollbar.fingerprinter.Fingerprinter;
+import com.tapstream.rollbar.json.FrameCache;
+import com.tapstream.rollbar.retry.CircuitBreaker;
+import com.tapstream.rollbar.retry.RetryPolicy;
+import com.tapstream.rollbar.spool.SpoolJournal;
+import com.tapstream.rollbar.spool.SpoolReplayer;
+import com.tapstream.rollbar.throttle.OccurrenceAggregate;
+import com.tapstream.rollbar.throttle.OccurrenceAggregator;
+import com.tapstream.rollbar.throttle.OccurrenceKey;
+import com.tapstream.rollbar.throttle.Clock;
+import com.tapstream.rollbar.throttle.RateLimiter;
+import com.tapstream.rollbar.throttle.ServerQuota;
 
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.json.JSONException;
-import org.json.JSONObject;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.classic.spi.ThrowableProxy;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 
 public class RollbarAppender extends UnsynchronizedAppenderBase<ILoggingEvent>{    
     
+    public static final String SUPPRESSED_OCCURRENCES = "suppressed_occurrences";
+    private static final int ERROR_LANE = 0;
+    private static final int WARN_LANE = 1;
+    private static final int INFO_LANE = 2;
+    private static final int MAX_DESCRIBED_BODY = 200;
+    private static final Executor CALLING_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private NotifyBuilder payloadBuilder;
+    private FrameCache frameCache;
+    private GzipEncoder gzipEncoder;
+    private Dispatcher<RollbarEvent> dispatcher;
+    private RateLimiter rateLimiter;
+    private ServerQuota serverQuota;
+    private OccurrenceAggregator aggregator;
+    private SpoolJournal spool;
+    private SpoolReplayer spoolReplayer;
+    private RetryPolicy retryPolicy;
+    private CircuitBreaker circuitBreaker;
+    private ScheduledExecutorService retryScheduler;
+    private ExecutorService senderExecutor;
+    private ExecutorService responseExecutor;
+    private ExecutorService spooler;
+    private IAsyncHttpRequester sender;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    // retries made so far by the requests being retried
+    private final ConcurrentMap<HttpRequest, Integer> retries = new ConcurrentHashMap<HttpRequest, Integer>();
+    // retries waiting for their turn, owned by whoever removes them: the retry when it runs, or the stop
+    private final Set<Retry> scheduledRetries = Collections.newSetFromMap(new ConcurrentHashMap<Retry, Boolean>());
+    // items the server's quota would have held back had there been room
+    private final AtomicLong shedWhileHeld = new AtomicLong();
+    private final ResponseHandler responseHandler = new ResponseHandler();
+    private final BufferPool bufferPool = new BufferPool(64, 256 * 1024);
+    // replaced on start, the writers have to match the codec
+    private WriterPool writers;
     
     private URL url;
     private String apiKey;
     private String environment;
     private boolean async = true;
+    private int queueCapacity = 1024;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP_NEWEST;
+    private long blockTimeoutMillis = 100;
+    private boolean priorityLanes = true;
+    private int errorLaneCapacity = 0;
+    private int warnLaneCapacity = 0;
+    private int infoLaneCapacity = 0;
+    private OverflowPolicy errorLaneOverflowPolicy;
+    private OverflowPolicy warnLaneOverflowPolicy;
+    private OverflowPolicy infoLaneOverflowPolicy;
+    private int errorLaneWeight = 6;
+    private int warnLaneWeight = 3;
+    private int infoLaneWeight = 1;
+    private int dispatcherThreads = 1;
+    private int senderCoreThreads = 1;
+    private int senderMaxThreads = 4;
+    private long senderKeepAliveMillis = 60000;
+    private boolean virtualThreads = false;
+    private int batchSize = 20;
+    private long lingerMillis = 0;
+    private long shutdownTimeoutMillis = 5000;
+    private int shutdownDrainThreads = 4;
+    private double rateLimitPerSecond = 0;
+    private int rateLimitBurst = 10;
+    private int rateLimitMaxKeys = 1000;
+    private boolean serverRateLimit = false;
+    private double serverRateLimitReserve = 0.2;
+    private int serverRateLimitMaxHeldItems = 128;
+    private Clock clock = Clock.SYSTEM;
+    private long aggregationWindowMillis = 0;
+    private int aggregationMaxKeys = 1000;
+    private int aggregationSamples = 5;
+    private String spoolDirectory;
+    private int spoolSegmentBytes = 4 * 1024 * 1024;
+    private long spoolMaxBytes = 64 * 1024 * 1024;
+    private int spoolReplayThreads = 2;
+    private long spoolReplayIntervalMillis = 5000;
+    private int maxRetries = 3;
+    private long retryBaseDelayMillis = 500;
+    private long retryMaxDelayMillis = 30000;
+    private int circuitBreakerFailureThreshold = 5;
+    private long circuitBreakerOpenMillis = 30000;
+    private int frameCacheSize = 4096;
+    private int maxPayloadBytes = 512 * 1024;
+    private boolean elideCommonFrames;
+    private int maxFramesPerTrace;
+    private final List<String> contextPrefixes = new ArrayList<String>();
+    private boolean gzip = false;
+    private int gzipThresholdBytes = 1024;
+    private int gzipLevel = 6;
+    private boolean warmUp = false;
     private IHttpRequester httpRequester = new HttpRequester();
     private Fingerprinter fingerprinter = new DefaultFingerprinter();
+    private PayloadCodec codec = new JsonCodec();
     
     public RollbarAppender(){
         try {
@@ -57,6 +188,266 @@ public class RollbarAppender extends UnsynchronizedAppenderBase<ILoggingEvent>{
     public void setAsync(boolean async){
         this.async = async;
     }
+
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setBlockTimeoutMillis(long blockTimeoutMillis) {
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    public void setErrorLaneCapacity(int errorLaneCapacity) {
+        this.errorLaneCapacity = errorLaneCapacity;
+    }
+
+    public void setWarnLaneCapacity(int warnLaneCapacity) {
+        this.warnLaneCapacity = warnLaneCapacity;
+    }
+
+    public void setInfoLaneCapacity(int infoLaneCapacity) {
+        this.infoLaneCapacity = infoLaneCapacity;
+    }
+
+    public void setErrorLaneOverflowPolicy(OverflowPolicy errorLaneOverflowPolicy) {
+        this.errorLaneOverflowPolicy = errorLaneOverflowPolicy;
+    }
+
+    public void setWarnLaneOverflowPolicy(OverflowPolicy warnLaneOverflowPolicy) {
+        this.warnLaneOverflowPolicy = warnLaneOverflowPolicy;
+    }
+
+    public void setInfoLaneOverflowPolicy(OverflowPolicy infoLaneOverflowPolicy) {
+        this.infoLaneOverflowPolicy = infoLaneOverflowPolicy;
+    }
+
+    public void setErrorLaneWeight(int errorLaneWeight) {
+        this.errorLaneWeight = errorLaneWeight;
+    }
+
+    public void setWarnLaneWeight(int warnLaneWeight) {
+        this.warnLaneWeight = warnLaneWeight;
+    }
+
+    public void setInfoLaneWeight(int infoLaneWeight) {
+        this.infoLaneWeight = infoLaneWeight;
+    }
+
+    public void setDispatcherThreads(int dispatcherThreads) {
+        this.dispatcherThreads = dispatcherThreads;
+    }
+
+    public void setSenderCoreThreads(int senderCoreThreads) {
+        this.senderCoreThreads = senderCoreThreads;
+    }
+
+    public void setSenderMaxThreads(int senderMaxThreads) {
+        this.senderMaxThreads = senderMaxThreads;
+    }
+
+    public void setSenderKeepAliveMillis(long senderKeepAliveMillis) {
+        this.senderKeepAliveMillis = senderKeepAliveMillis;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerMillis = lingerMillis;
+    }
+
+    public void setShutdownTimeoutMillis(long shutdownTimeoutMillis) {
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    }
+
+    public void setShutdownDrainThreads(int shutdownDrainThreads) {
+        this.shutdownDrainThreads = shutdownDrainThreads;
+    }
+
+    public void setRateLimitPerSecond(double rateLimitPerSecond) {
+        this.rateLimitPerSecond = rateLimitPerSecond;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public void setRateLimitMaxKeys(int rateLimitMaxKeys) {
+        this.rateLimitMaxKeys = rateLimitMaxKeys;
+    }
+
+    /**
+     * @param serverRateLimit true to follow the quota reported by the server, holding back the errors it does not
+     * allow yet on the retry scheduler.
+     */
+    public void setServerRateLimit(boolean serverRateLimit) {
+        this.serverRateLimit = serverRateLimit;
+    }
+
+    /**
+     * @param serverRateLimitReserve fraction of the server's quota kept for errors.
+     */
+    public void setServerRateLimitReserve(double serverRateLimitReserve) {
+        this.serverRateLimitReserve = serverRateLimitReserve;
+    }
+
+    /**
+     * @param serverRateLimitMaxHeldItems number of items waiting for the server's quota kept in memory; further
+     * ones are spooled, or dropped without a spool.
+     */
+    public void setServerRateLimitMaxHeldItems(int serverRateLimitMaxHeldItems) {
+        this.serverRateLimitMaxHeldItems = serverRateLimitMaxHeldItems;
+    }
+
+    /**
+     * @param clock time seen by the rate limiter and the server's quota, replaced by the tests.
+     */
+    void setClock(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void setAggregationWindowMillis(long aggregationWindowMillis) {
+        this.aggregationWindowMillis = aggregationWindowMillis;
+    }
+
+    public void setAggregationMaxKeys(int aggregationMaxKeys) {
+        this.aggregationMaxKeys = aggregationMaxKeys;
+    }
+
+    public void setAggregationSamples(int aggregationSamples) {
+        this.aggregationSamples = aggregationSamples;
+    }
+
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
+
+    public void setSpoolSegmentBytes(int spoolSegmentBytes) {
+        this.spoolSegmentBytes = spoolSegmentBytes;
+    }
+
+    public void setSpoolMaxBytes(long spoolMaxBytes) {
+        this.spoolMaxBytes = spoolMaxBytes;
+    }
+
+    public void setSpoolReplayThreads(int spoolReplayThreads) {
+        this.spoolReplayThreads = spoolReplayThreads;
+    }
+
+    public void setSpoolReplayIntervalMillis(long spoolReplayIntervalMillis) {
+        this.spoolReplayIntervalMillis = spoolReplayIntervalMillis;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setRetryBaseDelayMillis(long retryBaseDelayMillis) {
+        this.retryBaseDelayMillis = retryBaseDelayMillis;
+    }
+
+    public void setRetryMaxDelayMillis(long retryMaxDelayMillis) {
+        this.retryMaxDelayMillis = retryMaxDelayMillis;
+    }
+
+    public void setCircuitBreakerFailureThreshold(int circuitBreakerFailureThreshold) {
+        this.circuitBreakerFailureThreshold = circuitBreakerFailureThreshold;
+    }
+
+    public void setCircuitBreakerOpenMillis(long circuitBreakerOpenMillis) {
+        this.circuitBreakerOpenMillis = circuitBreakerOpenMillis;
+    }
+
+    public void setFrameCacheSize(int frameCacheSize) {
+        this.frameCacheSize = frameCacheSize;
+    }
+
+    public void setElideCommonFrames(boolean elideCommonFrames) {
+        this.elideCommonFrames = elideCommonFrames;
+    }
+
+    public void setMaxFramesPerTrace(int maxFramesPerTrace) {
+        this.maxFramesPerTrace = maxFramesPerTrace;
+    }
+
+    public void setMaxPayloadBytes(int maxPayloadBytes) {
+        this.maxPayloadBytes = maxPayloadBytes;
+    }
+
+    /**
+     * @param contextPrefix {@code prefix=section}: MDC keys starting with the prefix go to the section, one of
+     * {@code person}, {@code request_header}, {@code request_param}, {@code request} or {@code custom}.
+     */
+    public void addContextPrefix(String contextPrefix) {
+        this.contextPrefixes.add(contextPrefix);
+    }
+
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
+    public void setGzipThresholdBytes(int gzipThresholdBytes) {
+        this.gzipThresholdBytes = gzipThresholdBytes;
+    }
+
+    public void setGzipLevel(int gzipLevel) {
+        this.gzipLevel = gzipLevel;
+    }
+
+    /**
+     * @param warmUp get the requester ready for the first item when the appender starts, in the background.
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * @return cache of encoded stack trace frames, null if disabled or the appender was never started.
+     */
+    public FrameCache getFrameCache() {
+        return frameCache;
+    }
+
+    /**
+     * @return number of events discarded because the async queue was full.
+     */
+    public long getDroppedCount() {
+        return dispatcher == null ? 0 : dispatcher.getDroppedCount();
+    }
+
+    /**
+     * @return number of occurrences not sent because their error exceeded the rate limit.
+     */
+    public long getRateLimitedCount() {
+        return rateLimiter == null ? 0 : rateLimiter.getSuppressedCount();
+    }
+
+    /**
+     * @return number of items not sent because the server's quota was running out.
+     */
+    public long getServerRateLimitedCount() {
+        return serverQuota == null ? 0 : serverQuota.getShedCount() + shedWhileHeld.get();
+    }
+
+    /**
+     * @return number of items not sent because the circuit breaker was open.
+     */
+    public long getCircuitBreakerRejectedCount() {
+        return circuitBreaker == null ? 0 : circuitBreaker.getRejectedCount();
+    }
     
     @Override
     public void start() {
@@ -76,69 +467,947 @@ public class RollbarAppender extends UnsynchronizedAppenderBase<ILoggingEvent>{
         }
    
         try {
-            payloadBuilder = new NotifyBuilder(apiKey, environment, new ServerDataProvider(), new NotifierDataProvider(), fingerprinter);
+            payloadBuilder = new NotifyBuilder(apiKey, environment, new ServerDataProvider(), new NotifierDataProvider(), fingerprinter,
+                            codec);
         } catch (JSONException | RollbarException e) {
             addError("Error building NotifyBuilder", e);
             error = true;
         }
+        frameCache = frameCacheSize > 0 ? new FrameCache(frameCacheSize) : null;
+        // items are written and compressed by the dispatcher threads in async mode, more are only kept while in use
+        int writingThreads = Math.max(dispatcherThreads, shutdownDrainThreads) + 1;
+        gzipEncoder = null;
+        if (this.gzip) {
+            try {
+                gzipEncoder = new GzipEncoder(gzipLevel, writingThreads);
+            } catch (IllegalArgumentException e) {
+                addError("Invalid gzipLevel for the appender named [" + getName() + "].", e);
+                error = true;
+            }
+        }
+        if (payloadBuilder != null) {
+            writers = new WriterPool(payloadBuilder, writingThreads);
+            payloadBuilder.setFrameCache(frameCache);
+            payloadBuilder.setMaxPayloadBytes(maxPayloadBytes);
+            payloadBuilder.setElideCommonFrames(elideCommonFrames);
+            payloadBuilder.setMaxFramesPerTrace(maxFramesPerTrace);
+            ContextPartitioner partitioner = ContextPartitioner.withDefaultPrefixes();
+            for (String contextPrefix : contextPrefixes) {
+                int separator = contextPrefix.lastIndexOf('=');
+                try {
+                    if (separator < 0) {
+                        throw new IllegalArgumentException("Missing section");
+                    }
+                    partitioner.addPrefix(contextPrefix.substring(0, separator).trim(),
+                                    Section.valueOf(contextPrefix.substring(separator + 1).trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    addError("Invalid contextPrefix [" + contextPrefix + "] for the appender named [" + getName() + "].", e);
+                    error = true;
+                }
+            }
+            payloadBuilder.setContextPartitioner(partitioner);
+        }
+        
+        if (this.queueCapacity < 1) {
+            addError("queueCapacity must be positive for the appender named [" + getName() + "].");
+            error = true;
+        }
+        if (this.priorityLanes && (this.errorLaneWeight < 1 || this.warnLaneWeight < 1 || this.infoLaneWeight < 1)) {
+            addError("Lane weights must be positive for the appender named [" + getName() + "].");
+            error = true;
+        }
+        if (this.dispatcherThreads < 1) {
+            addError("dispatcherThreads must be positive for the appender named [" + getName() + "].");
+            error = true;
+        }
+        if (this.senderCoreThreads < 0 || this.senderMaxThreads < 1 || this.senderCoreThreads > this.senderMaxThreads) {
+            addError("senderMaxThreads must be positive and at least senderCoreThreads for the appender named [" + getName() + "].");
+            error = true;
+        }
+        if (this.batchSize < 1) {
+            addError("batchSize must be positive for the appender named [" + getName() + "].");
+            error = true;
+        }
+        if (this.rateLimitPerSecond > 0) {
+            try {
+                rateLimiter = new RateLimiter(rateLimitPerSecond, rateLimitBurst, rateLimitMaxKeys, clock);
+            } catch (IllegalArgumentException e) {
+                addError("Invalid rate limit for the appender named [" + getName() + "].", e);
+                error = true;
+            }
+        } else {
+            rateLimiter = null;
+        }
+        serverQuota = null;
+        if (this.serverRateLimit) {
+            try {
+                serverQuota = new ServerQuota(serverRateLimitReserve, clock);
+            } catch (IllegalArgumentException e) {
+                addError("Invalid serverRateLimitReserve for the appender named [" + getName() + "].", e);
+                error = true;
+            }
+        }
+        aggregator = null;
+        if (this.aggregationWindowMillis > 0) {
+            try {
+                aggregator = new OccurrenceAggregator("rollbar-aggregator-" + getName(), aggregationWindowMillis,
+                                aggregationMaxKeys, aggregationSamples, new EventHandler<OccurrenceAggregate>() {
+                                    @Override
+                                    public void handle(List<OccurrenceAggregate> aggregates) {
+                                        sendAggregates(aggregates);
+                                    }
+                                }, clock);
+                aggregator.setContext(getContext());
+            } catch (IllegalArgumentException e) {
+                addError("Invalid aggregation settings for the appender named [" + getName() + "].", e);
+                error = true;
+            }
+        }
+        
+        try {
+            retryPolicy = new RetryPolicy(maxRetries, retryBaseDelayMillis, retryMaxDelayMillis);
+        } catch (IllegalArgumentException e) {
+            addError("Invalid retry settings for the appender named [" + getName() + "].", e);
+            error = true;
+        }
+        circuitBreaker = null;
+        if (this.circuitBreakerFailureThreshold > 0) {
+            try {
+                circuitBreaker = new CircuitBreaker(circuitBreakerFailureThreshold, circuitBreakerOpenMillis);
+            } catch (IllegalArgumentException e) {
+                addError("Invalid circuit breaker settings for the appender named [" + getName() + "].", e);
+                error = true;
+            }
+        }
+        
+        // a blocking requester gets its threads from the sender executor, see submit
+        sender = httpRequester instanceof IAsyncHttpRequester ? (IAsyncHttpRequester) httpRequester
+                        : new AsyncHttpRequesterAdapter(httpRequester, CALLING_THREAD);
+
+        spool = null;
+        spoolReplayer = null;
+        if (this.spoolDirectory != null && !error) {
+            error = !openSpool();
+        }
         
         if (!error){
+            if (spoolReplayer != null) {
+                spoolReplayer.start();
+            }
+            // the server's quota holds errors back on it too
+            if (maxRetries > 0 || serverQuota != null) {
+                startRetryScheduler();
+            }
+            if (aggregator != null) {
+                aggregator.start();
+            }
+            if (async) {
+                startSenderExecutor();
+            }
+            // an asynchronous requester's responses are handled on a thread of their own, see ResponseHandler
+            if (httpRequester instanceof IAsyncHttpRequester) {
+                // a task per request in flight at most
+                responseExecutor = SenderExecutors.newQueuedExecutor("rollbar-responses-" + getName(), Integer.MAX_VALUE);
+            }
+            if (async) {
+                startDispatcher();
+            }
+            if (warmUp) {
+                startWarmUp();
+            }
             super.start();
         }
         
     }
 
+    private boolean openSpool() {
+        try {
+            spool = new SpoolJournal(new File(spoolDirectory), spoolSegmentBytes, spoolMaxBytes);
+            spoolReplayer = new SpoolReplayer("rollbar-spool-" + getName(), spool, new SpoolReplayer.Sender() {
+                @Override
+                public int send(byte[] body) throws IOException {
+                    return replay(newRequest(body));
+                }
+            }, spoolReplayThreads, spoolReplayIntervalMillis);
+            spoolReplayer.setContext(getContext());
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            addError("Unable to open spool directory " + spoolDirectory + " for the appender named [" + getName() + "].", e);
+            spool = null;
+            spoolReplayer = null;
+            return false;
+        }
+    }
+
+    /**
+     * Resolves, connects and handshakes on a thread of its own, so that the first item, usually the one reporting
+     * what went wrong right after a deploy, does not pay for it and starting does not wait for it.
+     */
+    private void startWarmUp() {
+        if (!(httpRequester instanceof IWarmableHttpRequester)) {
+            addWarn("The requester of the appender named [" + getName() + "] cannot be warmed up.");
+            return;
+        }
+        final IWarmableHttpRequester requester = (IWarmableHttpRequester) httpRequester;
+        final URL target = url;
+        new NamedThreadFactory("rollbar-warmup-" + getName()).newThread(new Runnable() {
+            @Override
+            public void run() {
+                long started = System.nanoTime();
+                try {
+                    requester.warmUp(target);
+                    addInfo("Appender named [" + getName() + "] warmed up in "
+                                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms.");
+                } catch (IOException e) {
+                    addWarn("Unable to warm up the connection of the appender named [" + getName() + "].", e);
+                }
+            }
+        }).start();
+    }
+
+    private void startRetryScheduler() {
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("rollbar-retry-" + getName()));
+    }
+
+    private void startSenderExecutor() {
+        String threadName = "rollbar-sender-" + getName();
+        senderExecutor = null;
+        if (virtualThreads) {
+            senderExecutor = SenderExecutors.newVirtualThreadExecutor(threadName);
+            if (senderExecutor == null) {
+                addWarn("Virtual threads are not supported by this JVM, the appender named [" + getName()
+                                + "] uses a pool of platform threads.");
+            }
+        }
+        if (senderExecutor == null) {
+            senderExecutor = SenderExecutors.newPlatformExecutor(threadName, senderCoreThreads, senderMaxThreads,
+                            senderKeepAliveMillis);
+        }
+    }
+
+    private void stopSenderExecutor() {
+        ExecutorService executor = senderExecutor;
+        senderExecutor = null;
+        awaitTermination(executor, "items were still being sent");
+    }
+
+    private void stopResponseExecutor() {
+        ExecutorService executor = responseExecutor;
+        responseExecutor = null;
+        awaitTermination(executor, "items were still being sent");
+    }
+
+    private void stopSpooler() {
+        ExecutorService executor = spooler;
+        spooler = null;
+        awaitTermination(executor, "discarded items were still being spooled");
+    }
+
+    private void awaitTermination(ExecutorService executor, String unfinished) {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                addWarn("Appender named [" + getName() + "] stopped while " + unfinished + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the responses to the requests an asynchronous requester still has in flight, so they are retried
+     * or spooled if they fail.
+     */
+    private void awaitInFlight() {
+        long deadline = System.currentTimeMillis() + shutdownTimeoutMillis;
+        synchronized (inFlight) {
+            long remaining;
+            while (inFlight.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    inFlight.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        if (inFlight.get() > 0) {
+            addWarn("Appender named [" + getName() + "] stopped while " + inFlight.get() + " items were still being sent.");
+        }
+    }
+
+    /**
+     * Lets a retry already being sent finish, then gives up on the ones still waiting for their turn. One sent
+     * in the meantime is left to its response.
+     */
+    private void stopRetryScheduler() {
+        ScheduledExecutorService scheduler = retryScheduler;
+        retryScheduler = null;
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(shutdownTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Retry retry : new ArrayList<Retry>(scheduledRetries)) {
+            if (scheduledRetries.remove(retry)) {
+                giveUp(retry.request, "Appender named [" + getName() + "] stopped with an item waiting to be sent", null);
+            }
+        }
+    }
+
+    private void startDispatcher() {
+        EventHandler<RollbarEvent> handler = new EventHandler<RollbarEvent>() {
+            @Override
+            public void handle(List<RollbarEvent> events) {
+                send(events);
+            }
+        };
+        String name = "rollbar-dispatcher-" + getName();
+        if (priorityLanes) {
+            List<Lane> lanes = Arrays.asList(
+                            lane(errorLaneCapacity, errorLaneOverflowPolicy, errorLaneWeight),
+                            lane(warnLaneCapacity, warnLaneOverflowPolicy, warnLaneWeight),
+                            lane(infoLaneCapacity, infoLaneOverflowPolicy, infoLaneWeight));
+            dispatcher = new Dispatcher<RollbarEvent>(name, lanes, new LaneSelector<RollbarEvent>() {
+                @Override
+                public int laneOf(RollbarEvent event) {
+                    return laneFor(event.getLevel());
+                }
+            }, dispatcherThreads, handler);
+        } else {
+            dispatcher = new Dispatcher<RollbarEvent>(name, queueCapacity, overflowPolicy, blockTimeoutMillis,
+                            dispatcherThreads, handler);
+        }
+        dispatcher.setContext(getContext());
+        dispatcher.setBatchSize(batchSize);
+        dispatcher.setLingerMillis(lingerMillis);
+        if (spool != null) {
+            // the events discarded by a full queue are written on a thread of their own, not the logging thread
+            final ExecutorService executor = SenderExecutors.newQueuedExecutor("rollbar-spooler-" + getName(),
+                            queueCapacity);
+            spooler = executor;
+            dispatcher.setOverflowHandler(new EventHandler<RollbarEvent>() {
+                @Override
+                public void handle(final List<RollbarEvent> events) {
+                    try {
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                for (RollbarEvent event : events) {
+                                    spool(serialize(event, payloadBuilder.fingerprint(event),
+                                                    Collections.<String, Object>emptyMap()));
+                                }
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // the spooler is behind as well, the events stay counted as dropped
+                    }
+                }
+            });
+        }
+        dispatcher.start();
+    }
+
+    /**
+     * Lane settings left unset fall back to the single queue ones.
+     */
+    private Lane lane(int capacity, OverflowPolicy policy, int weight) {
+        return new Lane(capacity > 0 ? capacity : queueCapacity, policy != null ? policy : overflowPolicy,
+                        blockTimeoutMillis, weight);
+    }
+
+    private static int laneFor(Level level) {
+        if (level.isGreaterOrEqual(Level.ERROR)) {
+            return ERROR_LANE;
+        }
+        return level.isGreaterOrEqual(Level.WARN) ? WARN_LANE : INFO_LANE;
+    }
+
     @Override
     public void stop() {
         super.stop();
+        if (dispatcher != null) {
+            ShutdownReport report = dispatcher.shutdown(shutdownTimeoutMillis, shutdownDrainThreads);
+            if (report.getAbandoned() > 0) {
+                addWarn("Appender named [" + getName() + "] stopped before sending everything: " + report);
+            } else {
+                addInfo("Appender named [" + getName() + "] stopped: " + report);
+            }
+        }
+        if (aggregator != null) {
+            aggregator.stop(shutdownTimeoutMillis);
+        }
+        awaitInFlight();
+        if (senderExecutor != null) {
+            stopSenderExecutor();
+        }
+        if (responseExecutor != null) {
+            stopResponseExecutor();
+        }
+        if (retryScheduler != null) {
+            stopRetryScheduler();
+        }
+        if (spooler != null) {
+            stopSpooler();
+        }
+        if (spool != null) {
+            if (!spoolReplayer.stop(shutdownTimeoutMillis)) {
+                addWarn("Appender named [" + getName() + "] stopped while replaying its spool.");
+            }
+            spool.close();
+        }
+        if (gzipEncoder != null) {
+            gzipEncoder.close();
+        }
+        if (httpRequester instanceof Closeable) {
+            try {
+                ((Closeable) httpRequester).close();
+            } catch (IOException e) {
+                addWarn("Error closing the connections of the appender named [" + getName() + "].", e);
+            }
+        }
     }
 
     @Override
     protected void append(ILoggingEvent event) {
-        String levelName = event.getLevel().toString().toLowerCase();
-        String message = event.getFormattedMessage();
-        Map<String, String> propertyMap = event.getMDCPropertyMap();
-        
-        Throwable throwable = null;
-        ThrowableProxy throwableProxy = (ThrowableProxy)event.getThrowableProxy();
-        if (throwableProxy != null) {
-            throwable = throwableProxy.getThrowable();
-        }
-        
-        String loggerName = event.getLoggerName();
-        final JSONObject payload = payloadBuilder.build(levelName, message, throwable, propertyMap, loggerName);
-        final HttpRequest request = new HttpRequest(url, "POST");
-        request.setHeader("Content-Type", "application/json");
-        request.setHeader("Accept", "application/json");
-        request.setBody(payload.toString());
-        
+        RollbarEvent snapshot = RollbarEvent.from(event);
         if (async){
-            getContext().getExecutorService().submit(new Runnable(){
-                @Override
-                public void run() {
-                    sendRequest(request);
-                }
-            });
+            dispatcher.dispatch(snapshot);
         } else {
-            sendRequest(request);
+            send(Collections.singletonList(snapshot));
         }
     }
-    
-    private void sendRequest(HttpRequest request){
+
+    private void send(List<RollbarEvent> events) {
+        List<HttpRequest> requests = new ArrayList<HttpRequest>(events.size());
+        for (RollbarEvent event : events) {
+            HttpRequest request = buildRequest(event);
+            if (request != null) {
+                requests.add(request);
+            }
+        }
+        if (!requests.isEmpty()) {
+            sendRequests(requests);
+        }
+    }
+
+    /**
+     * @return null if the event should not be sent now.
+     */
+    private HttpRequest buildRequest(RollbarEvent event) {
+        String fingerprint = payloadBuilder.fingerprint(event);
+        if (aggregator != null && aggregator.add(OccurrenceKey.of(event, fingerprint), fingerprint, event)) {
+            return null;
+        }
+        Map<String, Object> extraCustom = Collections.emptyMap();
+        long suppressed = 0;
+        if (rateLimiter != null) {
+            suppressed = rateLimiter.tryAcquire(OccurrenceKey.of(event, fingerprint));
+            if (suppressed < 0) {
+                return null;
+            }
+            if (suppressed > 0) {
+                extraCustom = Collections.<String, Object>singletonMap(SUPPRESSED_OCCURRENCES, suppressed);
+            }
+        }
+        long wait = admit(event.getLevel());
+        if (wait > 0 && !mayHold()) {
+            if (spool != null) {
+                spool(serialize(event, fingerprint, extraCustom));
+                return null;
+            }
+            shedWhileHeld.incrementAndGet();
+            wait = ServerQuota.SHED;
+        }
+        if (wait == ServerQuota.SHED) {
+            if (suppressed > 0) {
+                // for the next occurrence to report
+                rateLimiter.restore(OccurrenceKey.of(event, fingerprint), suppressed);
+            }
+            return null;
+        }
+        return holdBack(buildRequest(event, fingerprint, extraCustom), event.getLevel(), wait);
+    }
+
+    /**
+     * Checks the server's quota before the item is written, so an item it would refuse costs nothing.
+     *
+     * @return 0 if the item may be sent now, {@link ServerQuota#SHED} if it should be dropped, or how long it has
+     * to wait.
+     */
+    private long admit(Level level) {
+        return serverQuota == null ? 0 : serverQuota.acquire(laneFor(level) == ERROR_LANE, true);
+    }
+
+    /**
+     * Whether there is room for one more item waiting for the server's quota, so that the items taken off the
+     * queues while the quota is spent do not pile up in memory.
+     */
+    private boolean mayHold() {
+        return scheduledRetries.size() < serverRateLimitMaxHeldItems;
+    }
+
+    /**
+     * Hands an item the server's quota does not allow yet to the retry scheduler, rather than have the thread that
+     * wrote it wait, which would hold back the items behind it.
+     *
+     * @return the request if it may be sent now, otherwise null.
+     */
+    private HttpRequest holdBack(HttpRequest request, Level level, long wait) {
+        if (wait == 0) {
+            return request;
+        }
+        new Retry(request, level).schedule(retryScheduler, wait,
+                        "Appender named [" + getName() + "] stopped with an item waiting to be sent", null);
+        return null;
+    }
+
+    private void sendAggregates(List<OccurrenceAggregate> aggregates) {
+        List<HttpRequest> requests = new ArrayList<HttpRequest>(aggregates.size());
+        for (OccurrenceAggregate aggregate : aggregates) {
+            RollbarEvent event = aggregate.getFirstEvent();
+            long wait = admit(event.getLevel());
+            if (wait > 0 && !mayHold()) {
+                if (spool != null) {
+                    spool(serialize(event, aggregate.getFingerprint(), aggregate.toCustomData()));
+                    continue;
+                }
+                shedWhileHeld.incrementAndGet();
+                wait = ServerQuota.SHED;
+            }
+            if (wait == ServerQuota.SHED) {
+                continue;
+            }
+            HttpRequest request = holdBack(buildRequest(event, aggregate.getFingerprint(), aggregate.toCustomData()),
+                            event.getLevel(), wait);
+            if (request != null) {
+                requests.add(request);
+            }
+        }
+        sendRequests(requests);
+    }
+
+    /**
+     * The body is copied once, from a pooled writer to a pooled buffer given back when the request is done,
+     * compressing it on the way if it is large enough.
+     */
+    private HttpRequest buildRequest(RollbarEvent event, String fingerprint, Map<String, ?> extraCustom) {
+        PayloadWriter out = write(event, fingerprint, extraCustom);
         try {
-            int statusCode = httpRequester.send(request);
-            if (statusCode >= 200 && statusCode <= 299){
-                // Everything went OK
+            HttpRequest request = newRequest(event.getLevel());
+            ByteBuffer body;
+            if (gzipEncoder != null && out.size() >= gzipThresholdBytes) {
+                body = gzipEncoder.encode(out.buffer(), 0, out.size(), bufferPool);
+                request.setHeader("Content-Encoding", "gzip");
             } else {
-                addError("Non-2xx response from Rollbar: " + statusCode);
+                body = bufferPool.acquire(out.size());
+                out.writeTo(body);
+                body.flip();
+            }
+            request.setBody(body, bufferPool);
+            return request;
+        } finally {
+            writers.release(out);
+        }
+    }
+
+    private byte[] serialize(RollbarEvent event, String fingerprint, Map<String, ?> extraCustom) {
+        PayloadWriter out = write(event, fingerprint, extraCustom);
+        try {
+            return out.toByteArray();
+        } finally {
+            writers.release(out);
+        }
+    }
+
+    /**
+     * Writes the item with a pooled writer, whose buffer is reused from one item to the next. The writer has to be
+     * given back once its output is copied.
+     */
+    private PayloadWriter write(RollbarEvent event, String fingerprint, Map<String, ?> extraCustom) {
+        PayloadWriter out = writers.acquire();
+        try {
+            payloadBuilder.write(out, event, fingerprint, extraCustom);
+        } catch (RuntimeException e) {
+            writers.release(out);
+            throw e;
+        }
+        return out;
+    }
+
+    /**
+     * @param body encoded item or, when spooled after a failed send, its gzip encoding.
+     */
+    private HttpRequest newRequest(byte[] body) {
+        // a spooled item is replayed as a backlog, whatever its level
+        HttpRequest request = newRequest(Level.INFO);
+        if (GzipEncoder.isGzip(body)) {
+            request.setHeader("Content-Encoding", "gzip");
+        }
+        request.setBody(body);
+        return request;
+    }
+
+    private HttpRequest newRequest(Level level) {
+        HttpRequest request = new ItemRequest(url, level);
+        request.setHeader("Content-Type", codec.getContentType());
+        request.setHeader("Accept", "application/json");
+        return request;
+    }
+
+    private void spool(byte[] body) {
+        try {
+            spool.append(body);
+        } catch (IOException e) {
+            addError("Unable to spool item for the appender named [" + getName() + "].", e);
+        }
+    }
+
+    /**
+     * A requester able to send batches gets the whole batch on one sender thread, so it goes out over one kept
+     * alive connection.
+     */
+    private void sendRequests(List<HttpRequest> requests) {
+        if (requests.isEmpty()) {
+            return;
+        }
+        if (httpRequester instanceof IBatchHttpRequester && !(httpRequester instanceof IAsyncHttpRequester)) {
+            execute(new SendBatch(requests));
+            return;
+        }
+        for (HttpRequest request : requests) {
+            submit(request);
+        }
+    }
+
+    /**
+     * Sends the request on the sender executor, see {@link #execute}. An asynchronous requester does not block the
+     * calling thread, so it is always called right away.
+     */
+    private void submit(HttpRequest request) {
+        if (httpRequester instanceof IAsyncHttpRequester) {
+            sendRequest(request);
+        } else {
+            execute(new Send(request));
+        }
+    }
+
+    /**
+     * Runs the send on the sender executor, or on the calling thread in sync mode and once the appender is stopped.
+     */
+    private void execute(Runnable send) {
+        ExecutorService executor = senderExecutor;
+        if (executor != null) {
+            try {
+                executor.execute(send);
+                return;
+            } catch (RejectedExecutionException e) {
+                // shut down in the meantime
             }
-            
+        }
+        send.run();
+    }
+
+    private void sendRequest(HttpRequest request) {
+        if (admitToEndpoint(request)) {
+            inFlight.incrementAndGet();
+            sender.sendAsync(request, responseHandler);
+        }
+    }
+
+    /**
+     * Asks the circuit breaker before each request, so an outage noticed in the middle of a batch stops the rest
+     * of it from waiting on timeouts too.
+     *
+     * @return false if the request was given up on.
+     */
+    private boolean admitToEndpoint(HttpRequest request) {
+        if (circuitBreaker != null && circuitBreaker.acquire() == CircuitBreaker.Permission.NONE) {
+            giveUp(request, "Rollbar unavailable, circuit breaker open", null);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sends a spooled item, subject to the circuit breaker and the server's quota like any other. Spooled items are
+     * a backlog, they do not use the quota's reserve for errors.
+     *
+     * @throws IOException if it failed, or should not be sent now.
+     */
+    private int replay(HttpRequest request) throws IOException {
+        if (circuitBreaker != null && circuitBreaker.acquire() == CircuitBreaker.Permission.NONE) {
+            throw new IOException("Rollbar unavailable, circuit breaker open");
+        }
+        if (serverQuota != null && serverQuota.acquire(false, false) != 0) {
+            throw new IOException("Rollbar's quota is running out");
+        }
+        ResponseFuture future = new ResponseFuture();
+        sender.sendAsync(request, future);
+        HttpResponse response;
+        try {
+            response = future.getResponse();
         } catch (IOException e) {
-            addError("Exception sending request to Rollbar", e);
+            if (circuitBreaker != null) {
+                circuitBreaker.onFailure();
+            }
+            throw e;
+        }
+        if (serverQuota != null) {
+            serverQuota.update(response);
         }
+        onEndpointAnswered(response);
+        return response.getStatusCode();
+    }
+
+    /**
+     * Only a server error counts against the endpoint; a 429 is left to the quota and Retry-After, the server
+     * being up.
+     */
+    private void onEndpointAnswered(HttpResponse response) {
+        if (circuitBreaker == null) {
+            return;
+        }
+        if (response.getStatusCode() >= 500) {
+            circuitBreaker.onFailure();
+        } else {
+            circuitBreaker.onSuccess();
+        }
+    }
+
+    private void onExchangeDone() {
+        if (inFlight.decrementAndGet() == 0) {
+            synchronized (inFlight) {
+                inFlight.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Schedules the request to be sent again after the delay given by the retry policy, or gives up on it.
+     */
+    private void retry(HttpRequest request, HttpResponse response, String message, IOException cause) {
+        Integer previous = retries.get(request);
+        int retry = previous == null ? 0 : previous;
+        ScheduledExecutorService scheduler = retryScheduler;
+        long delay = scheduler == null ? RetryPolicy.NO_RETRY : retryPolicy.delayMillis(retry, response);
+        if (delay == RetryPolicy.NO_RETRY) {
+            retries.remove(request);
+            giveUp(request, message, cause);
+            return;
+        }
+        retries.put(request, retry + 1);
+        new Retry(request, ((ItemRequest) request).level).schedule(scheduler, delay, message, cause);
+    }
+
+    /**
+     * Spools a request that could not be delivered, or reports it as lost when there is no spool.
+     */
+    private void giveUp(HttpRequest request, String message, IOException cause) {
+        retries.remove(request);
+        if (spool != null) {
+            spool(request.getBody());
+        } else if (cause != null) {
+            addError(message, cause);
+        } else {
+            addError(message);
+        }
+        request.release();
     }
 
     public void setFingerprinter(Fingerprinter fingerprinter) {
         this.fingerprinter = fingerprinter;
     }
+
+    /**
+     * @param codec encoding of the items sent; only the default {@link JsonCodec} is accepted by the Rollbar API.
+     */
+    public void setCodec(PayloadCodec codec) {
+        this.codec = codec;
+    }
+
+    private class ResponseHandler implements BatchCallback {
+        @Override
+        public boolean beforeSend(HttpRequest request) {
+            if (admitToEndpoint(request)) {
+                return true;
+            }
+            onExchangeDone();
+            return false;
+        }
+
+        @Override
+        public void onResponse(final HttpRequest request, final HttpResponse response) {
+            handOff(request, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(request, response);
+                    } finally {
+                        onExchangeDone();
+                    }
+                }
+            });
+        }
+
+        /**
+         * An asynchronous requester calls back on a thread it sends other requests from, which must not wait for
+         * the spool or the status manager while retrying or giving up; the outcome is queued for the response
+         * thread instead, which holds at most one task per request in flight. A blocking requester calls back on
+         * the thread that sent the request.
+         */
+        private void handOff(HttpRequest request, Runnable handling) {
+            ExecutorService executor = responseExecutor;
+            if (!(httpRequester instanceof IAsyncHttpRequester)) {
+                handling.run();
+                return;
+            }
+            try {
+                if (executor != null) {
+                    executor.execute(handling);
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                // stopped in the meantime
+            }
+            // answered after the stop gave up waiting for it, which already reported it as still in flight
+            retries.remove(request);
+            request.release();
+            onExchangeDone();
+        }
+
+        private void handle(HttpRequest request, HttpResponse response) {
+            if (serverQuota != null) {
+                serverQuota.update(response);
+            }
+            onEndpointAnswered(response);
+            if (RetryPolicy.isRetryable(response.getStatusCode())) {
+                retry(request, response, "Non-2xx response from Rollbar: " + describe(response), null);
+                return;
+            }
+            retries.remove(request);
+            request.release();
+            if (!response.isSuccessful()) {
+                addError("Non-2xx response from Rollbar: " + describe(response));
+            }
+        }
+
+        /**
+         * The status and, for the API's errors, the message in the body saying what was wrong with the item.
+         */
+        private String describe(HttpResponse response) {
+            String body = response.getBodyText().trim();
+            if (body.length() > MAX_DESCRIBED_BODY) {
+                body = body.substring(0, MAX_DESCRIBED_BODY) + "...";
+            }
+            return body.isEmpty() ? String.valueOf(response.getStatusCode()) : response.getStatusCode() + " " + body;
+        }
+
+        @Override
+        public void onFailure(final HttpRequest request, final IOException e) {
+            handOff(request, new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (circuitBreaker != null) {
+                            circuitBreaker.onFailure();
+                        }
+                        retry(request, null, "Exception sending request to Rollbar", e);
+                    } finally {
+                        onExchangeDone();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Sends a request once the server's quota allows it: again after a failure, a 429 response having usually
+     * spent the quota, or for the first time when the quota held it back. The request belongs to the retry while
+     * it is scheduled, to the requester once it is sent.
+     */
+    private class Retry implements Runnable {
+        private final HttpRequest request;
+        private final Level level;
+
+        Retry(HttpRequest request, Level level) {
+            this.request = request;
+            this.level = level;
+        }
+
+        void schedule(ScheduledExecutorService scheduler, long delayMillis, String message, IOException cause) {
+            scheduledRetries.add(this);
+            try {
+                if (scheduler != null) {
+                    scheduler.schedule(this, delayMillis, TimeUnit.MILLISECONDS);
+                    return;
+                }
+            } catch (RejectedExecutionException e) {
+                // stopped in the meantime
+            }
+            if (scheduledRetries.remove(this)) {
+                giveUp(request, message, cause);
+            }
+        }
+
+        @Override
+        public void run() {
+            if (!scheduledRetries.remove(this)) {
+                // given up on by the stop
+                return;
+            }
+            // only errors may use the reserve
+            long wait = admit(level);
+            if (wait == ServerQuota.SHED) {
+                giveUp(request, "Rollbar's quota is running out", null);
+                return;
+            }
+            if (wait == 0) {
+                submit(request);
+                return;
+            }
+            schedule(retryScheduler, wait, "Appender named [" + getName() + "] stopped with an item waiting to be sent", null);
+        }
+    }
+
+    /**
+     * A request with the level of its item, which it keeps when retried.
+     */
+    private static class ItemRequest extends HttpRequest {
+        private final Level level;
+
+        ItemRequest(URL url, Level level) {
+            super(url, "POST");
+            this.level = level;
+        }
+    }
+
+    private class SendBatch implements Runnable {
+        private final List<HttpRequest> requests;
+
+        SendBatch(List<HttpRequest> requests) {
+            this.requests = requests;
+        }
+
+        @Override
+        public void run() {
+            // the ones the circuit breaker turns down are counted back by the handler
+            inFlight.addAndGet(requests.size());
+            ((IBatchHttpRequester) httpRequester).sendBatch(requests, responseHandler);
+        }
+    }
+
+    private class Send implements Runnable {
+        private final HttpRequest request;
+
+        Send(HttpRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public void run() {
+            sendRequest(request);
+        }
+    }
 }
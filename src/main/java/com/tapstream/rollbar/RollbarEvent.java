@@ -0,0 +1,66 @@
+package com.tapstream.rollbar;
+
+import java.util.Collections;
+import java.util.Map;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+/**
+ * Immutable snapshot of the parts of a logging event that end up in a Rollbar item. Taking it
+ * is all the work done on the logging thread; everything else happens on the sender side.
+ */
+public class RollbarEvent {
+
+    private final Level level;
+    private final String message;
+    private final IThrowableProxy throwableProxy;
+    private final Map<String, String> context;
+    private final String loggerName;
+    private final long timestamp;
+
+    public RollbarEvent(Level level, String message, IThrowableProxy throwableProxy, Map<String, String> context,
+                    String loggerName, long timestamp) {
+        this.level = level;
+        this.message = message;
+        this.throwableProxy = throwableProxy;
+        this.context = context == null ? Collections.<String, String>emptyMap() : context;
+        this.loggerName = loggerName;
+        this.timestamp = timestamp;
+    }
+
+    public static RollbarEvent from(ILoggingEvent event) {
+        // the MDC property map is a copy taken when the event was created, so it is safe to share
+        return new RollbarEvent(event.getLevel(), event.getFormattedMessage(), event.getThrowableProxy(),
+                        event.getMDCPropertyMap(), event.getLoggerName(), event.getTimeStamp());
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public String getLevelName() {
+        return level.toString().toLowerCase();
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public IThrowableProxy getThrowableProxy() {
+        return throwableProxy;
+    }
+
+    public Map<String, String> getContext() {
+        return context;
+    }
+
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,84 @@
+package com.tapstream.rollbar;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+/**
+ * An exception and its causes, outermost first, as much of them as an item needs. Built from the throwable when
+ * there is one, or from the proxy of an event that was serialized, such as one forwarded by a logback receiver.
+ */
+final class TraceChain {
+    private final List<String> classNames = new ArrayList<String>();
+    private final List<String> messages = new ArrayList<String>();
+    private final List<StackTraceElement[]> traces = new ArrayList<StackTraceElement[]>();
+
+    private TraceChain() {
+    }
+
+    static TraceChain of(Throwable original) {
+        if (original == null) {
+            return null;
+        }
+        TraceChain chain = new TraceChain();
+        List<Throwable> seen = new ArrayList<Throwable>();
+        for (Throwable throwable = original; throwable != null && !seen.contains(throwable); throwable = throwable.getCause()) {
+            seen.add(throwable);
+            chain.add(throwable.getClass().getName(), throwable.getMessage(), throwable.getStackTrace());
+        }
+        return chain;
+    }
+
+    static TraceChain of(IThrowableProxy original) {
+        if (original == null) {
+            return null;
+        }
+        if (original instanceof ThrowableProxy) {
+            return of(((ThrowableProxy) original).getThrowable());
+        }
+        TraceChain chain = new TraceChain();
+        List<IThrowableProxy> seen = new ArrayList<IThrowableProxy>();
+        for (IThrowableProxy proxy = original; proxy != null && !seen.contains(proxy); proxy = proxy.getCause()) {
+            seen.add(proxy);
+            chain.add(proxy.getClassName(), proxy.getMessage(), stackTrace(proxy));
+        }
+        return chain;
+    }
+
+    private static StackTraceElement[] stackTrace(IThrowableProxy proxy) {
+        StackTraceElementProxy[] frames = proxy.getStackTraceElementProxyArray();
+        if (frames == null) {
+            return new StackTraceElement[0];
+        }
+        StackTraceElement[] elements = new StackTraceElement[frames.length];
+        for (int i = 0; i < frames.length; i++) {
+            elements[i] = frames[i].getStackTraceElement();
+        }
+        return elements;
+    }
+
+    private void add(String className, String message, StackTraceElement[] trace) {
+        classNames.add(className);
+        messages.add(message);
+        traces.add(trace);
+    }
+
+    int size() {
+        return traces.size();
+    }
+
+    String className(int i) {
+        return classNames.get(i);
+    }
+
+    String message(int i) {
+        return messages.get(i);
+    }
+
+    StackTraceElement[] trace(int i) {
+        return traces.get(i);
+    }
+}
@@ -0,0 +1,40 @@
+package com.tapstream.rollbar;
+
+import com.tapstream.rollbar.codec.PayloadWriter;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writers of a builder's encoding, reused from one item to the next by whichever thread writes it. At most
+ * {@code maxWriters} are kept, so that logging threads writing items in sync mode do not each hold on to a writer
+ * and its buffer for as long as they live.
+ */
+class WriterPool {
+    private final NotifyBuilder builder;
+    private final int maxWriters;
+    private final ConcurrentLinkedQueue<PayloadWriter> writers = new ConcurrentLinkedQueue<PayloadWriter>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    WriterPool(NotifyBuilder builder, int maxWriters) {
+        this.builder = builder;
+        this.maxWriters = maxWriters;
+    }
+
+    PayloadWriter acquire() {
+        PayloadWriter writer = writers.poll();
+        if (writer == null) {
+            return builder.newWriter();
+        }
+        pooled.decrementAndGet();
+        return writer;
+    }
+
+    void release(PayloadWriter writer) {
+        if (pooled.incrementAndGet() > maxWriters) {
+            pooled.decrementAndGet();
+            return;
+        }
+        writers.offer(writer);
+    }
+}
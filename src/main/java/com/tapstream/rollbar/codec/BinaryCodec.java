@@ -0,0 +1,152 @@
+package com.tapstream.rollbar.codec;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compact binary encoding of the same data as JSON, for a local agent that forwards items and would otherwise
+ * have to parse text. Every value starts with a tag byte:
+ * <ul>
+ * <li>{@code o}: object, a 4 byte big-endian length, then that many bytes of members; a member is its name
+ * followed by its value</li>
+ * <li>{@code a}: array, a 4 byte big-endian length, then that many bytes of values</li>
+ * <li>{@code s}: string, its UTF-8 length as an unsigned varint, then its UTF-8 bytes; names are encoded the
+ * same way, without the tag</li>
+ * <li>{@code i}: integer, zigzag varint</li>
+ * <li>{@code d}: other number, 8 byte big-endian IEEE 754 double</li>
+ * <li>{@code t}, {@code f}, {@code n}: true, false and null</li>
+ * </ul>
+ * Varints hold 7 bits per byte, least significant first, the high bit set on all bytes but the last.
+ */
+public class BinaryCodec implements PayloadCodec {
+    static final byte OBJECT = 'o';
+    static final byte ARRAY = 'a';
+    static final byte STRING = 's';
+    static final byte INTEGER = 'i';
+    static final byte DOUBLE = 'd';
+    static final byte TRUE = 't';
+    static final byte FALSE = 'f';
+    static final byte NULL = 'n';
+    static final int LENGTH_BYTES = 4;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public String getContentType() {
+        return "application/x-rollbar-binary";
+    }
+
+    @Override
+    public PayloadWriter newWriter(int initialBytes, int retainedBytes) {
+        return new BinaryWriter(initialBytes, retainedBytes);
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) {
+        Reader reader = new Reader(payload, offset, offset + length);
+        Object value = reader.value();
+        if (reader.position != reader.end) {
+            throw new IllegalArgumentException("Trailing bytes at " + reader.position);
+        }
+        return value;
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final int end;
+        private int position;
+
+        Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        Object value() {
+            byte tag = next();
+            switch (tag) {
+            case OBJECT: {
+                int contentEnd = contentEnd();
+                Map<String, Object> object = new LinkedHashMap<String, Object>();
+                while (position < contentEnd) {
+                    String name = string();
+                    object.put(name, value());
+                }
+                return object;
+            }
+            case ARRAY: {
+                int contentEnd = contentEnd();
+                List<Object> array = new ArrayList<Object>();
+                while (position < contentEnd) {
+                    array.add(value());
+                }
+                return array;
+            }
+            case STRING:
+                return string();
+            case INTEGER: {
+                long zigzag = varint();
+                return (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+            case DOUBLE: {
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | (next() & 0xff);
+                }
+                return Double.longBitsToDouble(bits);
+            }
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case NULL:
+                return null;
+            default:
+                throw new IllegalArgumentException("Unknown tag " + tag + " at " + (position - 1));
+            }
+        }
+
+        private int contentEnd() {
+            int length = 0;
+            for (int i = 0; i < LENGTH_BYTES; i++) {
+                length = (length << 8) | (next() & 0xff);
+            }
+            if (length < 0 || length > end - position) {
+                throw new IllegalArgumentException("Invalid length " + length + " at " + position);
+            }
+            return position + length;
+        }
+
+        private String string() {
+            long length = varint();
+            if (length > end - position) {
+                throw new IllegalArgumentException("Invalid string length " + length + " at " + position);
+            }
+            String value = new String(data, position, (int) length, UTF_8);
+            position += (int) length;
+            return value;
+        }
+
+        private long varint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = next();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long at " + position);
+        }
+
+        private byte next() {
+            if (position >= end) {
+                throw new IllegalArgumentException("Truncated input");
+            }
+            return data[position++];
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.tapstream.rollbar.codec;
+
+import java.util.Arrays;
+
+/**
+ * Writes the encoding of {@link BinaryCodec}. The length of an object or array is filled in when it ends.
+ */
+public class BinaryWriter extends PayloadWriter {
+    private static final int MAX_DEPTH = 64;
+    // the longest a varint holding an int gets
+    private static final int MAX_LENGTH_VARINT_BYTES = 5;
+
+    /** Per nesting level, where the length of the open object or array goes. */
+    private final int[] lengthPositions = new int[MAX_DEPTH];
+    private int depth;
+
+    public BinaryWriter() {
+        this(4096, 256 * 1024);
+    }
+
+    public BinaryWriter(int initialBytes, int retainedBytes) {
+        super(initialBytes, retainedBytes);
+    }
+
+    @Override
+    protected void resetState() {
+        depth = 0;
+    }
+
+    @Override
+    public BinaryWriter beginObject() {
+        return open(BinaryCodec.OBJECT);
+    }
+
+    @Override
+    public BinaryWriter endObject() {
+        return close();
+    }
+
+    @Override
+    public BinaryWriter beginArray() {
+        return open(BinaryCodec.ARRAY);
+    }
+
+    @Override
+    public BinaryWriter endArray() {
+        return close();
+    }
+
+    @Override
+    public BinaryWriter name(String name) {
+        writeString(name);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        append(BinaryCodec.STRING);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(long value) {
+        append(BinaryCodec.INTEGER);
+        ensureCapacity(10);
+        writeVarint((value << 1) ^ (value >> 63));
+        checkLimit();
+        return this;
+    }
+
+    @Override
+    public BinaryWriter value(boolean value) {
+        append(value ? BinaryCodec.TRUE : BinaryCodec.FALSE);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter nullValue() {
+        append(BinaryCodec.NULL);
+        return this;
+    }
+
+    @Override
+    public BinaryWriter raw(byte[] encoded) {
+        append(encoded);
+        return this;
+    }
+
+    @Override
+    protected BinaryWriter fraction(Number number) {
+        append(BinaryCodec.DOUBLE);
+        long bits = Double.doubleToLongBits(number.doubleValue());
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[size++] = (byte) (bits >>> shift);
+        }
+        checkLimit();
+        return this;
+    }
+
+    /**
+     * @return the members of the single object written since the last reset, without its tag and length, to be
+     * spliced into other objects with {@link #raw(byte[])}.
+     */
+    @Override
+    public byte[] toMembers() {
+        int header = 1 + BinaryCodec.LENGTH_BYTES;
+        if (size < header || buffer[0] != BinaryCodec.OBJECT || readLength(1) != size - header) {
+            throw new IllegalStateException("Not a single object");
+        }
+        return Arrays.copyOfRange(buffer, header, size);
+    }
+
+    private BinaryWriter open(byte tag) {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("Nested deeper than " + MAX_DEPTH);
+        }
+        append(tag);
+        lengthPositions[depth++] = size;
+        for (int i = 0; i < BinaryCodec.LENGTH_BYTES; i++) {
+            append(0);
+        }
+        return this;
+    }
+
+    private BinaryWriter close() {
+        int position = lengthPositions[--depth];
+        int length = size - position - BinaryCodec.LENGTH_BYTES;
+        for (int i = BinaryCodec.LENGTH_BYTES - 1; i >= 0; i--) {
+            buffer[position + i] = (byte) length;
+            length >>>= 8;
+        }
+        return this;
+    }
+
+    private int readLength(int position) {
+        int length = 0;
+        for (int i = 0; i < BinaryCodec.LENGTH_BYTES; i++) {
+            length = (length << 8) | (buffer[position + i] & 0xff);
+        }
+        return length;
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        // every char takes at least a byte, so a string that cannot fit is refused before it is encoded
+        reserve(length + 1);
+        int utf8Length = utf8Length(value);
+        ensureCapacity(MAX_LENGTH_VARINT_BYTES + utf8Length);
+        writeVarint(utf8Length);
+        size = encodeUtf8(value, 0, length, buffer, size);
+        checkLimit();
+    }
+
+    /**
+     * Writes the value as an unsigned varint; the capacity must have been ensured.
+     */
+    private void writeVarint(long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[size++] = (byte) value;
+    }
+}
@@ -0,0 +1,68 @@
+package com.tapstream.rollbar.codec;
+
+import com.tapstream.rollbar.json.JsonWriter;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * UTF-8 JSON, as the Rollbar API expects it.
+ */
+public class JsonCodec implements PayloadCodec {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Override
+    public String getContentType() {
+        return "application/json";
+    }
+
+    @Override
+    public PayloadWriter newWriter(int initialBytes, int retainedBytes) {
+        return new JsonWriter(initialBytes, retainedBytes);
+    }
+
+    @Override
+    public Object decode(byte[] payload, int offset, int length) {
+        try {
+            return unwrap(new JSONTokener(new String(payload, offset, length, UTF_8)).nextValue());
+        } catch (JSONException e) {
+            throw new IllegalArgumentException("Invalid JSON", e);
+        }
+    }
+
+    private static Object unwrap(Object value) throws JSONException {
+        if (value == JSONObject.NULL) {
+            return null;
+        }
+        if (value instanceof Integer) {
+            return ((Integer) value).longValue();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                map.put(key, unwrap(object.get(key)));
+            }
+            return map;
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<Object>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(unwrap(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+}
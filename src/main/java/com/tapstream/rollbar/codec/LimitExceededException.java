@@ -0,0 +1,14 @@
+package com.tapstream.rollbar.codec;
+
+/**
+ * Thrown when the output would exceed the writer's limit. Carries no stack trace: it is expected and cheap.
+ *
+ * @see PayloadWriter#limit(int)
+ */
+public class LimitExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    LimitExceededException(int limit) {
+        super("Output exceeds " + limit + " bytes", null, false, false);
+    }
+}
@@ -0,0 +1,21 @@
+package com.tapstream.rollbar.codec;
+
+/**
+ * Encoding of the items sent to the endpoint. {@link JsonCodec} is what the Rollbar API accepts; other codecs are
+ * meant for a local agent that forwards the items.
+ */
+public interface PayloadCodec {
+
+    /**
+     * @return value of the Content-Type header of the requests.
+     */
+    String getContentType();
+
+    PayloadWriter newWriter(int initialBytes, int retainedBytes);
+
+    /**
+     * @return the encoded value as maps, lists, strings, longs, doubles, booleans and nulls.
+     * @throws IllegalArgumentException if the bytes are not a valid encoding.
+     */
+    Object decode(byte[] payload, int offset, int length);
+}
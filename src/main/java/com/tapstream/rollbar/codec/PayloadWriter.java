@@ -0,0 +1,306 @@
+package com.tapstream.rollbar.codec;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes a tree of objects, arrays, strings, numbers, booleans and nulls straight into a growable byte array, in
+ * the encoding of a {@link PayloadCodec}, without building the tree first. A null string value or field is
+ * skipped, like {@link JSONObject#put(String, Object)} does.
+ * <p>
+ * A writer is not thread safe but is meant to be reused: {@link #reset()} keeps its buffer unless it grew past
+ * {@code retainedBytes}.
+ * <p>
+ * A size limit makes any write that would go past it throw {@link LimitExceededException}, so a caller can give up
+ * on output that turns out too large as soon as it gets there instead of after producing all of it.
+ */
+public abstract class PayloadWriter {
+    private final int initialBytes;
+    private final int retainedBytes;
+    private int limit = Integer.MAX_VALUE;
+    protected byte[] buffer;
+    protected int size;
+
+    protected PayloadWriter(int initialBytes, int retainedBytes) {
+        this.initialBytes = initialBytes;
+        this.retainedBytes = retainedBytes;
+        this.buffer = new byte[initialBytes];
+    }
+
+    public PayloadWriter reset() {
+        if (buffer.length > retainedBytes) {
+            buffer = new byte[initialBytes];
+        }
+        size = 0;
+        resetState();
+        return this;
+    }
+
+    /**
+     * Forgets the structure written since the last reset.
+     */
+    protected abstract void resetState();
+
+    /**
+     * @param maxBytes size the output may not exceed, {@link Integer#MAX_VALUE} for no limit. Kept across resets.
+     */
+    public PayloadWriter limit(int maxBytes) {
+        this.limit = maxBytes;
+        return this;
+    }
+
+    public abstract PayloadWriter beginObject();
+
+    public abstract PayloadWriter endObject();
+
+    public abstract PayloadWriter beginArray();
+
+    public abstract PayloadWriter endArray();
+
+    public abstract PayloadWriter name(String name);
+
+    public abstract PayloadWriter value(String value);
+
+    public abstract PayloadWriter value(long value);
+
+    public abstract PayloadWriter value(boolean value);
+
+    public abstract PayloadWriter nullValue();
+
+    /**
+     * Writes output of a writer of the same kind encoded beforehand, a value or one or more members of the current
+     * object.
+     *
+     * @see #toMembers()
+     */
+    public abstract PayloadWriter raw(byte[] encoded);
+
+    /**
+     * Writes a finite number that is not an integer.
+     */
+    protected abstract PayloadWriter fraction(Number number);
+
+    /**
+     * Writes the field unless the value is null.
+     */
+    public PayloadWriter field(String name, String value) {
+        if (value != null) {
+            name(name).value(value);
+        }
+        return this;
+    }
+
+    public PayloadWriter field(String name, long value) {
+        return name(name).value(value);
+    }
+
+    /**
+     * Writes strings, numbers, booleans, maps, collections, arrays and org.json objects; anything else as its string
+     * representation, like {@link JSONObject#wrap(Object)}. Null map entries are skipped.
+     */
+    public PayloadWriter value(Object value) {
+        if (value == null || value == JSONObject.NULL) {
+            return nullValue();
+        }
+        if (value instanceof String) {
+            return value((String) value);
+        }
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return value(((Number) value).longValue());
+        }
+        if (value instanceof Number) {
+            return number((Number) value);
+        }
+        if (value instanceof Boolean) {
+            return value(((Boolean) value).booleanValue());
+        }
+        if (value instanceof Map) {
+            beginObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getValue() != null) {
+                    name(String.valueOf(entry.getKey())).value(entry.getValue());
+                }
+            }
+            return endObject();
+        }
+        if (value instanceof Collection) {
+            beginArray();
+            for (Object element : (Collection<?>) value) {
+                value(element);
+            }
+            return endArray();
+        }
+        if (value.getClass().isArray()) {
+            beginArray();
+            for (int i = 0, length = Array.getLength(value); i < length; i++) {
+                value(Array.get(value, i));
+            }
+            return endArray();
+        }
+        if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            beginObject();
+            for (Iterator<?> keys = object.keys(); keys.hasNext();) {
+                String key = (String) keys.next();
+                name(key).value(object.opt(key));
+            }
+            return endObject();
+        }
+        if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            beginArray();
+            for (int i = 0; i < array.length(); i++) {
+                value(array.opt(i));
+            }
+            return endArray();
+        }
+        return value(value.toString());
+    }
+
+    private PayloadWriter number(Number number) {
+        double value = number.doubleValue();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            // not representable in JSON
+            return value(number.toString());
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return value((long) value);
+        }
+        return fraction(number);
+    }
+
+    /**
+     * @return the bytes written since the last reset.
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * @return the members of the single object written since the last reset, without what delimits the object, to
+     * be spliced into other objects with {@link #raw(byte[])}.
+     */
+    public abstract byte[] toMembers();
+
+    /**
+     * @return the writer's own buffer, holding the {@link #size()} bytes written since the last reset. Only valid
+     * until the next write or reset.
+     */
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    /**
+     * Puts the bytes written since the last reset into the target buffer.
+     */
+    public void writeTo(ByteBuffer target) {
+        target.put(buffer, 0, size);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Refuses output that will take at least that many more bytes before it is encoded.
+     */
+    protected void reserve(int minimumBytes) {
+        if (size + minimumBytes > limit) {
+            throw new LimitExceededException(limit);
+        }
+    }
+
+    protected void checkLimit() {
+        if (size > limit) {
+            throw new LimitExceededException(limit);
+        }
+    }
+
+    protected void append(int b) {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+        checkLimit();
+    }
+
+    protected void append(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+        checkLimit();
+    }
+
+    /**
+     * Encodes the chars of the value from start to end as UTF-8, an unpaired surrogate as {@code '?'} like
+     * {@link String#getBytes} does. Takes up to 3 bytes per char, {@link #utf8Length} exactly; the capacity must
+     * have been ensured.
+     *
+     * @return position following the last byte written.
+     */
+    protected static int encodeUtf8(String value, int start, int end, byte[] out, int position) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                out[position++] = (byte) c;
+            } else if (c < 0x800) {
+                out[position++] = (byte) (0xc0 | (c >> 6));
+                out[position++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out[position++] = (byte) (0xf0 | (codePoint >> 18));
+                out[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+                out[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+                out[position++] = (byte) (0x80 | (codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                out[position++] = '?';
+            } else {
+                out[position++] = (byte) (0xe0 | (c >> 12));
+                out[position++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[position++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return number of bytes {@link #encodeUtf8} takes for the whole value.
+     */
+    protected static int utf8Length(String value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                bytes++;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                bytes++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    protected void ensureCapacity(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.tapstream.rollbar.dispatch;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free queue backed by a ring of slots, each guarded by a sequence number
+ * (D. Vyukov's bounded queue). Any number of threads may offer and poll concurrently;
+ * neither operation ever blocks or allocates.
+ */
+public class BoundedRingBuffer<T> {
+
+    private final int mask;
+    private final AtomicReferenceArray<T> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    public BoundedRingBuffer(int requestedCapacity) {
+        if (requestedCapacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + requestedCapacity);
+        }
+        int capacity = Integer.highestOneBit(requestedCapacity);
+        if (capacity < requestedCapacity) {
+            capacity <<= 1;
+        }
+        this.mask = capacity - 1;
+        this.slots = new AtomicReferenceArray<T>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if the buffer is full.
+     */
+    public boolean offer(T item) {
+        if (item == null) {
+            throw new NullPointerException();
+        }
+        long position = tail.get();
+        for (;;) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.lazySet(index, item);
+                    sequences.lazySet(index, position + 1);
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return the oldest item or null if the buffer is empty.
+     */
+    public T poll() {
+        long position = head.get();
+        for (;;) {
+            int index = (int) (position & mask);
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    T item = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.lazySet(index, position + mask + 1);
+                    return item;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Moves up to maxItems items, oldest first, into the target collection.
+     * @return number of items moved.
+     */
+    public int drainTo(Collection<? super T> target, int maxItems) {
+        int drained = 0;
+        while (drained < maxItems) {
+            T item = poll();
+            if (item == null) {
+                break;
+            }
+            target.add(item);
+            drained++;
+        }
+        return drained;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of queued items; only an estimate while other threads are active.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        if (size < 0) {
+            return 0;
+        }
+        return (int) Math.min(size, capacity());
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+}
@@ -0,0 +1,406 @@
+package com.tapstream.rollbar.dispatch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Hands events from logging threads to a fixed set of dedicated consumer threads through a
+ * {@link BoundedRingBuffer}. Logging threads never wait on a lock; when the buffer is full
+ * the configured {@link OverflowPolicy} decides which event is lost.
+ * <p>
+ * Events can be split by priority into several {@link Lane}s, each with its own buffer and policy. Consumers
+ * serve the lanes by deficit round robin: every round a lane may contribute up to its weight in events, higher
+ * lanes first, and room left in a batch goes to the highest lane that still has events.
+ * <p>
+ * Consumers take up to {@code batchSize} events at a time. With a positive {@code lingerMillis}
+ * a consumer that found fewer events waits that long for the batch to fill before handling it.
+ * <p>
+ * {@link #shutdown(long, int)} stops intake and lets the consumers, helped by extra drain threads,
+ * empty the queue until a deadline; whatever is left after that is abandoned.
+ * <p>
+ * Discarded and abandoned events can be given to an overflow handler, which runs on the thread discarding them.
+ */
+public class Dispatcher<T> extends ContextAwareBase {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final String name;
+    private final List<LaneQueue<T>> lanes;
+    private final LaneSelector<T> selector;
+    private final EventHandler<T> handler;
+    private EventHandler<T> overflowHandler;
+    private final Thread[] consumers;
+    private final List<Thread> drainers = new ArrayList<Thread>();
+    private int batchSize = 1;
+    private long lingerNanos;
+
+    private final AtomicInteger idleConsumers = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private volatile boolean accepting;
+    private volatile boolean draining;
+    private volatile boolean running;
+
+    public Dispatcher(String name, int capacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis,
+                    int consumerThreads, EventHandler<T> handler) {
+        this(name, Collections.singletonList(new Lane(capacity, overflowPolicy, blockTimeoutMillis, 1)),
+                        new LaneSelector<T>() {
+                            @Override
+                            public int laneOf(T event) {
+                                return 0;
+                            }
+                        }, consumerThreads, handler);
+    }
+
+    /**
+     * @param lanes from the highest priority to the lowest.
+     */
+    public Dispatcher(String name, List<Lane> lanes, LaneSelector<T> selector, int consumerThreads,
+                    EventHandler<T> handler) {
+        if (consumerThreads < 1) {
+            throw new IllegalArgumentException("At least one consumer thread is required");
+        }
+        if (lanes.isEmpty()) {
+            throw new IllegalArgumentException("At least one lane is required");
+        }
+        this.name = name;
+        this.lanes = new ArrayList<LaneQueue<T>>(lanes.size());
+        for (Lane lane : lanes) {
+            this.lanes.add(new LaneQueue<T>(lane));
+        }
+        this.selector = selector;
+        this.handler = handler;
+        this.consumers = new Thread[consumerThreads];
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public void setLingerMillis(long lingerMillis) {
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+    }
+
+    public void setOverflowHandler(EventHandler<T> overflowHandler) {
+        this.overflowHandler = overflowHandler;
+    }
+
+    public void start() {
+        running = true;
+        accepting = true;
+        for (int i = 0; i < consumers.length; i++) {
+            consumers[i] = startThread(name + "-" + i);
+        }
+    }
+
+    private Thread startThread(String threadName) {
+        Thread thread = new Thread(new Consumer(), threadName);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Rejects further events and waits, at most {@code timeoutMillis}, for the queue to be emptied by the
+     * consumers and up to {@code drainThreads} threads in total. Events not handled by then are discarded.
+     */
+    public ShutdownReport shutdown(long timeoutMillis, int drainThreads) {
+        long started = System.nanoTime();
+        long deadline = started + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long handledBefore = handled.get();
+
+        accepting = false;
+        draining = true;
+        for (int i = consumers.length; i < drainThreads && !isEmpty(); i++) {
+            drainers.add(startThread(name + "-drain-" + i));
+        }
+        wakeConsumers();
+
+        awaitTermination(deadline);
+        running = false;
+        long flushed = handled.get() - handledBefore;
+        List<T> leftovers = new ArrayList<T>();
+        for (LaneQueue<T> lane : lanes) {
+            lane.buffer.drainTo(leftovers, Integer.MAX_VALUE);
+        }
+        long abandoned = inFlight.get() + leftovers.size();
+        interruptAll();
+        if (!leftovers.isEmpty()) {
+            overflow(leftovers);
+        }
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        return new ShutdownReport(flushed, abandoned, elapsedMillis);
+    }
+
+    private void awaitTermination(long deadline) {
+        List<Thread> threads = new ArrayList<Thread>(drainers);
+        for (Thread consumer : consumers) {
+            if (consumer != null) {
+                threads.add(consumer);
+            }
+        }
+        for (Thread thread : threads) {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                return;
+            }
+            try {
+                thread.join(remainingMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void interruptAll() {
+        for (Thread consumer : consumers) {
+            if (consumer != null && consumer.isAlive()) {
+                consumer.interrupt();
+            }
+        }
+        for (Thread drainer : drainers) {
+            if (drainer.isAlive()) {
+                drainer.interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return false if the event was discarded because the queue was full or the dispatcher is shutting down.
+     */
+    public boolean dispatch(T event) {
+        if (!accepting) {
+            return false;
+        }
+        LaneQueue<T> lane = lanes.get(selector.laneOf(event));
+        boolean queued;
+        switch (lane.overflowPolicy) {
+        case DROP_OLDEST:
+            queued = offerDroppingOldest(lane, event);
+            break;
+        case BLOCK:
+            queued = offerBlocking(lane, event);
+            break;
+        default:
+            queued = lane.buffer.offer(event);
+            if (!queued) {
+                drop(lane, event);
+            }
+        }
+        if (queued && idleConsumers.get() > 0) {
+            wakeConsumers();
+        }
+        return queued;
+    }
+
+    private boolean offerDroppingOldest(LaneQueue<T> lane, T event) {
+        while (!lane.buffer.offer(event)) {
+            T oldest = lane.buffer.poll();
+            if (oldest != null) {
+                drop(lane, oldest);
+            }
+        }
+        return true;
+    }
+
+    private boolean offerBlocking(LaneQueue<T> lane, T event) {
+        if (lane.buffer.offer(event)) {
+            return true;
+        }
+        long deadline = System.nanoTime() + lane.blockTimeoutNanos;
+        do {
+            if (idleConsumers.get() > 0) {
+                wakeConsumers();
+            }
+            LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            if (lane.buffer.offer(event)) {
+                return true;
+            }
+        } while (System.nanoTime() - deadline < 0 && !Thread.currentThread().isInterrupted());
+        drop(lane, event);
+        return false;
+    }
+
+    private void drop(LaneQueue<T> lane, T event) {
+        dropped.incrementAndGet();
+        lane.dropped.incrementAndGet();
+        overflow(Collections.singletonList(event));
+    }
+
+    private void overflow(List<T> events) {
+        if (overflowHandler == null) {
+            return;
+        }
+        try {
+            overflowHandler.handle(events);
+        } catch (RuntimeException e) {
+            addError("Error handling discarded events in dispatcher [" + name + "]", e);
+        }
+    }
+
+    private void wakeConsumers() {
+        for (Thread consumer : consumers) {
+            if (consumer != null) {
+                LockSupport.unpark(consumer);
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getDroppedCount(int lane) {
+        return lanes.get(lane).dropped.get();
+    }
+
+    public int getQueueSize() {
+        int size = 0;
+        for (LaneQueue<T> lane : lanes) {
+            size += lane.buffer.size();
+        }
+        return size;
+    }
+
+    public int getCapacity() {
+        int capacity = 0;
+        for (LaneQueue<T> lane : lanes) {
+            capacity += lane.buffer.capacity();
+        }
+        return capacity;
+    }
+
+    private boolean isEmpty() {
+        for (LaneQueue<T> lane : lanes) {
+            if (!lane.buffer.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class LaneQueue<T> {
+        final BoundedRingBuffer<T> buffer;
+        final OverflowPolicy overflowPolicy;
+        final long blockTimeoutNanos;
+        final int weight;
+        final AtomicLong dropped = new AtomicLong();
+
+        LaneQueue(Lane lane) {
+            this.buffer = new BoundedRingBuffer<T>(lane.getCapacity());
+            this.overflowPolicy = lane.getOverflowPolicy();
+            this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(lane.getBlockTimeoutMillis());
+            this.weight = lane.getWeight();
+        }
+    }
+
+    private class Consumer implements Runnable {
+        /** What each lane may still contribute to the current round, owned by this consumer. */
+        private final int[] credits = new int[lanes.size()];
+
+        @Override
+        public void run() {
+            List<T> batch = new ArrayList<T>(batchSize);
+            while (running) {
+                if (fill(batch, batchSize) == 0) {
+                    if (draining) {
+                        return;
+                    }
+                    if (!awaitEvents(batch)) {
+                        continue;
+                    }
+                }
+                linger(batch);
+                int size = batch.size();
+                inFlight.addAndGet(size);
+                try {
+                    handler.handle(batch);
+                } catch (RuntimeException e) {
+                    addError("Error handling events in dispatcher [" + name + "]", e);
+                } finally {
+                    batch.clear();
+                    inFlight.addAndGet(-size);
+                    handled.addAndGet(size);
+                }
+            }
+        }
+
+        private boolean awaitEvents(List<T> batch) {
+            idleConsumers.incrementAndGet();
+            try {
+                if (fill(batch, batchSize) > 0) {
+                    return true;
+                }
+                if (running && !draining) {
+                    LockSupport.parkNanos(Dispatcher.this, IDLE_PARK_NANOS);
+                }
+                return false;
+            } finally {
+                idleConsumers.decrementAndGet();
+            }
+        }
+
+        /**
+         * Moves up to max events to the batch: first what the lanes' remaining credits allow, starting a new
+         * round when no lane with credit left has events, then from the highest lanes to fill the batch.
+         */
+        private int fill(List<T> batch, int max) {
+            int taken = takeWithCredits(batch, max);
+            if (taken == 0) {
+                for (int i = 0; i < credits.length; i++) {
+                    credits[i] = lanes.get(i).weight;
+                }
+                taken = takeWithCredits(batch, max);
+            }
+            for (int i = 0; i < lanes.size() && taken < max; i++) {
+                taken += lanes.get(i).buffer.drainTo(batch, max - taken);
+            }
+            return taken;
+        }
+
+        private int takeWithCredits(List<T> batch, int max) {
+            int taken = 0;
+            for (int i = 0; i < lanes.size() && taken < max; i++) {
+                if (credits[i] > 0) {
+                    int drained = lanes.get(i).buffer.drainTo(batch, Math.min(credits[i], max - taken));
+                    credits[i] -= drained;
+                    taken += drained;
+                }
+            }
+            return taken;
+        }
+
+        private void linger(List<T> batch) {
+            if (lingerNanos <= 0 || batch.size() >= batchSize || draining) {
+                return;
+            }
+            long deadline = System.nanoTime() + lingerNanos;
+            idleConsumers.incrementAndGet();
+            try {
+                for (;;) {
+                    fill(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0 || !running || draining) {
+                        return;
+                    }
+                    LockSupport.parkNanos(Dispatcher.this, remaining);
+                }
+            } finally {
+                idleConsumers.decrementAndGet();
+            }
+        }
+    }
+}
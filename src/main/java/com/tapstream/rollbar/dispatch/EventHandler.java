@@ -0,0 +1,12 @@
+package com.tapstream.rollbar.dispatch;
+
+import java.util.List;
+
+public interface EventHandler<T> {
+
+    /**
+     * @param events one or more events in the order they were dispatched. The list is reused after the call returns.
+     */
+    void handle(List<T> events);
+
+}
@@ -0,0 +1,40 @@
+package com.tapstream.rollbar.dispatch;
+
+/**
+ * Settings of one queue of a {@link Dispatcher}. Lanes are listed from the highest priority to the lowest; the
+ * weight is the number of events a lane may contribute to a round before lower lanes get their turn, which
+ * guarantees every lane a minimum share of the consumers while the others are busy.
+ */
+public class Lane {
+
+    private final int capacity;
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutMillis;
+    private final int weight;
+
+    public Lane(int capacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Lane weight must be positive: " + weight);
+        }
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+        this.weight = weight;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,13 @@
+package com.tapstream.rollbar.dispatch;
+
+/**
+ * Picks the {@link Lane} of a {@link Dispatcher} an event is queued in.
+ */
+public interface LaneSelector<T> {
+
+    /**
+     * @return index of the lane, in the order the lanes were given to the dispatcher.
+     */
+    int laneOf(T event);
+
+}
@@ -0,0 +1,24 @@
+package com.tapstream.rollbar.dispatch;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads named {@code name-0}, {@code name-1}, ... so an appender's threads never keep the JVM
+ * alive and are easy to spot in a thread dump.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String name;
+    private final AtomicInteger count = new AtomicInteger();
+
+    public NamedThreadFactory(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
@@ -0,0 +1,13 @@
+package com.tapstream.rollbar.dispatch;
+
+/**
+ * What a {@link Dispatcher} does with an event when its queue is full.
+ */
+public enum OverflowPolicy {
+    /** The event being dispatched is discarded. */
+    DROP_NEWEST,
+    /** The oldest queued event is discarded to make room for the new one. */
+    DROP_OLDEST,
+    /** The logging thread waits for free space, up to the configured timeout, then discards the event. */
+    BLOCK
+}
@@ -0,0 +1,63 @@
+package com.tapstream.rollbar.dispatch;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executors running blocking sends.
+ */
+public final class SenderExecutors {
+
+    private SenderExecutors() {
+    }
+
+    /**
+     * Pool of platform threads without a queue: when all of them are busy, or after shutdown, the submitting thread
+     * sends itself.
+     */
+    public static ExecutorService newPlatformExecutor(String name, int coreThreads, int maxThreads, long keepAliveMillis) {
+        return new ThreadPoolExecutor(coreThreads, maxThreads, keepAliveMillis, TimeUnit.MILLISECONDS,
+                        new SynchronousQueue<Runnable>(), new NamedThreadFactory(name), new RejectedExecutionHandler() {
+                            @Override
+                            public void rejectedExecution(Runnable task, ThreadPoolExecutor executor) {
+                                task.run();
+                            }
+                        });
+    }
+
+    /**
+     * Single thread working through a queue of up to {@code capacity} tasks. The submitting thread never runs a
+     * task itself: one submitted to a full queue or after shutdown is rejected.
+     */
+    public static ExecutorService newQueuedExecutor(String name, int capacity) {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(capacity),
+                        new NamedThreadFactory(name));
+    }
+
+    /**
+     * Executor starting a virtual thread named {@code name-n} per task.
+     *
+     * @return null if the running JVM has no virtual threads.
+     */
+    public static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (NoSuchMethodException | ClassNotFoundException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+}
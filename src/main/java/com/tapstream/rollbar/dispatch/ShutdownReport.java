@@ -0,0 +1,40 @@
+package com.tapstream.rollbar.dispatch;
+
+/**
+ * Outcome of {@link Dispatcher#shutdown(long, int)}.
+ */
+public class ShutdownReport {
+
+    private final long flushed;
+    private final long abandoned;
+    private final long elapsedMillis;
+
+    public ShutdownReport(long flushed, long abandoned, long elapsedMillis) {
+        this.flushed = flushed;
+        this.abandoned = abandoned;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return events handled between the start of the shutdown and the deadline.
+     */
+    public long getFlushed() {
+        return flushed;
+    }
+
+    /**
+     * @return events still queued or in flight when the deadline passed.
+     */
+    public long getAbandoned() {
+        return abandoned;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "flushed " + flushed + ", abandoned " + abandoned + " in " + elapsedMillis + " ms";
+    }
+}
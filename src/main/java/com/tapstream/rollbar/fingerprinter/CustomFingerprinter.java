@@ -1,5 +1,9 @@
 package com.tapstream.rollbar.fingerprinter;
 
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
 import org.apache.commons.codec.binary.Hex;
 
 import java.security.MessageDigest;
@@ -22,8 +26,10 @@ import java.util.Map;
  * <li>message with numbers removed</li>
  * </ul>
  * </ol>
+ * A proxy of a serialized exception gives the same fingerprint as the exception, except that its
+ * {@link HasFingerprint} is lost with it.
  */
-public class CustomFingerprinter implements Fingerprinter {
+public class CustomFingerprinter implements ThrowableProxyFingerprinter {
     private static final String NUMBER = "\\d+";
     private static final int MAX_CAUSES = 100;
 
@@ -43,6 +49,25 @@ public class CustomFingerprinter implements Fingerprinter {
         return new String(Hex.encodeHex(digest.digest()));
     }
 
+    @Override
+    public String fingerprintProxy(String message, IThrowableProxy throwable, Map<String, String> context, String loggerName) {
+        if (throwable == null || throwable instanceof ThrowableProxy) {
+            return fingerprint(message, throwable == null ? null : ((ThrowableProxy) throwable).getThrowable(), context, loggerName);
+        }
+        MessageDigest digest = getDigest();
+        IThrowableProxy current = throwable;
+        for (int depth = 0; current != null && depth < MAX_CAUSES; depth++) {
+            digest.update(current.getClassName().getBytes());
+            if (current.getStackTraceElementProxyArray() != null) {
+                for (StackTraceElementProxy step : current.getStackTraceElementProxyArray()) {
+                    appendStacktraceElement(digest, step.getStackTraceElement());
+                }
+            }
+            current = current.getCause();
+        }
+        return new String(Hex.encodeHex(digest.digest()));
+    }
+
     protected void fingerprintMessage(String message, MessageDigest digest) {
         digest.update(message.replaceAll(NUMBER, "").getBytes());
     }
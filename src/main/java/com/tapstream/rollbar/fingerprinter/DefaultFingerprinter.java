@@ -1,13 +1,16 @@
 package com.tapstream.rollbar.fingerprinter;
 
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
 import java.util.Map;
 
 /**
  * Delegates to {@link CustomFingerprinter} only if throwable is provided and it implements 
  * HasFingerprint (or any of its causes implements it). Otherwise returns null indicating 
- * that default Rollbar's algorithm should be used.
+ * that default Rollbar's algorithm should be used. A proxy of a serialized exception never implements HasFingerprint.
  */
-public class DefaultFingerprinter implements Fingerprinter {
+public class DefaultFingerprinter implements ThrowableProxyFingerprinter {
     private static final int MAX_CAUSES = 100;
 
     private final CustomFingerprinter customFingerprinter;
@@ -30,6 +33,14 @@ public class DefaultFingerprinter implements Fingerprinter {
         }
     }
 
+    @Override
+    public String fingerprintProxy(String message, IThrowableProxy throwable, Map<String, String> context, String loggerName) {
+        if (throwable instanceof ThrowableProxy) {
+            return fingerprint(message, ((ThrowableProxy) throwable).getThrowable(), context, loggerName);
+        }
+        return null;
+    }
+
     private boolean prividesCustomFingerprint(Throwable throwable) {
         if (throwable != null) {
             Throwable current = throwable;
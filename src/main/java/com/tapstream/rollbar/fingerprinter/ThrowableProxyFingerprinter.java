@@ -0,0 +1,18 @@
+package com.tapstream.rollbar.fingerprinter;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+
+import java.util.Map;
+
+/**
+ * A {@link Fingerprinter} that can also work from the proxy of an exception, which is all an event carries once
+ * it has been serialized, e.g. when it reaches the appender through a logback receiver.
+ */
+public interface ThrowableProxyFingerprinter extends Fingerprinter {
+
+    /**
+     * @return fingerprint or null if default Rollbar's algorithm should be used for fingerprint generation.
+     */
+    String fingerprintProxy(String message, IThrowableProxy throwable, Map<String, String> context, String loggerName);
+
+}
@@ -0,0 +1,87 @@
+package com.tapstream.rollbar.json;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoded JSON of stack trace frames, so the frames of an error seen again are copied instead of written anew.
+ * Like the rate limiter, elements are spread over stripes, each a small access-ordered map with its own lock
+ * holding its share of {@code maxFrames}; the least recently used frame is evicted when a stripe overflows.
+ */
+public class FrameCache {
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public FrameCache(int maxFrames) {
+        if (maxFrames < 1) {
+            throw new IllegalArgumentException("Frame count must be positive: " + maxFrames);
+        }
+        int framesPerStripe = Math.max(1, (maxFrames + STRIPES - 1) / STRIPES);
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(framesPerStripe);
+        }
+    }
+
+    /**
+     * @return the encoded frame or null if it has to be encoded and {@link #put} in the cache.
+     */
+    public byte[] get(StackTraceElement element) {
+        Stripe stripe = stripeOf(element);
+        byte[] encoded;
+        synchronized (stripe) {
+            encoded = stripe.get(element);
+        }
+        (encoded == null ? misses : hits).incrementAndGet();
+        return encoded;
+    }
+
+    public void put(StackTraceElement element, byte[] encoded) {
+        Stripe stripe = stripeOf(element);
+        synchronized (stripe) {
+            stripe.put(element, encoded);
+        }
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    private Stripe stripeOf(StackTraceElement element) {
+        int hash = element.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    @SuppressWarnings("serial")
+    private static class Stripe extends LinkedHashMap<StackTraceElement, byte[]> {
+        private final int maxFrames;
+
+        Stripe(int maxFrames) {
+            super(16, 0.75f, true);
+            this.maxFrames = maxFrames;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<StackTraceElement, byte[]> eldest) {
+            return size() > maxFrames;
+        }
+    }
+}
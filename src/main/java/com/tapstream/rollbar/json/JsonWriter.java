@@ -0,0 +1,231 @@
+package com.tapstream.rollbar.json;
+
+import com.tapstream.rollbar.codec.PayloadWriter;
+
+import java.util.Arrays;
+
+/**
+ * Writes JSON as UTF-8 straight into a growable byte array, without building a tree first. Commas are inserted
+ * by the writer.
+ */
+public class JsonWriter extends PayloadWriter {
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final int MAX_DEPTH = 64;
+
+    /** Per nesting level, whether a value was already written at that level and the next one needs a comma. */
+    private final boolean[] needsComma = new boolean[MAX_DEPTH + 1];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter() {
+        this(4096, 256 * 1024);
+    }
+
+    public JsonWriter(int initialBytes, int retainedBytes) {
+        super(initialBytes, retainedBytes);
+    }
+
+    @Override
+    protected void resetState() {
+        depth = 0;
+        needsComma[0] = false;
+        afterName = false;
+    }
+
+    @Override
+    public JsonWriter beginObject() {
+        return open('{');
+    }
+
+    @Override
+    public JsonWriter endObject() {
+        return close('}');
+    }
+
+    @Override
+    public JsonWriter beginArray() {
+        return open('[');
+    }
+
+    @Override
+    public JsonWriter endArray() {
+        return close(']');
+    }
+
+    @Override
+    public JsonWriter name(String name) {
+        separate();
+        writeString(name);
+        append(':');
+        afterName = true;
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(String value) {
+        if (value == null) {
+            return nullValue();
+        }
+        separate();
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(long value) {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            append(Long.toString(value));
+            return this;
+        }
+        ensureCapacity(20);
+        if (value < 0) {
+            buffer[size++] = '-';
+            value = -value;
+        }
+        int start = size;
+        do {
+            buffer[size++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        // digits were written backwards
+        for (int i = start, j = size - 1; i < j; i++, j--) {
+            byte digit = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = digit;
+        }
+        checkLimit();
+        return this;
+    }
+
+    @Override
+    public JsonWriter value(boolean value) {
+        separate();
+        append(value ? TRUE : FALSE);
+        return this;
+    }
+
+    @Override
+    public JsonWriter nullValue() {
+        separate();
+        append(NULL);
+        return this;
+    }
+
+    @Override
+    public JsonWriter raw(byte[] json) {
+        separate();
+        append(json);
+        return this;
+    }
+
+    @Override
+    protected JsonWriter fraction(Number number) {
+        separate();
+        append(number.toString());
+        return this;
+    }
+
+    /**
+     * @return the members of the single object written since the last reset, without its braces, to be spliced
+     * into other objects with {@link #raw(byte[])}.
+     */
+    @Override
+    public byte[] toMembers() {
+        if (size < 2 || buffer[0] != '{' || buffer[size - 1] != '}') {
+            throw new IllegalStateException("Not a single object");
+        }
+        return Arrays.copyOfRange(buffer, 1, size - 1);
+    }
+
+    private JsonWriter open(char bracket) {
+        separate();
+        append(bracket);
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested deeper than " + MAX_DEPTH);
+        }
+        needsComma[++depth] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) {
+        depth--;
+        append(bracket);
+        return this;
+    }
+
+    private void separate() {
+        if (afterName) {
+            afterName = false;
+        } else {
+            if (needsComma[depth]) {
+                append(',');
+            }
+            needsComma[depth] = true;
+        }
+    }
+
+    private void writeString(String value) {
+        int length = value.length();
+        // every char takes at least a byte, so a string that cannot fit is refused before it is encoded
+        reserve(length + 2);
+        // worst case: every char a 6 byte escape, surrogate pairs take 4 bytes for 2 chars
+        ensureCapacity(length * 6 + 2);
+        byte[] out = buffer;
+        int position = size;
+        out[position++] = '"';
+        // runs of chars without escapes in between are encoded as they are
+        int run = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            position = encodeUtf8(value, run, i, out, position);
+            run = i + 1;
+            out[position++] = '\\';
+            switch (c) {
+            case '"':
+            case '\\':
+                out[position++] = (byte) c;
+                break;
+            case '\n':
+                out[position++] = 'n';
+                break;
+            case '\r':
+                out[position++] = 'r';
+                break;
+            case '\t':
+                out[position++] = 't';
+                break;
+            case '\b':
+                out[position++] = 'b';
+                break;
+            case '\f':
+                out[position++] = 'f';
+                break;
+            default:
+                out[position++] = 'u';
+                out[position++] = '0';
+                out[position++] = '0';
+                out[position++] = HEX[c >> 4];
+                out[position++] = HEX[c & 0xf];
+            }
+        }
+        position = encodeUtf8(value, run, length, out, position);
+        out[position++] = '"';
+        size = position;
+        checkLimit();
+    }
+
+    private void append(String ascii) {
+        ensureCapacity(ascii.length());
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer[size++] = (byte) ascii.charAt(i);
+        }
+        checkLimit();
+    }
+}
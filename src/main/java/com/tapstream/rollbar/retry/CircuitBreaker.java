@@ -0,0 +1,97 @@
+package com.tapstream.rollbar.retry;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stops sending to an endpoint after {@code failureThreshold} consecutive failures. While open, requests fail
+ * fast; once {@code openMillis} have passed a single probe request is let through (half-open). A successful probe
+ * closes the circuit, a failed one opens it again for another period.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public enum Permission {
+        /** Circuit closed, send everything. */
+        ALL,
+        /** Circuit half-open, send exactly one request and report its outcome. */
+        PROBE,
+        /** Circuit open, send nothing. */
+        NONE
+    }
+
+    private final int failureThreshold;
+    private final long openMillis;
+    private final AtomicLong rejected = new AtomicLong();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    public CircuitBreaker(int failureThreshold, long openMillis) {
+        if (failureThreshold < 1 || openMillis < 0) {
+            throw new IllegalArgumentException("Failure threshold must be positive");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openMillis = openMillis;
+    }
+
+    public Permission acquire() {
+        return acquire(System.currentTimeMillis());
+    }
+
+    synchronized Permission acquire(long nowMillis) {
+        if (state == State.OPEN && nowMillis - openedAt >= openMillis) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        switch (state) {
+        case CLOSED:
+            return Permission.ALL;
+        case HALF_OPEN:
+            if (!probing) {
+                probing = true;
+                return Permission.PROBE;
+            }
+            // a probe is already in flight
+            rejected.incrementAndGet();
+            return Permission.NONE;
+        default:
+            rejected.incrementAndGet();
+            return Permission.NONE;
+        }
+    }
+
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        state = State.CLOSED;
+        probing = false;
+    }
+
+    public void onFailure() {
+        onFailure(System.currentTimeMillis());
+    }
+
+    synchronized void onFailure(long nowMillis) {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            state = State.OPEN;
+            openedAt = nowMillis;
+            probing = false;
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return number of times sending was refused because the circuit was open.
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
@@ -0,0 +1,92 @@
+package com.tapstream.rollbar.retry;
+
+import com.tapstream.rollbar.HttpResponse;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter: the n-th retry waits a random time between zero and
+ * {@code min(maxDelayMillis, baseDelayMillis * 2^n)}. A {@code Retry-After} header on a 429 response takes
+ * precedence over the computed delay.
+ */
+public class RetryPolicy {
+    /** Returned by {@link #delayMillis} when the request should not be retried. */
+    public static final long NO_RETRY = -1;
+
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+
+    public RetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid retry settings");
+        }
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public static boolean isRetryable(int statusCode) {
+        return statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * @param retry number of the retry about to be scheduled, starting at 0.
+     * @param response response of the failed attempt, null if it failed with an exception.
+     * @return how long to wait before sending again, or {@link #NO_RETRY}.
+     */
+    public long delayMillis(int retry, HttpResponse response) {
+        if (retry >= maxRetries) {
+            return NO_RETRY;
+        }
+        if (response != null) {
+            if (!isRetryable(response.getStatusCode())) {
+                return NO_RETRY;
+            }
+            if (response.getStatusCode() == 429) {
+                long retryAfter = retryAfterMillis(response.getHeader("Retry-After"), System.currentTimeMillis());
+                if (retryAfter >= 0) {
+                    // the caller should not hold on to a request for longer than it would ever back off
+                    return retryAfter <= maxDelayMillis ? retryAfter : NO_RETRY;
+                }
+            }
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(retry, 30));
+        return ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * @return delay requested by a Retry-After value (seconds or an HTTP date), or -1 if it can't be parsed.
+     */
+    public static long retryAfterMillis(String retryAfter, long nowMillis) {
+        if (retryAfter == null) {
+            return -1;
+        }
+        String value = retryAfter.trim();
+        try {
+            return TimeUnit.SECONDS.toMillis(Math.max(0, Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            // not delta-seconds, try a date
+        }
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            Date date = format.parse(value);
+            return Math.max(0, date.getTime() - nowMillis);
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+}
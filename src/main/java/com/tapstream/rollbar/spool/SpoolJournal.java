@@ -0,0 +1,343 @@
+package com.tapstream.rollbar.spool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of records in fixed-size, memory-mapped segment files, each record written as its length,
+ * CRC32 and bytes. Records are delivered at least once.
+ */
+public class SpoolJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".spool";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int CHECKPOINT_SLOT_BYTES = 32;
+
+    private final File directory;
+    private final int segmentBytes;
+    private final int maxSegments;
+    private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<Long, MappedByteBuffer>();
+    private final MappedByteBuffer checkpoint;
+    private final List<File> undeleted = new ArrayList<File>();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private long writeSegment;
+    private int writePosition;
+    private long readSegment;
+    private int readPosition;
+    private long checkpointSequence;
+
+    /**
+     * @param segmentBytes size of one segment file, also the largest record accepted.
+     * @param maxBytes disk budget; at least two segments are always kept.
+     */
+    public SpoolJournal(File directory, int segmentBytes, long maxBytes) throws IOException {
+        if (segmentBytes <= RECORD_HEADER_BYTES) {
+            throw new IllegalArgumentException("Segment size too small: " + segmentBytes);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.maxSegments = (int) Math.max(2, Math.min(Integer.MAX_VALUE, maxBytes / segmentBytes));
+        this.checkpoint = map(new File(directory, CHECKPOINT_FILE), 2 * CHECKPOINT_SLOT_BYTES);
+
+        for (long id : existingSegmentIds()) {
+            segments.put(id, map(segmentFile(id), segmentBytes));
+        }
+        if (segments.isEmpty()) {
+            segments.put(0L, map(segmentFile(0), segmentBytes));
+        }
+        writeSegment = segments.lastKey();
+        writePosition = scanEnd(segments.get(writeSegment));
+        restoreReadPosition();
+    }
+
+    /**
+     * @return false if the record is empty or larger than a segment and was dropped.
+     */
+    public synchronized boolean append(byte[] record) throws IOException {
+        int required = RECORD_HEADER_BYTES + record.length;
+        if (record.length == 0 || required > segmentBytes) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (writePosition + required > segmentBytes) {
+            rotate();
+        }
+        MappedByteBuffer segment = segments.get(writeSegment);
+        segment.putInt(writePosition + 4, checksum(record));
+        ByteBuffer target = segment.duplicate();
+        target.position(writePosition + RECORD_HEADER_BYTES);
+        target.put(record);
+        // last, so a record torn by a crash reads as the end of the segment
+        segment.putInt(writePosition, record.length);
+        writePosition += required;
+        return true;
+    }
+
+    /**
+     * Reads, without consuming them, up to maxRecords records following the last committed one.
+     */
+    public synchronized List<SpoolRecord> read(int maxRecords) {
+        List<SpoolRecord> records = new ArrayList<SpoolRecord>();
+        long segmentId = readSegment;
+        int position = readPosition;
+        while (records.size() < maxRecords) {
+            MappedByteBuffer segment = segments.get(segmentId);
+            byte[] data = readRecord(segment, position);
+            if (data == null) {
+                Long next = segments.higherKey(segmentId);
+                if (next == null) {
+                    break;
+                }
+                segmentId = next;
+                position = 0;
+                continue;
+            }
+            position += RECORD_HEADER_BYTES + data.length;
+            records.add(new SpoolRecord(data, segmentId, position));
+        }
+        return records;
+    }
+
+    /**
+     * Consumes every record up to and including the given one and deletes the segments left behind.
+     */
+    public synchronized void commit(SpoolRecord record) throws IOException {
+        if (record.getSegmentId() < readSegment
+                        || (record.getSegmentId() == readSegment && record.getNextPosition() <= readPosition)) {
+            return;
+        }
+        readSegment = record.getSegmentId();
+        readPosition = record.getNextPosition();
+        writeCheckpoint();
+        while (segments.firstKey() < readSegment) {
+            delete(segments.firstKey());
+        }
+    }
+
+    public synchronized boolean isEmpty() {
+        return read(1).isEmpty();
+    }
+
+    /**
+     * @return number of records lost because they were too large or the disk budget was exceeded.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        for (MappedByteBuffer segment : segments.values()) {
+            segment.force();
+        }
+        checkpoint.force();
+    }
+
+    private void rotate() throws IOException {
+        segments.get(writeSegment).force();
+        while (segments.size() >= maxSegments) {
+            long oldest = segments.firstKey();
+            dropped.addAndGet(countRecords(oldest, oldest == readSegment ? readPosition : 0));
+            delete(oldest);
+            if (oldest >= readSegment) {
+                readSegment = segments.isEmpty() ? writeSegment + 1 : segments.firstKey();
+                readPosition = 0;
+                writeCheckpoint();
+            }
+        }
+        writeSegment++;
+        writePosition = 0;
+        segments.put(writeSegment, map(segmentFile(writeSegment), segmentBytes));
+    }
+
+    private int countRecords(long segmentId, int from) {
+        MappedByteBuffer segment = segments.get(segmentId);
+        int count = 0;
+        int position = from;
+        byte[] data;
+        while ((data = readRecord(segment, position)) != null) {
+            position += RECORD_HEADER_BYTES + data.length;
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Unmaps the segment before deleting its file, which Windows refuses while it is mapped.
+     */
+    private void delete(long segmentId) {
+        unmap(segments.remove(segmentId));
+        undeleted.add(segmentFile(segmentId));
+        deleteFiles();
+    }
+
+    /**
+     * Files that could not be deleted are tried again with the next segment.
+     */
+    private void deleteFiles() {
+        for (Iterator<File> it = undeleted.iterator(); it.hasNext();) {
+            File file = it.next();
+            if (!file.exists() || file.delete()) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping now rather than when the buffer is collected. The buffer must not be used afterwards.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner;
+            try {
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (NoSuchMethodException e) {
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+                return;
+            }
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // left to the garbage collector
+        }
+    }
+
+    /**
+     * @return bytes of the record at the position or null if there is no complete, intact record there.
+     */
+    private byte[] readRecord(MappedByteBuffer segment, int position) {
+        if (position + RECORD_HEADER_BYTES > segmentBytes) {
+            return null;
+        }
+        int length = segment.getInt(position);
+        if (length <= 0 || position + RECORD_HEADER_BYTES + length > segmentBytes) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        ByteBuffer source = segment.duplicate();
+        source.position(position + RECORD_HEADER_BYTES);
+        source.get(data);
+        if (checksum(data) != segment.getInt(position + 4)) {
+            return null;
+        }
+        return data;
+    }
+
+    private int scanEnd(MappedByteBuffer segment) {
+        int position = 0;
+        byte[] data;
+        while ((data = readRecord(segment, position)) != null) {
+            position += RECORD_HEADER_BYTES + data.length;
+        }
+        return position;
+    }
+
+    private void restoreReadPosition() {
+        long bestSequence = -1;
+        for (int slot = 0; slot < 2; slot++) {
+            int offset = slot * CHECKPOINT_SLOT_BYTES;
+            long sequence = checkpoint.getLong(offset);
+            long segmentId = checkpoint.getLong(offset + 8);
+            long position = checkpoint.getLong(offset + 16);
+            long crc = checkpoint.getLong(offset + 24);
+            if (sequence > bestSequence && crc == checkpointChecksum(sequence, segmentId, position)) {
+                bestSequence = sequence;
+                readSegment = segmentId;
+                readPosition = (int) position;
+            }
+        }
+        checkpointSequence = Math.max(0, bestSequence);
+        if (bestSequence < 0 || !segments.containsKey(readSegment)) {
+            // nothing committed yet, or the segment was deleted to respect the budget
+            readSegment = segments.firstKey();
+            readPosition = 0;
+        }
+    }
+
+    private void writeCheckpoint() {
+        checkpointSequence++;
+        int offset = (int) (checkpointSequence % 2) * CHECKPOINT_SLOT_BYTES;
+        checkpoint.putLong(offset + 8, readSegment);
+        checkpoint.putLong(offset + 16, readPosition);
+        checkpoint.putLong(offset + 24, checkpointChecksum(checkpointSequence, readSegment, readPosition));
+        checkpoint.putLong(offset, checkpointSequence);
+        checkpoint.force();
+    }
+
+    private static long checkpointChecksum(long sequence, long segmentId, long position) {
+        CRC32 crc = new CRC32();
+        for (long value : new long[] { sequence, segmentId, position }) {
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                crc.update((int) (value >>> shift));
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static int checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        return (int) crc.getValue();
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format("%s%016d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private List<Long> existingSegmentIds() {
+        Map<Long, String> ids = new TreeMap<Long, String>();
+        String[] names = directory.list(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (names != null) {
+            for (String name : names) {
+                try {
+                    ids.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), name);
+                } catch (NumberFormatException e) {
+                    // not one of ours
+                }
+            }
+        }
+        return new ArrayList<Long>(ids.keySet());
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() < size) {
+                raf.setLength(size);
+            }
+            // the mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.tapstream.rollbar.spool;
+
+public class SpoolRecord {
+
+    private final byte[] data;
+    private final long segmentId;
+    private final int nextPosition;
+
+    SpoolRecord(byte[] data, long segmentId, int nextPosition) {
+        this.data = data;
+        this.segmentId = segmentId;
+        this.nextPosition = nextPosition;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    long getSegmentId() {
+        return segmentId;
+    }
+
+    int getNextPosition() {
+        return nextPosition;
+    }
+}
@@ -0,0 +1,183 @@
+package com.tapstream.rollbar.spool;
+
+import com.tapstream.rollbar.dispatch.NamedThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Periodically drains a {@link SpoolJournal}. The oldest record is sent first as a probe; only if the endpoint
+ * accepts it are the following records sent, up to {@code parallelism} at a time. Records are committed in order,
+ * up to the first one that has to be retried, which also ends the round.
+ */
+public class SpoolReplayer extends ContextAwareBase {
+    private static final int RECORDS_PER_THREAD = 4;
+
+    public interface Sender {
+        /**
+         * @return HTTP status code returned by the endpoint.
+         * @throws IOException if the record could not be sent, or should not be sent now.
+         */
+        int send(byte[] record) throws IOException;
+    }
+
+    private final String name;
+    private final SpoolJournal journal;
+    private final Sender sender;
+    private final int parallelism;
+    private final long intervalMillis;
+    private final AtomicLong replayed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private ScheduledExecutorService scheduler;
+    private ExecutorService senders;
+
+    public SpoolReplayer(String name, SpoolJournal journal, Sender sender, int parallelism, long intervalMillis) {
+        if (parallelism < 1 || intervalMillis <= 0) {
+            throw new IllegalArgumentException("Parallelism and interval must be positive");
+        }
+        this.name = name;
+        this.journal = journal;
+        this.sender = sender;
+        this.parallelism = parallelism;
+        this.intervalMillis = intervalMillis;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+        senders = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory(name + "-sender"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                replay();
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Interrupts the replay in progress and waits for it to end, so that nothing is committed to the journal once
+     * this returns.
+     *
+     * @return false if the replay did not end within the timeout.
+     */
+    public boolean stop(long timeoutMillis) {
+        if (scheduler == null) {
+            return true;
+        }
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            return scheduler.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)
+                            && senders.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+                                            TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Sends spooled records until the journal is empty or the endpoint fails.
+     * @return number of records consumed.
+     */
+    long replay() {
+        long consumed = 0;
+        try {
+            List<SpoolRecord> records;
+            while (!(records = journal.read(parallelism * RECORDS_PER_THREAD)).isEmpty()) {
+                SpoolRecord probe = records.get(0);
+                if (!deliver(probe)) {
+                    break;
+                }
+                journal.commit(probe);
+                consumed++;
+
+                int delivered = deliverInParallel(records.subList(1, records.size()));
+                if (delivered > 0) {
+                    journal.commit(records.get(delivered));
+                    consumed += delivered;
+                }
+                if (delivered < records.size() - 1) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            addError("Error replaying spool [" + name + "]", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return consumed;
+    }
+
+    /**
+     * @return length of the prefix of records that no longer need to be sent.
+     */
+    private int deliverInParallel(List<SpoolRecord> records) throws InterruptedException {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(records.size());
+        for (final SpoolRecord record : records) {
+            results.add(senders.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return deliver(record);
+                }
+            }));
+        }
+        int prefix = 0;
+        boolean contiguous = true;
+        for (Future<Boolean> result : results) {
+            boolean delivered;
+            try {
+                delivered = result.get();
+            } catch (ExecutionException e) {
+                delivered = false;
+            }
+            contiguous &= delivered;
+            if (contiguous) {
+                prefix++;
+            }
+        }
+        return prefix;
+    }
+
+    /**
+     * @return false if the record should be sent again later.
+     */
+    private boolean deliver(SpoolRecord record) {
+        int statusCode;
+        try {
+            statusCode = sender.send(record.getData());
+        } catch (IOException e) {
+            return false;
+        }
+        if (statusCode == 429 || statusCode >= 500) {
+            return false;
+        }
+        if (statusCode >= 200 && statusCode <= 299) {
+            replayed.incrementAndGet();
+        } else {
+            // the endpoint will never accept this one
+            rejected.incrementAndGet();
+            addError("Spooled item rejected by Rollbar: " + statusCode);
+        }
+        return true;
+    }
+
+    public long getReplayedCount() {
+        return replayed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+}
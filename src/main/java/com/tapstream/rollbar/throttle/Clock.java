@@ -0,0 +1,23 @@
+package com.tapstream.rollbar.throttle;
+
+/**
+ * Time as seen by the throttles, so tests can move it forward instead of waiting.
+ */
+public interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    long currentTimeMillis();
+
+    long nanoTime();
+}
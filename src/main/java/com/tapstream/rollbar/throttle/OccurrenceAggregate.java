@@ -0,0 +1,123 @@
+package com.tapstream.rollbar.throttle;
+
+import com.tapstream.rollbar.RollbarEvent;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Repeats of one error collected by {@link OccurrenceAggregator}, the occurrence that opened the window having
+ * been sent on its own. The first repeat is kept whole and becomes the reported item; the others only contribute
+ * to the count, the time span and a bounded sample of distinct messages and MDC values.
+ */
+public class OccurrenceAggregate {
+    private static final int MAX_CONTEXT_KEYS = 64;
+
+    private final String fingerprint;
+    private RollbarEvent firstEvent;
+    private final long openedAt;
+    private final int maxSamples;
+    private final Set<String> messages = new LinkedHashSet<String>();
+    private final Map<String, Set<String>> contextValues = new LinkedHashMap<String, Set<String>>();
+    private long count;
+    private long firstTimestamp;
+    private long lastTimestamp;
+    private boolean closed;
+
+    OccurrenceAggregate(String fingerprint, long openedAt, int maxSamples) {
+        this.fingerprint = fingerprint;
+        this.openedAt = openedAt;
+        this.maxSamples = maxSamples;
+    }
+
+    /**
+     * @return false if the aggregate was already closed and the event has to go to a new one.
+     */
+    synchronized boolean add(RollbarEvent event) {
+        if (closed) {
+            return false;
+        }
+        if (count++ == 0) {
+            firstEvent = event;
+            firstTimestamp = event.getTimestamp();
+            lastTimestamp = event.getTimestamp();
+        }
+        firstTimestamp = Math.min(firstTimestamp, event.getTimestamp());
+        lastTimestamp = Math.max(lastTimestamp, event.getTimestamp());
+        sample(event);
+        return true;
+    }
+
+    synchronized void close() {
+        closed = true;
+    }
+
+    private void sample(RollbarEvent event) {
+        if (event.getMessage() != null && messages.size() < maxSamples) {
+            messages.add(event.getMessage());
+        }
+        for (Map.Entry<String, String> entry : event.getContext().entrySet()) {
+            Set<String> values = contextValues.get(entry.getKey());
+            if (values == null) {
+                if (contextValues.size() >= MAX_CONTEXT_KEYS) {
+                    continue;
+                }
+                values = new LinkedHashSet<String>();
+                contextValues.put(entry.getKey(), values);
+            }
+            if (values.size() < maxSamples) {
+                values.add(entry.getValue());
+            }
+        }
+    }
+
+    long getOpenedAt() {
+        return openedAt;
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * @return the first repeat, null if there was none.
+     */
+    public synchronized RollbarEvent getFirstEvent() {
+        return firstEvent;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return custom data describing the repeats, empty if there was only one. {@code repeats} leaves out the
+     * occurrence sent when the window opened. Values are strings, numbers, lists and maps.
+     */
+    public synchronized Map<String, Object> toCustomData() {
+        Map<String, Object> custom = new LinkedHashMap<String, Object>();
+        if (count == 1) {
+            return custom;
+        }
+        custom.put("repeats", count);
+        custom.put("first_occurrence_timestamp", firstTimestamp / 1000);
+        custom.put("last_occurrence_timestamp", lastTimestamp / 1000);
+        custom.put("sample_messages", new ArrayList<String>(messages));
+
+        // values shared by all occurrences are already part of the item, only the varying ones are interesting
+        Map<String, List<String>> varying = new LinkedHashMap<String, List<String>>();
+        for (Map.Entry<String, Set<String>> entry : contextValues.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                varying.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+        }
+        if (!varying.isEmpty()) {
+            custom.put("sample_context", varying);
+        }
+        return custom;
+    }
+}
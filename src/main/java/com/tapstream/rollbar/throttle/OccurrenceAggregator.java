@@ -0,0 +1,131 @@
+package com.tapstream.rollbar.throttle;
+
+import com.tapstream.rollbar.RollbarEvent;
+import com.tapstream.rollbar.dispatch.EventHandler;
+import com.tapstream.rollbar.dispatch.NamedThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Collapses occurrences of the same error seen within a time window into one {@link OccurrenceAggregate}.
+ * The window of a key starts with its first occurrence, which the caller sends right away so an incident is
+ * reported as soon as it starts; the repeats are collected and a scheduler thread hands every aggregate whose
+ * window is over to the handler. At most {@code maxKeys} windows are open at once, further errors are
+ * rejected so the caller can send them as usual.
+ */
+public class OccurrenceAggregator extends ContextAwareBase {
+    private static final long MIN_TICK_MILLIS = 10;
+
+    private final String name;
+    private final long windowMillis;
+    private final int maxKeys;
+    private final int maxSamples;
+    private final EventHandler<OccurrenceAggregate> handler;
+    private final Clock clock;
+    private final ConcurrentMap<String, OccurrenceAggregate> open = new ConcurrentHashMap<String, OccurrenceAggregate>();
+    private ScheduledExecutorService scheduler;
+
+    public OccurrenceAggregator(String name, long windowMillis, int maxKeys, int maxSamples,
+                    EventHandler<OccurrenceAggregate> handler) {
+        this(name, windowMillis, maxKeys, maxSamples, handler, Clock.SYSTEM);
+    }
+
+    public OccurrenceAggregator(String name, long windowMillis, int maxKeys, int maxSamples,
+                    EventHandler<OccurrenceAggregate> handler, Clock clock) {
+        if (windowMillis <= 0 || maxKeys < 1 || maxSamples < 0) {
+            throw new IllegalArgumentException("Window and key count must be positive");
+        }
+        this.name = name;
+        this.windowMillis = windowMillis;
+        this.maxKeys = maxKeys;
+        this.maxSamples = maxSamples;
+        this.handler = handler;
+        this.clock = clock;
+    }
+
+    public void start() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+        long tick = Math.max(MIN_TICK_MILLIS, windowMillis / 10);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush(clock.currentTimeMillis());
+            }
+        }, tick, tick, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the scheduler and hands every open aggregate to the handler on the calling thread.
+     *
+     * @param timeoutMillis how long to wait for a flush already running on the scheduler.
+     */
+    public void stop(long timeoutMillis) {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush(Long.MAX_VALUE);
+    }
+
+    /**
+     * @return false if the occurrence should be sent now, being the first of its window or finding too many
+     * windows open.
+     */
+    public boolean add(String key, String fingerprint, RollbarEvent event) {
+        for (;;) {
+            OccurrenceAggregate aggregate = open.get(key);
+            if (aggregate == null) {
+                if (open.size() >= maxKeys) {
+                    return false;
+                }
+                aggregate = new OccurrenceAggregate(fingerprint, clock.currentTimeMillis(), maxSamples);
+                if (open.putIfAbsent(key, aggregate) == null) {
+                    return false;
+                }
+            } else if (aggregate.add(event)) {
+                return true;
+            }
+            // lost a race with another thread creating the window or with the flush closing it
+        }
+    }
+
+    void flush(long nowMillis) {
+        List<OccurrenceAggregate> expired = new ArrayList<OccurrenceAggregate>();
+        for (Iterator<Map.Entry<String, OccurrenceAggregate>> it = open.entrySet().iterator(); it.hasNext();) {
+            OccurrenceAggregate aggregate = it.next().getValue();
+            if (nowMillis - aggregate.getOpenedAt() >= windowMillis) {
+                it.remove();
+                aggregate.close();
+                if (aggregate.getCount() > 0) {
+                    expired.add(aggregate);
+                }
+            }
+        }
+        if (expired.isEmpty()) {
+            return;
+        }
+        try {
+            handler.handle(expired);
+        } catch (RuntimeException e) {
+            addError("Error handling aggregated occurrences in [" + name + "]", e);
+        }
+    }
+
+    public int getOpenWindowCount() {
+        return open.size();
+    }
+}
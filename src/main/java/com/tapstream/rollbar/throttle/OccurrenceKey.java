@@ -0,0 +1,34 @@
+package com.tapstream.rollbar.throttle;
+
+import com.tapstream.rollbar.RollbarEvent;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * Groups occurrences of the same error when throttling or aggregating them.
+ */
+public final class OccurrenceKey {
+
+    private OccurrenceKey() {
+    }
+
+    /**
+     * @return the fingerprint if there is one, otherwise a key built from the exception class and the frame it was
+     * thrown from, or from the logger name and message when there is no exception.
+     */
+    public static String of(RollbarEvent event, String fingerprint) {
+        if (fingerprint != null) {
+            return fingerprint;
+        }
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if (throwable != null) {
+            StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+            if (frames != null && frames.length > 0) {
+                return throwable.getClassName() + '@' + frames[0].getStackTraceElement();
+            }
+            return throwable.getClassName();
+        }
+        return event.getLoggerName() + ':' + event.getMessage();
+    }
+}
@@ -0,0 +1,132 @@
+package com.tapstream.rollbar.throttle;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket per key. Keys are spread over a fixed number of stripes, each one a small access-ordered map
+ * guarded by its own lock, so threads limiting different errors rarely contend. Every stripe holds at most
+ * its share of {@code maxKeys}; the least recently used bucket is forgotten when it overflows.
+ */
+public class RateLimiter {
+    private static final int STRIPES = 16;
+
+    private final double permitsPerNano;
+    private final double burst;
+    private final Stripe[] stripes;
+    private final Clock clock;
+    private final AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * @param permitsPerSecond sustained rate allowed for every key.
+     * @param burst number of occurrences allowed at once before the rate applies.
+     * @param maxKeys number of keys remembered.
+     */
+    public RateLimiter(double permitsPerSecond, int burst, int maxKeys) {
+        this(permitsPerSecond, burst, maxKeys, Clock.SYSTEM);
+    }
+
+    public RateLimiter(double permitsPerSecond, int burst, int maxKeys, Clock clock) {
+        if (permitsPerSecond <= 0 || burst < 1 || maxKeys < 1) {
+            throw new IllegalArgumentException("Rate, burst and key count must be positive");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.clock = clock;
+        int keysPerStripe = Math.max(1, (maxKeys + STRIPES - 1) / STRIPES);
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(keysPerStripe);
+        }
+    }
+
+    /**
+     * @return -1 if the occurrence should be suppressed. Otherwise the number of occurrences of the same key
+     * suppressed since the previous permitted one, which the caller is expected to report.
+     */
+    public long tryAcquire(String key) {
+        return tryAcquire(key, clock.nanoTime());
+    }
+
+    long tryAcquire(String key, long nowNanos) {
+        Stripe stripe = stripes[spread(key.hashCode()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(key);
+            if (bucket == null) {
+                bucket = new Bucket(burst, nowNanos);
+                stripe.put(key, bucket);
+            }
+            bucket.refill(nowNanos, permitsPerNano, burst);
+            if (bucket.tokens < 1) {
+                bucket.suppressed++;
+                suppressed.incrementAndGet();
+                return -1;
+            }
+            bucket.tokens -= 1;
+            long reported = bucket.suppressed;
+            bucket.suppressed = 0;
+            return reported;
+        }
+    }
+
+    /**
+     * Gives back the count {@link #tryAcquire} reported for an occurrence that was not sent after all, for the
+     * next permitted occurrence of the key to report.
+     */
+    public void restore(String key, long suppressedCount) {
+        Stripe stripe = stripes[spread(key.hashCode()) & (STRIPES - 1)];
+        synchronized (stripe) {
+            Bucket bucket = stripe.get(key);
+            if (bucket != null) {
+                bucket.suppressed += suppressedCount;
+            }
+        }
+    }
+
+    /**
+     * @return total number of suppressed occurrences.
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Bucket {
+        double tokens;
+        long lastRefill;
+        long suppressed;
+
+        Bucket(double tokens, long nowNanos) {
+            this.tokens = tokens;
+            this.lastRefill = nowNanos;
+        }
+
+        void refill(long nowNanos, double permitsPerNano, double burst) {
+            long elapsed = nowNanos - lastRefill;
+            if (elapsed > 0) {
+                tokens = Math.min(burst, tokens + elapsed * permitsPerNano);
+                lastRefill = nowNanos;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static class Stripe extends LinkedHashMap<String, Bucket> {
+        private final int maxKeys;
+
+        Stripe(int maxKeys) {
+            super(16, 0.75f, true);
+            this.maxKeys = maxKeys;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Bucket> eldest) {
+            return size() > maxKeys;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.tapstream.rollbar.throttle;
+
+import com.tapstream.rollbar.HttpResponse;
+import com.tapstream.rollbar.retry.RetryPolicy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The item quota the server reports in the {@code X-Rate-Limit-*} headers of its responses, counted down as items
+ * are sent, since the responses to the items in flight lag behind. While more than a {@code reserve} fraction of
+ * the quota remains items are sent as they come. Below it only important items are sent, spread evenly over what
+ * is left of the period; once the quota is spent they wait for the next period. Other items are shed.
+ * <p>
+ * A 429 response spends the quota until the end of the period it gives, or of its {@code Retry-After}, or for a
+ * minute. Responses without the headers, from an endpoint that does not report its quota, hold nothing back.
+ */
+public class ServerQuota {
+    /** Returned by {@link #acquire} when the item should not be sent. */
+    public static final long SHED = -1;
+
+    static final String LIMIT = "X-Rate-Limit-Limit";
+    static final String REMAINING = "X-Rate-Limit-Remaining";
+    static final String RESET = "X-Rate-Limit-Reset";
+    static final String REMAINING_SECONDS = "X-Rate-Limit-Remaining-Seconds";
+    private static final long DEFAULT_PERIOD_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    /** The end of a period given in whole seconds moves that much from one response to the next. */
+    private static final long RESET_PRECISION_MILLIS = 1000;
+
+    private final double reserve;
+    private final Clock clock;
+    private final AtomicLong shed = new AtomicLong();
+    private boolean known;
+    private long limit;
+    private long remaining;
+    private long resetAtMillis;
+    private long nextAtMillis;
+
+    /**
+     * @param reserve fraction of the quota kept for important items, from 0 to 1.
+     */
+    public ServerQuota(double reserve) {
+        this(reserve, Clock.SYSTEM);
+    }
+
+    public ServerQuota(double reserve, Clock clock) {
+        if (reserve < 0 || reserve > 1) {
+            throw new IllegalArgumentException("Reserve must be between 0 and 1: " + reserve);
+        }
+        this.reserve = reserve;
+        this.clock = clock;
+    }
+
+    /**
+     * Takes in the quota reported by a response.
+     */
+    public void update(HttpResponse response) {
+        update(response, clock.currentTimeMillis());
+    }
+
+    synchronized void update(HttpResponse response, long nowMillis) {
+        long reported = parse(response.getHeader(REMAINING));
+        long resetAt = resetAtMillis(response, nowMillis);
+        if (response.getStatusCode() == 429) {
+            reported = 0;
+            if (resetAt < 0) {
+                long retryAfter = RetryPolicy.retryAfterMillis(response.getHeader("Retry-After"), nowMillis);
+                resetAt = nowMillis + (retryAfter >= 0 ? retryAfter : DEFAULT_PERIOD_MILLIS);
+            }
+        }
+        if (reported < 0 || resetAt <= nowMillis) {
+            return;
+        }
+        long reportedLimit = parse(response.getHeader(LIMIT));
+        if (!known || nowMillis >= resetAtMillis || resetAt > resetAtMillis + RESET_PRECISION_MILLIS) {
+            // a new period
+            known = true;
+            remaining = reported;
+            limit = 0;
+            resetAtMillis = resetAt;
+            nextAtMillis = 0;
+        } else {
+            // items sent since are counted here, those sent by other clients sharing the quota there
+            remaining = Math.min(remaining, reported);
+        }
+        if (reportedLimit >= 0) {
+            limit = Math.max(reportedLimit, remaining);
+        } else if (limit < remaining) {
+            // without the header, the most seen remaining in the period
+            limit = remaining;
+        }
+    }
+
+    private static long resetAtMillis(HttpResponse response, long nowMillis) {
+        // relative to the client's clock, safer than the server's timestamp
+        long seconds = parse(response.getHeader(REMAINING_SECONDS));
+        if (seconds >= 0) {
+            return nowMillis + TimeUnit.SECONDS.toMillis(seconds);
+        }
+        long epochSeconds = parse(response.getHeader(RESET));
+        return epochSeconds >= 0 ? TimeUnit.SECONDS.toMillis(epochSeconds) : -1;
+    }
+
+    private static long parse(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Spends one item of the quota if it allows sending one now.
+     *
+     * @param important whether the item may use the reserve.
+     * @param mayWait false to shed an item that can only be sent later.
+     * @return 0 if the item may be sent, {@link #SHED} if it should be dropped, or how long to wait before asking
+     * again.
+     */
+    public long acquire(boolean important, boolean mayWait) {
+        return acquire(important, mayWait, clock.currentTimeMillis());
+    }
+
+    synchronized long acquire(boolean important, boolean mayWait, long nowMillis) {
+        if (!known || nowMillis >= resetAtMillis) {
+            known = false;
+            return 0;
+        }
+        if (remaining > limit * reserve) {
+            remaining--;
+            return 0;
+        }
+        long wait = 0;
+        if (important && remaining <= 0) {
+            wait = resetAtMillis - nowMillis;
+        } else if (important) {
+            wait = Math.max(0, nextAtMillis - nowMillis);
+        }
+        if (!important || (wait > 0 && !mayWait)) {
+            shed.incrementAndGet();
+            return SHED;
+        }
+        if (wait > 0) {
+            return wait;
+        }
+        nextAtMillis = nowMillis + (resetAtMillis - nowMillis) / remaining;
+        remaining--;
+        return 0;
+    }
+
+    /**
+     * @return number of items shed.
+     */
+    public long getShedCount() {
+        return shed.get();
+    }
+}
@@ -0,0 +1,232 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps connections open between exchanges so they do not pay for a new TCP and TLS handshake each time.
+ * <p>
+ * At most {@code maxTotal} connections are open at once, idle ones included; a caller waits for one to be
+ * released when they all are in use. At most {@code maxIdle} are kept idle, the most recently used one is handed
+ * out first. Idle connections are closed once idle for {@code idleTimeoutMillis}, and checked to be still open
+ * before being reused once idle for {@code validateAfterMillis}. Expired connections are evicted whenever the pool
+ * is used, there is no background thread.
+ */
+public class ConnectionPool implements Closeable {
+    /**
+     * Opens a new connection to a route.
+     */
+    public interface Connector {
+        Socket connect() throws IOException;
+    }
+
+    private final int maxIdle;
+    private final long idleTimeoutNanos;
+    private final long validateAfterNanos;
+    /** One permit per connection that may still be opened. */
+    private final Semaphore permits;
+    /** Idle connections per route, most recently used first. */
+    private final Map<String, Deque<PooledConnection>> idle = new HashMap<String, Deque<PooledConnection>>();
+    private int idleCount;
+    private boolean closed;
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+    private final AtomicLong staleCount = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConnectionPool(int maxTotal, int maxIdle, long idleTimeoutMillis, long validateAfterMillis) {
+        if (maxTotal < 1 || maxIdle < 0 || maxIdle > maxTotal) {
+            throw new IllegalArgumentException("Invalid pool size: " + maxIdle + " idle of " + maxTotal);
+        }
+        this.maxIdle = maxIdle;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(validateAfterMillis);
+        this.permits = new Semaphore(maxTotal, true);
+    }
+
+    /**
+     * @return an idle connection to the route if one is still usable, a new one otherwise. It must be given back
+     * with {@link #release(PooledConnection, boolean)}.
+     * @throws IOException if no connection could be opened, or none was released within the timeout.
+     */
+    public PooledConnection acquire(String route, Connector connector, long timeoutMillis) throws IOException {
+        long now = System.nanoTime();
+        evictExpired(now);
+        PooledConnection connection;
+        while ((connection = pollIdle(route)) != null) {
+            if (now - connection.getLastUsedNanos() < validateAfterNanos || !connection.isStale()) {
+                reuses.incrementAndGet();
+                return connection;
+            }
+            staleCount.incrementAndGet();
+            discard(connection);
+        }
+
+        if (!permits.tryAcquire()) {
+            // make room by closing a connection idle on another route
+            evictOldestIdle();
+            try {
+                if (!permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new IOException("No connection to " + route + " available within " + timeoutMillis + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for a connection to " + route);
+            }
+        }
+        boolean connected = false;
+        try {
+            connection = new PooledConnection(route, connector.connect());
+            connected = true;
+        } finally {
+            if (!connected) {
+                permits.release();
+            }
+        }
+        connects.incrementAndGet();
+        return connection;
+    }
+
+    /**
+     * @param reusable false if the connection is in an unknown state or the server is closing it.
+     */
+    public void release(PooledConnection connection, boolean reusable) {
+        long now = System.nanoTime();
+        connection.touch(now);
+        boolean kept = false;
+        if (reusable) {
+            synchronized (this) {
+                if (!closed && idleCount < maxIdle) {
+                    Deque<PooledConnection> connections = idle.get(connection.getRoute());
+                    if (connections == null) {
+                        connections = new ArrayDeque<PooledConnection>();
+                        idle.put(connection.getRoute(), connections);
+                    }
+                    connections.addFirst(connection);
+                    idleCount++;
+                    kept = true;
+                }
+            }
+        }
+        if (!kept) {
+            discard(connection);
+        }
+        evictExpired(now);
+    }
+
+    /**
+     * Closes the idle connections; connections in use are closed when released.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        evictIdle(removeIdle(0, true));
+    }
+
+    /**
+     * @return number of connections opened, each one a TCP and, for HTTPS, a TLS handshake.
+     */
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    /**
+     * @return number of times an idle connection was handed out again.
+     */
+    public long getReuseCount() {
+        return reuses.get();
+    }
+
+    /**
+     * @return number of idle connections found closed by the server when about to be reused.
+     */
+    public long getStaleCount() {
+        return staleCount.get();
+    }
+
+    /**
+     * @return number of idle connections closed because they were idle for too long.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public synchronized int getIdleCount() {
+        return idleCount;
+    }
+
+    private synchronized PooledConnection pollIdle(String route) {
+        Deque<PooledConnection> connections = idle.get(route);
+        if (connections == null || connections.isEmpty()) {
+            return null;
+        }
+        idleCount--;
+        return connections.pollFirst();
+    }
+
+    private void evictExpired(long now) {
+        evictIdle(removeIdle(now, false));
+    }
+
+    private void evictIdle(Deque<PooledConnection> connections) {
+        for (PooledConnection connection : connections) {
+            evictions.incrementAndGet();
+            discard(connection);
+        }
+    }
+
+    private synchronized Deque<PooledConnection> removeIdle(long now, boolean all) {
+        Deque<PooledConnection> expired = new ArrayDeque<PooledConnection>();
+        for (Deque<PooledConnection> connections : idle.values()) {
+            // the least recently used ones are at the end
+            for (Iterator<PooledConnection> it = connections.descendingIterator(); it.hasNext();) {
+                PooledConnection connection = it.next();
+                if (!all && now - connection.getLastUsedNanos() < idleTimeoutNanos) {
+                    break;
+                }
+                it.remove();
+                idleCount--;
+                expired.add(connection);
+            }
+        }
+        return expired;
+    }
+
+    private void evictOldestIdle() {
+        PooledConnection oldest = null;
+        synchronized (this) {
+            Deque<PooledConnection> oldestRoute = null;
+            for (Deque<PooledConnection> connections : idle.values()) {
+                PooledConnection candidate = connections.peekLast();
+                if (candidate != null && (oldest == null || candidate.getLastUsedNanos() < oldest.getLastUsedNanos())) {
+                    oldest = candidate;
+                    oldestRoute = connections;
+                }
+            }
+            if (oldest == null) {
+                return;
+            }
+            oldestRoute.pollLast();
+            idleCount--;
+        }
+        evictions.incrementAndGet();
+        discard(oldest);
+    }
+
+    private void discard(PooledConnection connection) {
+        connection.closeQuietly();
+        permits.release();
+    }
+}
@@ -0,0 +1,71 @@
+package com.tapstream.rollbar.transport;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resolves host names once per {@code ttlMillis} instead of once per connection. Should resolving a host again
+ * fail, the address it last resolved to keeps being used until it resolves again, a DNS outage being no reason
+ * to stop reaching a server that did not move.
+ * <p>
+ * Sits on top of the JVM's own cache, whose TTL is set by the {@code networkaddress.cache.ttl} security property.
+ */
+public class DnsCache {
+    private final long ttlNanos;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final AtomicLong lookups = new AtomicLong();
+
+    /**
+     * @param ttlMillis how long an address is used before its host is resolved again, 0 to resolve it every time.
+     */
+    public DnsCache(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("Negative TTL: " + ttlMillis);
+        }
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+    }
+
+    public InetAddress resolve(String host) throws UnknownHostException {
+        long now = System.nanoTime();
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(host);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(host, entry);
+            }
+        }
+        // one lookup at a time per host, the others wait for its result
+        synchronized (entry) {
+            if (entry.address != null && now - entry.resolvedNanos < ttlNanos) {
+                return entry.address;
+            }
+            lookups.incrementAndGet();
+            try {
+                entry.address = InetAddress.getByName(host);
+                entry.resolvedNanos = System.nanoTime();
+            } catch (UnknownHostException e) {
+                if (entry.address == null) {
+                    throw e;
+                }
+            }
+            return entry.address;
+        }
+    }
+
+    /**
+     * @return number of times a host was actually resolved.
+     */
+    public long getLookupCount() {
+        return lookups.get();
+    }
+
+    private static class Entry {
+        InetAddress address;
+        long resolvedNanos;
+    }
+}
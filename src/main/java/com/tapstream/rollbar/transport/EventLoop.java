@@ -0,0 +1,367 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One thread selecting over the connections of a share of a {@link NioClient}'s exchanges. Everything but
+ * {@link #submit(Exchange)} and {@link #shutdown()} happens on that thread, so connections and the pool of idle
+ * ones need no locking.
+ * <p>
+ * An exchange goes over an idle connection to its endpoint if there is one, over a new connection if fewer than
+ * {@code maxConnections} are open, or else waits for one of them to be done. Timeouts and idle connections are
+ * checked every {@link #TICK_MILLIS} while there are any.
+ */
+final class EventLoop implements Runnable {
+    static final long TICK_MILLIS = 50;
+
+    private final NioClient client;
+    private final int maxConnections;
+    private final int maxIdleConnections;
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<Exchange> submitted = new ConcurrentLinkedQueue<Exchange>();
+    /** Exchanges submitted and not done yet. */
+    private final AtomicInteger load = new AtomicInteger();
+    private volatile boolean running = true;
+
+    /** Exchanges waiting for a connection, oldest first. */
+    private final Deque<Exchange> waiting = new ArrayDeque<Exchange>();
+    /** Idle connections per route, most recently used first. */
+    private final Map<String, Deque<NioConnection>> idle = new HashMap<String, Deque<NioConnection>>();
+    private final Set<NioConnection> busy = new HashSet<NioConnection>();
+    private int openCount;
+    private int idleCount;
+    private long nextCheckNanos;
+
+    EventLoop(NioClient client, String name, int maxConnections, int maxIdleConnections) throws IOException {
+        this.client = client;
+        this.maxConnections = maxConnections;
+        this.maxIdleConnections = maxIdleConnections;
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Hands the exchange over to the loop's thread. Fails it right away if the loop was shut down.
+     */
+    void submit(Exchange exchange) {
+        load.incrementAndGet();
+        submitted.add(exchange);
+        if (running) {
+            selector.wakeup();
+        } else {
+            failSubmitted();
+        }
+    }
+
+    int getLoad() {
+        return load.get();
+    }
+
+    /**
+     * Stops the loop, failing the exchanges still in progress, and waits for its thread to be done.
+     */
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (running) {
+                boolean pending = !busy.isEmpty() || !waiting.isEmpty() || idleCount > 0;
+                selector.select(pending ? TICK_MILLIS : 0);
+                processSelected();
+                Exchange exchange;
+                while ((exchange = submitted.poll()) != null) {
+                    dispatch(exchange);
+                }
+                long now = System.nanoTime();
+                if (now - nextCheckNanos >= 0) {
+                    expire(now);
+                    nextCheckNanos = now + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+                }
+            }
+        } catch (IOException e) {
+            // the selector failed, nothing more can be sent from this loop
+            running = false;
+        } finally {
+            closeAll();
+        }
+    }
+
+    private void processSelected() {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            NioConnection connection = (NioConnection) key.attachment();
+            try {
+                connection.onReady();
+            } catch (IOException e) {
+                onFailure(connection, e);
+            } catch (CancelledKeyException e) {
+                // closed while selected
+            }
+        }
+    }
+
+    private void dispatch(Exchange exchange) {
+        if (exchange.isExpired(System.nanoTime())) {
+            fail(exchange, timeout(exchange));
+            return;
+        }
+        NioConnection connection = exchange.retried ? null : pollIdle(exchange.route);
+        if (connection != null) {
+            client.reuses.incrementAndGet();
+            busy.add(connection);
+            try {
+                connection.reuse(exchange);
+            } catch (IOException e) {
+                onFailure(connection, e);
+            }
+            return;
+        }
+        if (openCount >= maxConnections) {
+            // make room by closing a connection idle on another route
+            closeOldestIdle();
+        }
+        if (openCount >= maxConnections) {
+            waiting.add(exchange);
+            client.queued.incrementAndGet();
+            return;
+        }
+        try {
+            connection = NioConnection.open(this, selector, exchange, client.sslContext());
+        } catch (IOException e) {
+            fail(exchange, e);
+            return;
+        }
+        openCount++;
+        client.connects.incrementAndGet();
+        busy.add(connection);
+    }
+
+    /**
+     * Called by a connection once the response to its exchange was read.
+     */
+    void onResponse(NioConnection connection, Exchange exchange, Http11.Response response, boolean reusable) {
+        busy.remove(connection);
+        if (reusable && idleCount < maxIdleConnections && running) {
+            Deque<NioConnection> connections = idle.get(connection.route);
+            if (connections == null) {
+                connections = new ArrayDeque<NioConnection>();
+                idle.put(connection.route, connections);
+            }
+            connections.addFirst(connection);
+            idleCount++;
+        } else {
+            close(connection);
+        }
+        load.decrementAndGet();
+        try {
+            exchange.listener.onResponse(response);
+        } catch (RuntimeException e) {
+            // the listener's own problem, it must not stop the loop
+        }
+        dispatchWaiting();
+    }
+
+    /**
+     * Called by an idle connection the server closed.
+     */
+    void onIdleClosed(NioConnection connection) {
+        Deque<NioConnection> connections = idle.get(connection.route);
+        if (connections != null && connections.remove(connection)) {
+            idleCount--;
+            if (connections.isEmpty()) {
+                idle.remove(connection.route);
+            }
+        }
+        client.stale.incrementAndGet();
+        close(connection);
+        dispatchWaiting();
+    }
+
+    private void onFailure(NioConnection connection, IOException e) {
+        Exchange exchange = connection.getExchange();
+        if (exchange == null) {
+            onIdleClosed(connection);
+            return;
+        }
+        boolean retry = connection.isRetryable() && !exchange.retried;
+        busy.remove(connection);
+        close(connection);
+        if (retry) {
+            // the server closed the connection before this exchange got there, which never processed it
+            client.stale.incrementAndGet();
+            exchange.retried = true;
+            dispatch(exchange);
+        } else {
+            fail(exchange, e);
+        }
+        dispatchWaiting();
+    }
+
+    private void dispatchWaiting() {
+        while (!waiting.isEmpty() && (openCount < maxConnections || idleCount > 0)) {
+            client.queued.decrementAndGet();
+            dispatch(waiting.poll());
+        }
+    }
+
+    private NioConnection pollIdle(String route) {
+        Deque<NioConnection> connections = idle.get(route);
+        if (connections == null) {
+            return null;
+        }
+        NioConnection connection = connections.pollFirst();
+        idleCount--;
+        if (connections.isEmpty()) {
+            idle.remove(route);
+        }
+        return connection;
+    }
+
+    private void closeOldestIdle() {
+        NioConnection oldest = null;
+        for (Deque<NioConnection> connections : idle.values()) {
+            NioConnection last = connections.peekLast();
+            if (oldest == null || last.getIdleSinceNanos() - oldest.getIdleSinceNanos() < 0) {
+                oldest = last;
+            }
+        }
+        if (oldest != null) {
+            Deque<NioConnection> connections = idle.get(oldest.route);
+            connections.pollLast();
+            idleCount--;
+            if (connections.isEmpty()) {
+                idle.remove(oldest.route);
+            }
+            close(oldest);
+        }
+    }
+
+    /**
+     * Fails the exchanges past their deadline and closes the connections idle for too long.
+     */
+    private void expire(long now) {
+        List<NioConnection> late = new ArrayList<NioConnection>();
+        for (NioConnection connection : busy) {
+            if (connection.getExchange().isExpired(now)) {
+                late.add(connection);
+            }
+        }
+        for (NioConnection connection : late) {
+            Exchange exchange = connection.getExchange();
+            busy.remove(connection);
+            close(connection);
+            fail(exchange, timeout(exchange));
+        }
+        for (Iterator<Exchange> exchanges = waiting.iterator(); exchanges.hasNext();) {
+            Exchange exchange = exchanges.next();
+            if (exchange.isExpired(now)) {
+                exchanges.remove();
+                client.queued.decrementAndGet();
+                fail(exchange, timeout(exchange));
+            }
+        }
+        long idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(client.idleTimeoutMillis);
+        for (Iterator<Deque<NioConnection>> routes = idle.values().iterator(); routes.hasNext();) {
+            Deque<NioConnection> connections = routes.next();
+            while (!connections.isEmpty() && now - connections.peekLast().getIdleSinceNanos() >= idleTimeoutNanos) {
+                close(connections.pollLast());
+                idleCount--;
+            }
+            if (connections.isEmpty()) {
+                routes.remove();
+            }
+        }
+        if (!late.isEmpty()) {
+            dispatchWaiting();
+        }
+    }
+
+    private static SocketTimeoutException timeout(Exchange exchange) {
+        return new SocketTimeoutException("No response from " + exchange.route + " within " + exchange.timeoutMillis
+                        + " ms");
+    }
+
+    private void close(NioConnection connection) {
+        if (connection.close()) {
+            openCount--;
+        }
+    }
+
+    private void fail(Exchange exchange, IOException e) {
+        load.decrementAndGet();
+        try {
+            exchange.listener.onFailure(e);
+        } catch (RuntimeException listenerFailure) {
+            // the listener's own problem, it must not stop the loop
+        }
+    }
+
+    private void failSubmitted() {
+        Exchange exchange;
+        while ((exchange = submitted.poll()) != null) {
+            fail(exchange, new IOException("Client closed"));
+        }
+    }
+
+    private void closeAll() {
+        IOException closed = new IOException("Client closed");
+        for (NioConnection connection : new ArrayList<NioConnection>(busy)) {
+            Exchange exchange = connection.getExchange();
+            close(connection);
+            fail(exchange, closed);
+        }
+        busy.clear();
+        for (Exchange exchange : waiting) {
+            client.queued.decrementAndGet();
+            fail(exchange, closed);
+        }
+        waiting.clear();
+        for (Deque<NioConnection> connections : idle.values()) {
+            for (NioConnection connection : connections) {
+                close(connection);
+            }
+        }
+        idle.clear();
+        idleCount = 0;
+        failSubmitted();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
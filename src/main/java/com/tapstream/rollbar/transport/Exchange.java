@@ -0,0 +1,39 @@
+package com.tapstream.rollbar.transport;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A request on its way through an {@link EventLoop}, from the moment it is submitted until its listener is told
+ * how it went.
+ */
+final class Exchange {
+    final String route;
+    final String host;
+    final InetSocketAddress address;
+    final boolean secure;
+    final ByteBuffer[] request;
+    final String method;
+    final long timeoutMillis;
+    final long deadlineNanos;
+    final NioClient.Listener listener;
+    /** Sent again on a new connection after the idle one it was first sent over turned out closed. */
+    boolean retried;
+
+    Exchange(String host, InetSocketAddress address, boolean secure, ByteBuffer[] request, String method,
+                    long timeoutMillis, NioClient.Listener listener) {
+        this.route = (secure ? "https://" : "http://") + host + ":" + address.getPort();
+        this.host = host;
+        this.address = address;
+        this.secure = secure;
+        this.request = request;
+        this.method = method;
+        this.timeoutMillis = timeoutMillis;
+        this.deadlineNanos = System.nanoTime() + timeoutMillis * 1000000L;
+        this.listener = listener;
+    }
+
+    boolean isExpired(long nowNanos) {
+        return nowNanos - deadlineNanos >= 0;
+    }
+}
@@ -0,0 +1,314 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The parts of HTTP/1.1 a client sending items needs: writing a request head, chunking a body of unknown length
+ * and reading a response to its end, so the connection can carry the next exchange.
+ */
+public final class Http11 {
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+    static final int MAX_LINE_LENGTH = 8192;
+    static final int MAX_HEADERS = 256;
+    /** Bytes of a response body kept, Rollbar's answers are a few dozen bytes; the rest is discarded. */
+    public static final int MAX_BODY_LENGTH = 16 * 1024;
+
+    private Http11() {
+    }
+
+    /**
+     * Status, headers and body, its first {@link #MAX_BODY_LENGTH} bytes, of a response read to its end.
+     */
+    public static final class Response {
+        private final int statusCode;
+        private final Map<String, String> headers;
+        private final byte[] body;
+        private final boolean keepAlive;
+
+        Response(int statusCode, Map<String, String> headers, byte[] body, boolean keepAlive) {
+            this.statusCode = statusCode;
+            this.headers = headers;
+            this.body = body;
+            this.keepAlive = keepAlive;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return the first value of each header, by name as sent.
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+        /**
+         * @return whether the connection can carry another exchange.
+         */
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+    }
+
+    /**
+     * @param contentLength length of the body, -1 to send it chunked.
+     */
+    public static void writeHead(OutputStream out, String method, String target, String host, Map<String, String> headers,
+                    long contentLength) throws IOException {
+        StringBuilder head = new StringBuilder(256);
+        head.append(method).append(' ').append(target).append(" HTTP/1.1\r\n");
+        head.append("Host: ").append(host).append("\r\n");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        if (contentLength >= 0) {
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+        } else {
+            head.append("Transfer-Encoding: chunked\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes(ASCII));
+    }
+
+    /**
+     * @return a stream writing chunks to the target; closing it writes the last chunk but leaves the target open.
+     */
+    public static OutputStream chunked(OutputStream out) {
+        return new ChunkedOutputStream(out);
+    }
+
+    /**
+     * Reads the response to the request, skipping interim 1xx responses, and keeps the beginning of its body.
+     */
+    public static Response readResponse(InputStream in, String method) throws IOException {
+        for (;;) {
+            String statusLine = readLine(in);
+            int statusCode = statusCode(statusLine);
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            String line;
+            while (!(line = readLine(in)).isEmpty()) {
+                addHeader(headers, line);
+            }
+            if (isInterim(statusCode)) {
+                continue;
+            }
+
+            boolean keepAlive = isKeepAlive(statusLine, headers);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            switch (bodyOf(method, statusCode, headers)) {
+            case NONE:
+                return new Response(statusCode, headers, body.toByteArray(), keepAlive && statusCode != 101);
+            case CHUNKED:
+                readChunked(in, body);
+                break;
+            case CONTENT_LENGTH:
+                read(in, contentLength(headers), body);
+                break;
+            default:
+                // the body ends with the connection
+                read(in, Long.MAX_VALUE, body);
+                keepAlive = false;
+            }
+            return new Response(statusCode, headers, body.toByteArray(), keepAlive);
+        }
+    }
+
+    /**
+     * How the end of a response body is found.
+     */
+    enum Body {
+        NONE, CHUNKED, CONTENT_LENGTH, UNTIL_CLOSE
+    }
+
+    static Body bodyOf(String method, int statusCode, Map<String, String> headers) {
+        if (method.equals("HEAD") || statusCode == 204 || statusCode == 304 || statusCode < 200) {
+            return Body.NONE;
+        }
+        String transferEncoding = header(headers, "Transfer-Encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().endsWith("chunked")) {
+            return Body.CHUNKED;
+        }
+        return header(headers, "Content-Length") != null ? Body.CONTENT_LENGTH : Body.UNTIL_CLOSE;
+    }
+
+    static int statusCode(String statusLine) throws IOException {
+        String[] parts = statusLine.split(" ", 3);
+        if (parts.length < 2 || !parts[0].startsWith("HTTP/1.")) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+        try {
+            return Integer.parseInt(parts[1]);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid status line: " + statusLine);
+        }
+    }
+
+    /**
+     * @return whether the response is a 1xx one followed by the actual response.
+     */
+    static boolean isInterim(int statusCode) {
+        return statusCode >= 100 && statusCode < 200 && statusCode != 101;
+    }
+
+    static boolean isKeepAlive(String statusLine, Map<String, String> headers) {
+        String connection = header(headers, "Connection");
+        return statusLine.startsWith("HTTP/1.1 ") ? !"close".equalsIgnoreCase(connection)
+                        : "keep-alive".equalsIgnoreCase(connection);
+    }
+
+    /**
+     * Adds a header line to the headers unless one of the same name came first.
+     */
+    static void addHeader(Map<String, String> headers, String line) throws IOException {
+        if (headers.size() == MAX_HEADERS) {
+            throw new IOException("Too many headers");
+        }
+        int colon = line.indexOf(':');
+        if (colon <= 0) {
+            throw new IOException("Invalid header: " + line);
+        }
+        String name = line.substring(0, colon).trim();
+        if (header(headers, name) == null) {
+            headers.put(name, line.substring(colon + 1).trim());
+        }
+    }
+
+    static long contentLength(Map<String, String> headers) throws IOException {
+        String contentLength = header(headers, "Content-Length");
+        try {
+            long length = Long.parseLong(contentLength.trim());
+            if (length < 0) {
+                throw new NumberFormatException();
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + contentLength);
+        }
+    }
+
+    static long chunkSize(String line) throws IOException {
+        int extension = line.indexOf(';');
+        try {
+            return Long.parseLong((extension < 0 ? line : line.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid chunk size: " + line);
+        }
+    }
+
+    private static String header(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (header.getKey().equalsIgnoreCase(name)) {
+                return header.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Adds what still fits of the bytes to the body kept.
+     */
+    static void keep(ByteArrayOutputStream body, byte[] bytes, int offset, int length) {
+        body.write(bytes, offset, Math.min(length, MAX_BODY_LENGTH - body.size()));
+    }
+
+    private static void readChunked(InputStream in, ByteArrayOutputStream body) throws IOException {
+        for (;;) {
+            long size = chunkSize(readLine(in));
+            if (size == 0) {
+                // trailers
+                while (!readLine(in).isEmpty()) {
+                    // discard
+                }
+                return;
+            }
+            read(in, size, body);
+            if (!readLine(in).isEmpty()) {
+                throw new IOException("Missing chunk terminator");
+            }
+        }
+    }
+
+    /**
+     * @param count number of bytes to read, {@link Long#MAX_VALUE} to read until the end of the stream.
+     */
+    private static void read(InputStream in, long count, ByteArrayOutputStream body) throws IOException {
+        byte[] buffer = new byte[512];
+        while (count > 0) {
+            int read = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (read < 0) {
+                if (count == Long.MAX_VALUE) {
+                    return;
+                }
+                throw new EOFException("Premature end of response body");
+            }
+            keep(body, buffer, 0, read);
+            count -= read;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (;;) {
+            int c = in.read();
+            if (c < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() == MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+            line.append((char) c);
+        }
+    }
+
+    private static final class ChunkedOutputStream extends FilterOutputStream {
+        private static final byte[] CRLF = { '\r', '\n' };
+        private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+        ChunkedOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                // an empty chunk would end the body
+                return;
+            }
+            out.write(Integer.toHexString(len).getBytes(ASCII));
+            out.write(CRLF);
+            out.write(b, off, len);
+            out.write(CRLF);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+    }
+}
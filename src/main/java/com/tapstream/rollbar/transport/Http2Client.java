@@ -0,0 +1,229 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * The JDK's {@code java.net.http.HttpClient} (Java 11), reached by reflection as the library targets Java 7.
+ * Listeners are called on the client's threads.
+ */
+public final class Http2Client {
+    /**
+     * Told how an exchange went, exactly once.
+     */
+    public interface Listener {
+        /**
+         * @param headers the first value of each header.
+         * @param body the first {@link Http11#MAX_BODY_LENGTH} bytes of the body.
+         * @param http2 whether the response came over HTTP/2.
+         */
+        void onResponse(int statusCode, Map<String, String> headers, byte[] body, boolean http2);
+
+        void onFailure(IOException e);
+    }
+
+    /** Headers the client sets itself and refuses to be given. */
+    private static final Set<String> RESTRICTED_HEADERS = new HashSet<String>(Arrays.asList("connection",
+                    "content-length", "expect", "host", "upgrade"));
+
+    private final Object client;
+    private final Method sendAsync;
+    private final Object bodyHandler;
+    private final Method newRequestBuilder;
+    private final Method requestMethod;
+    private final Method requestHeader;
+    private final Method requestTimeout;
+    private final Method buildRequest;
+    private final Method ofByteArray;
+    private final Method ofMillis;
+    private final Method whenComplete;
+    private final Class<?> biConsumer;
+    private final Method statusCode;
+    private final Method responseBody;
+    private final Method responseHeaders;
+    private final Method headerMap;
+    private final Method version;
+    private final Method shutdownNow;
+
+    private Http2Client(long connectTimeoutMillis, SSLContext sslContext) throws ReflectiveOperationException {
+        Class<?> clientClass = Class.forName("java.net.http.HttpClient");
+        Class<?> clientBuilder = Class.forName("java.net.http.HttpClient$Builder");
+        Class<?> versionClass = Class.forName("java.net.http.HttpClient$Version");
+        Class<?> durationClass = Class.forName("java.time.Duration");
+        Class<?> requestClass = Class.forName("java.net.http.HttpRequest");
+        Class<?> requestBuilder = Class.forName("java.net.http.HttpRequest$Builder");
+        Class<?> publisherClass = Class.forName("java.net.http.HttpRequest$BodyPublisher");
+        Class<?> handlerClass = Class.forName("java.net.http.HttpResponse$BodyHandler");
+        Class<?> responseClass = Class.forName("java.net.http.HttpResponse");
+        Class<?> futureClass = Class.forName("java.util.concurrent.CompletableFuture");
+
+        ofMillis = durationClass.getMethod("ofMillis", long.class);
+        Object builder = clientClass.getMethod("newBuilder").invoke(null);
+        clientBuilder.getMethod("version", versionClass).invoke(builder, enumConstant(versionClass, "HTTP_2"));
+        clientBuilder.getMethod("connectTimeout", durationClass).invoke(builder, ofMillis.invoke(null, connectTimeoutMillis));
+        if (sslContext != null) {
+            clientBuilder.getMethod("sslContext", SSLContext.class).invoke(builder, sslContext);
+        }
+        client = clientBuilder.getMethod("build").invoke(builder);
+
+        sendAsync = clientClass.getMethod("sendAsync", requestClass, handlerClass);
+        bodyHandler = Class.forName("java.net.http.HttpResponse$BodyHandlers").getMethod("ofByteArray").invoke(null);
+        newRequestBuilder = requestClass.getMethod("newBuilder", URI.class);
+        requestMethod = requestBuilder.getMethod("method", String.class, publisherClass);
+        requestHeader = requestBuilder.getMethod("header", String.class, String.class);
+        requestTimeout = requestBuilder.getMethod("timeout", durationClass);
+        buildRequest = requestBuilder.getMethod("build");
+        ofByteArray = Class.forName("java.net.http.HttpRequest$BodyPublishers").getMethod("ofByteArray", byte[].class);
+        biConsumer = Class.forName("java.util.function.BiConsumer");
+        whenComplete = futureClass.getMethod("whenComplete", biConsumer);
+        statusCode = responseClass.getMethod("statusCode");
+        responseBody = responseClass.getMethod("body");
+        responseHeaders = responseClass.getMethod("headers");
+        headerMap = Class.forName("java.net.http.HttpHeaders").getMethod("map");
+        version = responseClass.getMethod("version");
+        shutdownNow = shutdownMethod(clientClass);
+    }
+
+    private static Method shutdownMethod(Class<?> clientClass) {
+        try {
+            return clientClass.getMethod("shutdownNow");
+        } catch (NoSuchMethodException e) {
+            // not before Java 21
+            return null;
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static Object enumConstant(Class<?> enumClass, String name) {
+        return Enum.valueOf((Class) enumClass, name);
+    }
+
+    /**
+     * @param sslContext context of the HTTPS connections, the JVM's default one if null.
+     * @return null if the running JVM has no HTTP/2 client.
+     */
+    public static Http2Client create(long connectTimeoutMillis, SSLContext sslContext) {
+        try {
+            return new Http2Client(connectTimeoutMillis, sslContext);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sends the request and tells the listener how it went.
+     *
+     * @param timeoutMillis time the server may take to answer once the request is sent.
+     */
+    public void send(URI uri, String method, Map<String, String> headers, byte[] body, long timeoutMillis,
+                    final Listener listener) {
+        Object future;
+        try {
+            Object builder = newRequestBuilder.invoke(null, uri);
+            requestMethod.invoke(builder, method, ofByteArray.invoke(null, body == null ? new byte[0] : body));
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase())) {
+                    requestHeader.invoke(builder, header.getKey(), header.getValue());
+                }
+            }
+            requestTimeout.invoke(builder, ofMillis.invoke(null, timeoutMillis));
+            future = sendAsync.invoke(client, buildRequest.invoke(builder), bodyHandler);
+        } catch (InvocationTargetException e) {
+            listener.onFailure(toIOException(e.getCause()));
+            return;
+        } catch (IllegalAccessException e) {
+            listener.onFailure(new IOException("HTTP client unavailable", e));
+            return;
+        }
+
+        Object callback = Proxy.newProxyInstance(Http2Client.class.getClassLoader(), new Class<?>[] { biConsumer },
+                        new InvocationHandler() {
+                            @Override
+                            public Object invoke(Object proxy, Method invoked, Object[] args) {
+                                if (invoked.getName().equals("accept")) {
+                                    complete(args[0], (Throwable) args[1], listener);
+                                    return null;
+                                }
+                                if (invoked.getName().equals("equals")) {
+                                    return proxy == args[0];
+                                }
+                                if (invoked.getName().equals("hashCode")) {
+                                    return System.identityHashCode(proxy);
+                                }
+                                return "Http2Client callback";
+                            }
+                        });
+        try {
+            whenComplete.invoke(future, callback);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            listener.onFailure(new IOException("HTTP client unavailable", e));
+        }
+    }
+
+    private void complete(Object response, Throwable failure, Listener listener) {
+        if (failure != null) {
+            listener.onFailure(toIOException(failure));
+            return;
+        }
+        int status;
+        Map<String, String> headers = new LinkedHashMap<String, String>();
+        byte[] body;
+        boolean http2;
+        try {
+            status = (Integer) statusCode.invoke(response);
+            Map<?, ?> values = (Map<?, ?>) headerMap.invoke(responseHeaders.invoke(response));
+            for (Map.Entry<?, ?> header : values.entrySet()) {
+                List<?> list = (List<?>) header.getValue();
+                if (!list.isEmpty()) {
+                    headers.put((String) header.getKey(), (String) list.get(0));
+                }
+            }
+            body = (byte[]) responseBody.invoke(response);
+            if (body.length > Http11.MAX_BODY_LENGTH) {
+                body = Arrays.copyOf(body, Http11.MAX_BODY_LENGTH);
+            }
+            http2 = ((Enum<?>) version.invoke(response)).name().equals("HTTP_2");
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            listener.onFailure(new IOException("Unreadable response", e));
+            return;
+        }
+        listener.onResponse(status, headers, body, http2);
+    }
+
+    /**
+     * Unwraps what the client's futures wrap its {@link IOException}s in, timeouts and refused connections included.
+     */
+    private static IOException toIOException(Throwable failure) {
+        Throwable cause = failure;
+        while (cause.getCause() != null && !(cause instanceof IOException)) {
+            cause = cause.getCause();
+        }
+        return cause instanceof IOException ? (IOException) cause : new IOException(failure);
+    }
+
+    /**
+     * Closes the connections where the client can be shut down (Java 21).
+     */
+    public void close() {
+        if (shutdownNow == null) {
+            return;
+        }
+        try {
+            shutdownNow.invoke(client);
+        } catch (InvocationTargetException | IllegalAccessException e) {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+
+/**
+ * Sends requests over non-blocking connections, a few event loop threads keeping any number of them in flight.
+ * Each thread selects over its share of the connections. An exchange goes to the thread with the fewest in
+ * flight, so exchanges made one after another find the connection the previous one left idle, while many at
+ * once are spread over all threads.
+ * <p>
+ * At most {@code maxConnections} connections are open at once, and at most {@code maxIdleConnections} kept open
+ * between exchanges, for {@code idleTimeoutMillis} at most. Further exchanges wait for a connection, up to about
+ * {@code maxQueuedRequests} of them; beyond that they fail right away.
+ * <p>
+ * Listeners are called on the loop threads, and must not block them. A request that fails before reaching a loop
+ * is reported on the calling thread. Hosts are resolved on the calling thread too, through the {@link DnsCache}.
+ */
+public class NioClient implements Closeable {
+    /**
+     * Told how an exchange went, exactly once.
+     */
+    public interface Listener {
+        void onResponse(Http11.Response response);
+
+        void onFailure(IOException e);
+    }
+
+    private final EventLoop[] loops;
+    private final int maxQueuedRequests;
+    final long idleTimeoutMillis;
+    private final DnsCache dns;
+    private final SSLContext configuredSslContext;
+    private SSLContext sslContext;
+    private volatile boolean closed;
+    final AtomicLong connects = new AtomicLong();
+    final AtomicLong reuses = new AtomicLong();
+    final AtomicLong stale = new AtomicLong();
+    final AtomicInteger queued = new AtomicInteger();
+
+    /**
+     * @param sslContext context of the HTTPS connections, the JVM's default one if null.
+     */
+    public NioClient(String name, int threads, int maxConnections, int maxIdleConnections, long idleTimeoutMillis,
+                    int maxQueuedRequests, SSLContext sslContext, DnsCache dns) throws IOException {
+        if (threads < 1 || maxConnections < threads || maxIdleConnections < 0 || maxIdleConnections > maxConnections) {
+            throw new IllegalArgumentException("Invalid client size: " + threads + " threads, " + maxIdleConnections
+                            + " idle of " + maxConnections + " connections");
+        }
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.configuredSslContext = sslContext;
+        this.dns = dns;
+        this.loops = new EventLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            // the connections are shared out, the first loops get what does not divide evenly
+            loops[i] = new EventLoop(this, name + "-" + i, share(maxConnections, threads, i),
+                            share(maxIdleConnections, threads, i));
+        }
+        for (EventLoop loop : loops) {
+            loop.start();
+        }
+    }
+
+    private static int share(int total, int parts, int part) {
+        return total / parts + (part < total % parts ? 1 : 0);
+    }
+
+    /**
+     * Sends the request, its head and body already encoded, and tells the listener how it went.
+     *
+     * @param request buffers written in turn with gathering writes, the head then the body.
+     * @param timeoutMillis time the whole exchange may take, waiting for a connection included.
+     */
+    public void execute(String host, int port, boolean secure, ByteBuffer[] request, String method, long timeoutMillis,
+                    Listener listener) {
+        if (closed) {
+            listener.onFailure(new IOException("Client closed"));
+            return;
+        }
+        if (queued.get() >= maxQueuedRequests) {
+            listener.onFailure(new IOException("Too many requests waiting for a connection: " + queued.get()));
+            return;
+        }
+        InetSocketAddress address;
+        try {
+            address = new InetSocketAddress(dns.resolve(host), port);
+        } catch (UnknownHostException e) {
+            listener.onFailure(e);
+            return;
+        }
+        Exchange exchange = new Exchange(host, address, secure, request, method, timeoutMillis, listener);
+        leastLoaded().submit(exchange);
+    }
+
+    private EventLoop leastLoaded() {
+        EventLoop least = loops[0];
+        for (int i = 1; i < loops.length && least.getLoad() > 0; i++) {
+            if (loops[i].getLoad() < least.getLoad()) {
+                least = loops[i];
+            }
+        }
+        return least;
+    }
+
+    /**
+     * Resolves the host and, for HTTPS, completes a TLS handshake over a blocking connection closed right away, so
+     * that the first connection to the endpoint resumes its session. Blocks until done.
+     */
+    public void warmUp(String host, int port, boolean secure, int timeoutMillis) throws IOException {
+        InetAddress address = dns.resolve(host);
+        if (secure) {
+            Sockets.handshake(address, host, port, sslContext().getSocketFactory(), timeoutMillis);
+        }
+    }
+
+    /**
+     * Closes the connections and fails the exchanges still in progress.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * @return number of connections opened, each one a TCP and, for HTTPS, a TLS handshake.
+     */
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    /**
+     * @return number of exchanges made over a connection kept open after an earlier one.
+     */
+    public long getReuseCount() {
+        return reuses.get();
+    }
+
+    /**
+     * @return number of idle connections found closed by the server.
+     */
+    public long getStaleCount() {
+        return stale.get();
+    }
+
+    /**
+     * @return number of exchanges waiting for a connection.
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * Called by the loops only, the default context is looked up once it is needed.
+     */
+    synchronized SSLContext sslContext() throws IOException {
+        if (sslContext == null) {
+            try {
+                sslContext = configuredSslContext != null ? configuredSslContext : SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("No default TLS context", e);
+            }
+        }
+        return sslContext;
+    }
+}
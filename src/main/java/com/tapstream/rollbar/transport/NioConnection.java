@@ -0,0 +1,423 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A non-blocking connection carrying one exchange at a time, driven by its {@link EventLoop} whenever the channel
+ * is ready. HTTPS goes through an {@link SSLEngine}, whose records are read into and written from buffers of the
+ * connection.
+ */
+final class NioConnection {
+    private enum State {
+        CONNECTING, HANDSHAKING, WRITING, READING, IDLE, CLOSED
+    }
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    final String route;
+    private final EventLoop loop;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final SSLEngine engine;
+    /** Records read but not yet decrypted, only used over TLS. */
+    private ByteBuffer netIn;
+    /** Records encrypted but not yet written, only used over TLS. */
+    private ByteBuffer netOut;
+    /** Response bytes not yet parsed. */
+    private ByteBuffer appIn;
+    private State state = State.CONNECTING;
+    private Exchange exchange;
+    private ByteBuffer[] request;
+    private ResponseParser parser;
+    private boolean reused;
+    private long idleSinceNanos;
+
+    private NioConnection(EventLoop loop, String route, SocketChannel channel, Selector selector, SSLEngine engine)
+                    throws IOException {
+        this.loop = loop;
+        this.route = route;
+        this.channel = channel;
+        this.engine = engine;
+        if (engine == null) {
+            appIn = ByteBuffer.allocate(8192);
+        } else {
+            netIn = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+        this.key = channel.register(selector, 0, this);
+    }
+
+    /**
+     * Starts connecting to the exchange's endpoint; the exchange is sent once connected.
+     */
+    static NioConnection open(EventLoop loop, Selector selector, Exchange exchange, SSLContext sslContext)
+                    throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        NioConnection connection;
+        try {
+            channel.configureBlocking(false);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection = new NioConnection(loop, exchange.route, channel, selector,
+                            exchange.secure ? newEngine(sslContext, exchange.host, exchange.address) : null);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        connection.exchange(exchange);
+        try {
+            if (channel.connect(exchange.address)) {
+                connection.onConnected();
+            } else {
+                connection.interest(SelectionKey.OP_CONNECT);
+            }
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+        return connection;
+    }
+
+    private static SSLEngine newEngine(SSLContext sslContext, String host, InetSocketAddress address) {
+        SSLEngine engine = sslContext.createSSLEngine(host, address.getPort());
+        engine.setUseClientMode(true);
+        SSLParameters parameters = engine.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        engine.setSSLParameters(parameters);
+        return engine;
+    }
+
+    /**
+     * Sends another exchange over this idle connection.
+     */
+    void reuse(Exchange exchange) throws IOException {
+        reused = true;
+        this.exchange(exchange);
+        state = State.WRITING;
+        write();
+    }
+
+    private void exchange(Exchange exchange) {
+        this.exchange = exchange;
+        this.request = new ByteBuffer[exchange.request.length];
+        for (int i = 0; i < request.length; i++) {
+            request[i] = exchange.request[i].duplicate();
+        }
+        this.parser = new ResponseParser(exchange.method);
+    }
+
+    Exchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * @return whether the exchange failing now could not have been processed by the server: it went over a
+     * connection kept from an earlier one, which the server may have closed in the meantime, and no response to it
+     * was received.
+     */
+    boolean isRetryable() {
+        return reused && parser != null && !parser.hasStarted();
+    }
+
+    long getIdleSinceNanos() {
+        return idleSinceNanos;
+    }
+
+    /**
+     * Called by the loop when the channel is ready for what the connection waits for.
+     */
+    void onReady() throws IOException {
+        switch (state) {
+        case CONNECTING:
+            if (channel.finishConnect()) {
+                onConnected();
+            }
+            break;
+        case HANDSHAKING:
+            if (handshake()) {
+                startWriting();
+            }
+            break;
+        case WRITING:
+            write();
+            break;
+        case READING:
+            read();
+            break;
+        case IDLE:
+            checkIdle();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void onConnected() throws IOException {
+        if (engine == null) {
+            startWriting();
+            return;
+        }
+        state = State.HANDSHAKING;
+        engine.beginHandshake();
+        if (handshake()) {
+            startWriting();
+        }
+    }
+
+    private void startWriting() throws IOException {
+        state = State.WRITING;
+        write();
+    }
+
+    private void write() throws IOException {
+        if (flushRequest()) {
+            state = State.READING;
+            interest(SelectionKey.OP_READ);
+        } else {
+            interest(SelectionKey.OP_WRITE);
+        }
+    }
+
+    private void read() throws IOException {
+        for (;;) {
+            int read = channel.read(engine == null ? appIn : netIn);
+            boolean more;
+            do {
+                more = engine != null && unwrap();
+                appIn.flip();
+                boolean done = parser.feed(appIn);
+                boolean leftover = appIn.hasRemaining() || (engine != null && netIn.position() > 0);
+                appIn.compact();
+                if (done) {
+                    // bytes after the response mean the server and the connection are out of step
+                    finish(parser.getResponse(), !leftover && read >= 0);
+                    return;
+                }
+            } while (more);
+            if (read < 0 || (engine != null && engine.isInboundDone())) {
+                parser.endOfStream();
+                finish(parser.getResponse(), false);
+                return;
+            }
+            if (read == 0) {
+                return;
+            }
+        }
+    }
+
+    private void finish(Http11.Response response, boolean reusable) {
+        Exchange done = exchange;
+        exchange = null;
+        request = null;
+        parser = null;
+        if (reusable) {
+            state = State.IDLE;
+            idleSinceNanos = System.nanoTime();
+        }
+        loop.onResponse(this, done, response, reusable);
+    }
+
+    /**
+     * An idle connection is only readable when the server closed it or wrote to it out of turn; either way it
+     * cannot carry another exchange. Over TLS, session tickets sent after the handshake are fine.
+     */
+    private void checkIdle() throws IOException {
+        int read = channel.read(engine == null ? appIn : netIn);
+        if (engine != null) {
+            unwrap();
+        }
+        if (read < 0 || appIn.position() > 0 || (engine != null && engine.isInboundDone())) {
+            loop.onIdleClosed(this);
+        }
+    }
+
+    private boolean flushRequest() throws IOException {
+        if (engine == null) {
+            channel.write(request);
+            return !hasRemaining(request);
+        }
+        for (;;) {
+            if (!flushNet()) {
+                return false;
+            }
+            if (!hasRemaining(request)) {
+                return true;
+            }
+            SSLEngineResult result = engine.wrap(request, netOut);
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("TLS session closed");
+            }
+        }
+    }
+
+    /**
+     * Drives the TLS handshake as far as the channel allows.
+     *
+     * @return whether the handshake is over.
+     */
+    private boolean handshake() throws IOException {
+        for (;;) {
+            if (!flushNet()) {
+                interest(SelectionKey.OP_WRITE);
+                return false;
+            }
+            switch (engine.getHandshakeStatus()) {
+            case NEED_WRAP:
+                if (engine.wrap(EMPTY, netOut).getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS handshake closed by the server");
+                }
+                break;
+            case NEED_UNWRAP:
+                netIn.flip();
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                netIn.compact();
+                if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                    throw new SSLException("TLS handshake closed by the server");
+                }
+                if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                    ensureNetInCapacity();
+                    int read = channel.read(netIn);
+                    if (read < 0) {
+                        throw new EOFException("Connection closed during the TLS handshake");
+                    }
+                    if (read == 0) {
+                        interest(SelectionKey.OP_READ);
+                        return false;
+                    }
+                }
+                break;
+            case NEED_TASK:
+                runDelegatedTasks();
+                break;
+            default:
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decrypts the records read into the response buffer, answering what the server sends after the handshake.
+     *
+     * @return whether decrypting stopped because the response buffer is full.
+     */
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        try {
+            while (netIn.hasRemaining()) {
+                SSLEngineResult result = engine.unwrap(netIn, appIn);
+                switch (result.getStatus()) {
+                case BUFFER_OVERFLOW:
+                    if (appIn.position() > 0) {
+                        return true;
+                    }
+                    appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+                    break;
+                case BUFFER_UNDERFLOW:
+                case CLOSED:
+                    return false;
+                default:
+                    break;
+                }
+                switch (result.getHandshakeStatus()) {
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                case NEED_WRAP:
+                    engine.wrap(EMPTY, netOut);
+                    flushNet();
+                    break;
+                default:
+                    break;
+                }
+            }
+            return false;
+        } finally {
+            netIn.compact();
+            ensureNetInCapacity();
+        }
+    }
+
+    private void ensureNetInCapacity() {
+        int packetSize = engine.getSession().getPacketBufferSize();
+        if (netIn.capacity() < packetSize) {
+            ByteBuffer larger = ByteBuffer.allocate(packetSize);
+            netIn.flip();
+            larger.put(netIn);
+            netIn = larger;
+        }
+    }
+
+    private void runDelegatedTasks() {
+        // key exchange computations, quick enough to run on the loop
+        Runnable task;
+        while ((task = engine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether every encrypted byte was written.
+     */
+    private boolean flushNet() throws IOException {
+        netOut.flip();
+        try {
+            channel.write(netOut);
+            return !netOut.hasRemaining();
+        } finally {
+            netOut.compact();
+        }
+    }
+
+    private void interest(int ops) {
+        key.interestOps(ops);
+    }
+
+    /**
+     * @return false if the connection was already closed.
+     */
+    boolean close() {
+        if (state == State.CLOSED) {
+            return false;
+        }
+        state = State.CLOSED;
+        key.cancel();
+        if (engine != null && channel.isConnected()) {
+            // a polite close_notify, the server does not wait for it
+            engine.closeOutbound();
+            try {
+                engine.wrap(EMPTY, netOut);
+                flushNet();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+        return true;
+    }
+}
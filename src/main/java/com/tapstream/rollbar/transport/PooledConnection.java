@@ -0,0 +1,96 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * A socket to one endpoint, with buffered streams that outlive the exchanges made over it.
+ */
+public class PooledConnection {
+    private final String route;
+    private final Socket socket;
+    private final BufferedInputStream in;
+    private final BufferedOutputStream out;
+    private long lastUsedNanos;
+
+    PooledConnection(String route, Socket socket) throws IOException {
+        this.route = route;
+        this.socket = socket;
+        this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 8192);
+        this.lastUsedNanos = System.nanoTime();
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public Socket getSocket() {
+        return socket;
+    }
+
+    public InputStream getInput() {
+        return in;
+    }
+
+    public OutputStream getOutput() {
+        return out;
+    }
+
+    long getLastUsedNanos() {
+        return lastUsedNanos;
+    }
+
+    void touch(long nowNanos) {
+        lastUsedNanos = nowNanos;
+    }
+
+    /**
+     * An idle connection the server closed reads as its end, one it wrote to out of turn has data waiting; either
+     * way it cannot carry another exchange.
+     */
+    boolean isStale() {
+        if (socket.isClosed() || socket.isInputShutdown() || socket.isOutputShutdown()) {
+            return true;
+        }
+        int timeout = -1;
+        try {
+            if (in.available() > 0) {
+                return true;
+            }
+            timeout = socket.getSoTimeout();
+            socket.setSoTimeout(1);
+            in.mark(1);
+            // either the end of the stream or data nobody asked for
+            in.read();
+            in.reset();
+            return true;
+        } catch (SocketTimeoutException e) {
+            // nothing to read, the connection is still open
+            return false;
+        } catch (IOException e) {
+            return true;
+        } finally {
+            if (timeout >= 0) {
+                try {
+                    socket.setSoTimeout(timeout);
+                } catch (IOException e) {
+                    // the next exchange fails and discards the connection
+                }
+            }
+        }
+    }
+
+    void closeQuietly() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing more to do
+        }
+    }
+}
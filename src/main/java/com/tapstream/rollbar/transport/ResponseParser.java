@@ -0,0 +1,193 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads a response as its bytes arrive, whatever pieces they come in, for a connection that cannot block waiting
+ * for the rest. Interim 1xx responses are skipped and the beginning of the body is kept, like
+ * {@link Http11#readResponse(java.io.InputStream, String)} does.
+ */
+final class ResponseParser {
+    private enum State {
+        STATUS_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, UNTIL_CLOSE, DONE
+    }
+
+    private final String method;
+    private final StringBuilder line = new StringBuilder();
+    private State state = State.STATUS_LINE;
+    private boolean started;
+    private String statusLine;
+    private int statusCode;
+    private Map<String, String> headers;
+    private long remaining;
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private Http11.Response response;
+
+    ResponseParser(String method) {
+        this.method = method;
+    }
+
+    /**
+     * Consumes bytes of the response up to its end, leaving any that follow it in the buffer.
+     *
+     * @return whether the response is complete.
+     */
+    boolean feed(ByteBuffer in) throws IOException {
+        if (in.hasRemaining()) {
+            started = true;
+        }
+        while (state != State.DONE && in.hasRemaining()) {
+            switch (state) {
+            case BODY:
+            case CHUNK_DATA:
+                int read = (int) Math.min(remaining, in.remaining());
+                keep(in, read);
+                remaining -= read;
+                if (remaining == 0 && state == State.BODY) {
+                    done(Http11.isKeepAlive(statusLine, headers));
+                } else if (remaining == 0) {
+                    state = State.CHUNK_END;
+                }
+                break;
+            case UNTIL_CLOSE:
+                keep(in, in.remaining());
+                break;
+            default:
+                if (readLine(in)) {
+                    onLine(line.toString());
+                    line.setLength(0);
+                }
+            }
+        }
+        return state == State.DONE;
+    }
+
+    /**
+     * Tells the parser the server closed the connection.
+     *
+     * @return whether that ends the response, when its body is only delimited by the connection.
+     * @throws EOFException if the response is incomplete.
+     */
+    boolean endOfStream() throws EOFException {
+        if (state == State.UNTIL_CLOSE) {
+            done(false);
+            return true;
+        }
+        if (state != State.DONE) {
+            throw new EOFException(started ? "Premature end of response" : "Connection closed by the server");
+        }
+        return true;
+    }
+
+    /**
+     * @return whether any byte of the response was received.
+     */
+    boolean hasStarted() {
+        return started;
+    }
+
+    /**
+     * @return the response, once {@link #feed(ByteBuffer)} or {@link #endOfStream()} said it is complete.
+     */
+    Http11.Response getResponse() {
+        return response;
+    }
+
+    private void keep(ByteBuffer in, int count) {
+        if (in.hasArray()) {
+            Http11.keep(body, in.array(), in.arrayOffset() + in.position(), count);
+        } else {
+            byte[] bytes = new byte[Math.min(count, Http11.MAX_BODY_LENGTH - body.size())];
+            in.duplicate().get(bytes);
+            Http11.keep(body, bytes, 0, bytes.length);
+        }
+        in.position(in.position() + count);
+    }
+
+    private boolean readLine(ByteBuffer in) throws IOException {
+        while (in.hasRemaining()) {
+            char c = (char) (in.get() & 0xff);
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return true;
+            }
+            if (line.length() == Http11.MAX_LINE_LENGTH) {
+                throw new IOException("Response line too long");
+            }
+            line.append(c);
+        }
+        return false;
+    }
+
+    private void onLine(String text) throws IOException {
+        switch (state) {
+        case STATUS_LINE:
+            statusLine = text;
+            statusCode = Http11.statusCode(text);
+            headers = new LinkedHashMap<String, String>();
+            state = State.HEADERS;
+            break;
+        case HEADERS:
+            if (!text.isEmpty()) {
+                Http11.addHeader(headers, text);
+            } else if (Http11.isInterim(statusCode)) {
+                state = State.STATUS_LINE;
+            } else {
+                onHead();
+            }
+            break;
+        case CHUNK_SIZE:
+            remaining = Http11.chunkSize(text);
+            state = remaining == 0 ? State.TRAILERS : State.CHUNK_DATA;
+            break;
+        case CHUNK_END:
+            if (!text.isEmpty()) {
+                throw new IOException("Missing chunk terminator");
+            }
+            state = State.CHUNK_SIZE;
+            break;
+        case TRAILERS:
+            if (text.isEmpty()) {
+                done(Http11.isKeepAlive(statusLine, headers));
+            }
+            break;
+        default:
+            throw new IllegalStateException(state.name());
+        }
+    }
+
+    private void onHead() throws IOException {
+        boolean keepAlive = Http11.isKeepAlive(statusLine, headers);
+        switch (Http11.bodyOf(method, statusCode, headers)) {
+        case NONE:
+            done(keepAlive && statusCode != 101);
+            break;
+        case CHUNKED:
+            state = State.CHUNK_SIZE;
+            break;
+        case CONTENT_LENGTH:
+            remaining = Http11.contentLength(headers);
+            if (remaining == 0) {
+                done(keepAlive);
+            } else {
+                state = State.BODY;
+            }
+            break;
+        default:
+            state = State.UNTIL_CLOSE;
+        }
+    }
+
+    private void done(boolean keepAlive) {
+        state = State.DONE;
+        response = new Http11.Response(statusCode, headers, body.toByteArray(), keepAlive);
+    }
+}
@@ -0,0 +1,56 @@
+package com.tapstream.rollbar.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Opens blocking connections, over TLS if given a socket factory.
+ */
+public final class Sockets {
+    private Sockets() {
+    }
+
+    /**
+     * Connects and, with a factory, completes the TLS handshake, checking the certificate against the host. The
+     * session is kept by the factory's context, for later connections to the same host and port to resume.
+     *
+     * @param tls factory of the TLS connection, null for plain TCP.
+     * @param timeoutMillis connect timeout, and read timeout of the socket returned.
+     */
+    public static Socket open(InetAddress address, String host, int port, SSLSocketFactory tls, int timeoutMillis)
+                    throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(address, port), timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+            if (tls == null) {
+                return socket;
+            }
+            SSLSocket sslSocket = (SSLSocket) tls.createSocket(socket, host, port, true);
+            SSLParameters parameters = sslSocket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            sslSocket.setSSLParameters(parameters);
+            sslSocket.setSoTimeout(timeoutMillis);
+            sslSocket.startHandshake();
+            return sslSocket;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a connection and closes it right away, leaving its host resolved and, over TLS, a session to resume.
+     */
+    public static void handshake(InetAddress address, String host, int port, SSLSocketFactory tls, int timeoutMillis)
+                    throws IOException {
+        open(address, host, port, tls, timeoutMillis).close();
+    }
+}
@@ -0,0 +1,213 @@
+package com.tapstream.rollbar;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Just enough of an HTTP/2 server for the tests: takes the HTTP/1.1 upgrade to h2c and answers every stream with a
+ * 200 after a delay, counting connections and the streams open at once. Request headers are not decoded.
+ */
+class H2cStubServer implements Closeable {
+    private static final int DATA = 0x0, HEADERS = 0x1, SETTINGS = 0x4, PING = 0x6, GOAWAY = 0x7, WINDOW_UPDATE = 0x8;
+    private static final int END_STREAM = 0x1, ACK = 0x1, END_HEADERS = 0x4;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int PREFACE_LENGTH = 24;
+
+    private final ServerSocket serverSocket;
+    private final long delayMillis;
+    private final ScheduledExecutorService responders = Executors.newScheduledThreadPool(2);
+    private final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+    final AtomicInteger connections = new AtomicInteger();
+    final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    private int openStreams;
+    private int maxOpenStreams;
+
+    H2cStubServer(long delayMillis) throws IOException {
+        this.delayMillis = delayMillis;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (;;) {
+                        final Socket socket = serverSocket.accept();
+                        sockets.add(socket);
+                        connections.incrementAndGet();
+                        new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                serve(socket);
+                            }
+                        }, "h2c-stub-connection").start();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }, "h2c-stub-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/api/1/item/";
+    }
+
+    synchronized int getMaxOpenStreams() {
+        return maxOpenStreams;
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            // the first request comes over HTTP/1.1 asking to upgrade, and is answered as stream 1
+            bodies.add(readUpgradeRequest(in));
+            synchronized (out) {
+                out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+                                .getBytes(StandardCharsets.US_ASCII));
+                writeFrame(out, SETTINGS, 0, 0, new byte[] { 0, SETTINGS_MAX_CONCURRENT_STREAMS, 0, 0, 0, 100 });
+            }
+            opened();
+            respond(out, 1);
+            in.readFully(new byte[PREFACE_LENGTH]);
+
+            Map<Integer, ByteArrayOutputStream> streams = new HashMap<>();
+            for (;;) {
+                int length = in.readUnsignedShort() << 8 | in.readUnsignedByte();
+                int type = in.readUnsignedByte();
+                int flags = in.readUnsignedByte();
+                int stream = in.readInt() & 0x7fffffff;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                switch (type) {
+                case HEADERS:
+                    streams.put(stream, new ByteArrayOutputStream());
+                    opened();
+                    break;
+                case DATA:
+                    streams.get(stream).write(payload);
+                    if (length > 0) {
+                        synchronized (out) {
+                            writeFrame(out, WINDOW_UPDATE, 0, 0, new byte[] { 0, 0, (byte) (length >> 8), (byte) length });
+                        }
+                    }
+                    break;
+                case SETTINGS:
+                    if ((flags & ACK) == 0) {
+                        synchronized (out) {
+                            writeFrame(out, SETTINGS, ACK, 0, new byte[0]);
+                        }
+                    }
+                    break;
+                case PING:
+                    if ((flags & ACK) == 0) {
+                        synchronized (out) {
+                            writeFrame(out, PING, ACK, 0, payload);
+                        }
+                    }
+                    break;
+                case GOAWAY:
+                    return;
+                default:
+                    break;
+                }
+                if ((type == HEADERS || type == DATA) && (flags & END_STREAM) != 0) {
+                    bodies.add(streams.remove(stream).toString("UTF-8"));
+                    respond(out, stream);
+                }
+            }
+        } catch (IOException e) {
+            // connection closed
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closed anyway
+            }
+        }
+    }
+
+    private static String readUpgradeRequest(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Closed before the request head");
+            }
+            head.append((char) b);
+        }
+        int length = 0;
+        for (String line : head.toString().split("\r\n")) {
+            if (line.toLowerCase().startsWith("content-length:")) {
+                length = Integer.parseInt(line.substring("content-length:".length()).trim());
+            }
+        }
+        byte[] body = new byte[length];
+        new DataInputStream(in).readFully(body);
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private synchronized void opened() {
+        openStreams++;
+        maxOpenStreams = Math.max(maxOpenStreams, openStreams);
+    }
+
+    private void respond(final OutputStream out, final int stream) {
+        responders.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (H2cStubServer.this) {
+                    openStreams--;
+                }
+                try {
+                    synchronized (out) {
+                        // 0x88 is :status 200 from the static table
+                        writeFrame(out, HEADERS, END_HEADERS, stream, new byte[] { (byte) 0x88 });
+                        writeFrame(out, DATA, END_STREAM, stream, "{\"err\":0}".getBytes(StandardCharsets.UTF_8));
+                    }
+                } catch (IOException e) {
+                    // connection closed
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static void writeFrame(OutputStream out, int type, int flags, int stream, byte[] payload)
+                    throws IOException {
+        byte[] header = { (byte) (payload.length >> 16), (byte) (payload.length >> 8), (byte) payload.length,
+                        (byte) type, (byte) flags, (byte) (stream >> 24), (byte) (stream >> 16), (byte) (stream >> 8),
+                        (byte) stream };
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        synchronized (sockets) {
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+        responders.shutdownNow();
+    }
+}
@@ -0,0 +1,29 @@
+package com.tapstream.rollbar;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tapstream.rollbar.throttle.Clock;
+
+/**
+ * A clock that only moves when told to.
+ */
+public class ManualClock implements Clock {
+
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLong elapsedNanos = new AtomicLong();
+
+    public void advance(long millis) {
+        elapsedNanos.addAndGet(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return startMillis + TimeUnit.NANOSECONDS.toMillis(elapsedNanos.get());
+    }
+
+    @Override
+    public long nanoTime() {
+        return elapsedNanos.get();
+    }
+}
@@ -1,19 +1,77 @@
 package com.tapstream.rollbar;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import com.tapstream.rollbar.HttpRequest;
 import com.tapstream.rollbar.IHttpRequester;
 
-public class MockHttpRequester implements IHttpRequester{
+public class MockHttpRequester implements IBatchHttpRequester {
 
     private int responseCode = 200;
-    private HttpRequest request;
+    private final Map<String, String> responseHeaders = new HashMap<>();
+    private final Deque<Integer> nextResponseCodes = new ArrayDeque<>();
+    private volatile HttpRequest request;
+    private volatile int requestCount;
+    private volatile int largestBatch;
 
     @Override
-    public int send(HttpRequest request) throws IOException {
-        setRequest(request);
-        return getResponseCode();
+    public synchronized int send(HttpRequest request) throws IOException {
+        // the appender reuses the body's buffer once the request is done, keep what was sent
+        HttpRequest sent = new HttpRequest(request.getUrl(), request.getMethod());
+        sent.getHeaders().putAll(request.getHeaders());
+        sent.setBody(request.getBody());
+        setRequest(sent);
+        requestCount++;
+        Integer next = nextResponseCodes.poll();
+        return next != null ? next : getResponseCode();
+    }
+
+    @Override
+    public void sendBatch(List<HttpRequest> requests, BatchCallback callback) {
+        synchronized (this) {
+            largestBatch = Math.max(largestBatch, requests.size());
+        }
+        for (HttpRequest request : requests) {
+            if (!callback.beforeSend(request)) {
+                continue;
+            }
+            HttpResponse response;
+            try {
+                int statusCode = send(request);
+                synchronized (this) {
+                    response = new HttpResponse(statusCode, responseHeaders);
+                }
+            } catch (IOException e) {
+                callback.onFailure(request, e);
+                continue;
+            }
+            callback.onResponse(request, response);
+        }
+    }
+
+    public synchronized void setResponseHeader(String name, String value) {
+        responseHeaders.put(name, value);
+    }
+
+    /**
+     * Codes returned, in order, by the next requests before falling back to the response code.
+     */
+    public synchronized void queueResponseCodes(Integer... codes) {
+        nextResponseCodes.addAll(Arrays.asList(codes));
+    }
+
+    public int getLargestBatch() {
+        return largestBatch;
+    }
+
+    public int getRequestCount() {
+        return requestCount;
     }
 
     public int getResponseCode() {
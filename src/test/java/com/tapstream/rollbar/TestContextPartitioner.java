@@ -0,0 +1,75 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import com.tapstream.rollbar.ContextPartitioner.Partition;
+import com.tapstream.rollbar.ContextPartitioner.Section;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class TestContextPartitioner {
+
+    @Test
+    public void entriesGoToTheSectionOfTheirLongestPrefix() {
+        Map<String, String> ctx = new LinkedHashMap<>();
+        ctx.put("person.id", "42");
+        ctx.put("request.url", "http://example.com");
+        ctx.put("request.header.Accept", "*/*");
+        ctx.put("request.param.q", "search");
+        ctx.put("tenant", "acme");
+        ctx.put("skipped", null);
+
+        Partition partition = ContextPartitioner.withDefaultPrefixes().partition(ctx);
+
+        assertEquals("42", partition.get(Section.PERSON, "id"));
+        assertEquals("http://example.com", partition.get(Section.REQUEST, "url"));
+        assertEquals(1, partition.size(Section.REQUEST));
+        assertEquals("Accept", partition.name(Section.REQUEST_HEADER, 0));
+        assertEquals("*/*", partition.value(Section.REQUEST_HEADER, 0));
+        assertEquals("search", partition.get(Section.REQUEST_PARAM, "q"));
+        assertEquals(1, partition.size(Section.CUSTOM));
+        assertEquals("acme", partition.get(Section.CUSTOM, "tenant"));
+    }
+
+    @Test
+    public void userDefinedPrefixesAreMatched() {
+        ContextPartitioner partitioner = ContextPartitioner.withDefaultPrefixes();
+        partitioner.addPrefix("user.", Section.PERSON);
+        partitioner.addPrefix("request.internal.", Section.CUSTOM);
+        Map<String, String> ctx = new LinkedHashMap<>();
+        ctx.put("user.email", "a@example.com");
+        ctx.put("request.internal.trace", "abc");
+        ctx.put("über", "x");
+
+        Partition partition = partitioner.partition(ctx);
+
+        assertEquals("a@example.com", partition.get(Section.PERSON, "email"));
+        assertEquals("abc", partition.get(Section.CUSTOM, "request.internal.trace"));
+        assertEquals("x", partition.get(Section.CUSTOM, "über"));
+        assertEquals(0, partition.size(Section.REQUEST));
+    }
+
+    @Test
+    public void itemsAreBuiltFromThePartition() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", new ServerDataProvider(), new NotifierDataProvider(), null);
+        ContextPartitioner partitioner = ContextPartitioner.withDefaultPrefixes();
+        partitioner.addPrefix("user.", Section.PERSON);
+        builder.setContextPartitioner(partitioner);
+        Map<String, String> ctx = new LinkedHashMap<>();
+        ctx.put("user.id", "7");
+        ctx.put("request.method", "GET");
+        ctx.put("request.param.q", "search");
+        ctx.put("request.user_agent", "agent");
+
+        JSONObject data = builder.build("error", "msg", null, ctx, "logger").getJSONObject("data");
+
+        assertEquals("7", data.getJSONObject("person").get("id"));
+        assertEquals("search", data.getJSONObject("request").getJSONObject("GET").get("q"));
+        assertEquals("agent", data.getJSONObject("client").getJSONObject("javascript").get("browser"));
+        assertEquals(0, data.getJSONObject("custom").length());
+    }
+}
@@ -0,0 +1,88 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+public class TestGzipEncoder {
+    
+    BufferPool pool = new BufferPool(4, 1024 * 1024);
+    
+    static byte[] gunzip(byte[] compressed) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                out.write(chunk, 0, read);
+            }
+        }
+        return out.toByteArray();
+    }
+    
+    static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+    
+    @Test
+    public void compressesRepetitivePayloads() throws Exception {
+        StringBuilder json = new StringBuilder("{\"frames\":[");
+        for (int i = 0; i < 500; i++) {
+            json.append("{\"class_name\":\"org.springframework.web.servlet.FrameworkServlet\",\"lineno\":").append(i).append("},");
+        }
+        byte[] data = json.append("{}]}").toString().getBytes("UTF-8");
+        
+        byte[] compressed = bytes(new GzipEncoder(6).encode(data, 0, data.length, pool));
+        
+        assertTrue(GzipEncoder.isGzip(compressed));
+        assertTrue(compressed.length < data.length / 5);
+        assertArrayEquals(data, gunzip(compressed));
+    }
+    
+    @Test
+    public void encodesIncompressibleDataAndSlices() throws Exception {
+        byte[] data = new byte[100000];
+        new Random(42).nextBytes(data);
+        GzipEncoder encoder = new GzipEncoder(9);
+        
+        // the pooled deflater is reused
+        for (int i = 0; i < 3; i++) {
+            byte[] compressed = bytes(encoder.encode(data, 10, 50000, pool));
+            byte[] expected = new byte[50000];
+            System.arraycopy(data, 10, expected, 0, expected.length);
+            assertArrayEquals(expected, gunzip(compressed));
+        }
+    }
+    
+    @Test
+    public void jsonIsNotMistakenForGzip() throws Exception {
+        assertFalse(GzipEncoder.isGzip("{}".getBytes("UTF-8")));
+        assertFalse(GzipEncoder.isGzip(new byte[0]));
+    }
+
+    @Test
+    public void keepsABoundedNumberOfDeflatersUntilClosed() throws Exception {
+        byte[] data = "{\"message\":\"pooled\"}".getBytes("UTF-8");
+        GzipEncoder encoder = new GzipEncoder(6, 1);
+        
+        encoder.encode(data, 0, data.length, pool);
+        encoder.encode(data, 0, data.length, pool);
+        assertEquals(1, encoder.getPooledCount());
+        
+        encoder.close();
+        assertEquals(0, encoder.getPooledCount());
+        // still usable, without keeping its deflater
+        assertArrayEquals(data, gunzip(bytes(encoder.encode(data, 0, data.length, pool))));
+        assertEquals(0, encoder.getPooledCount());
+    }
+}
@@ -0,0 +1,55 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class TestHttpRequest {
+    
+    @Test
+    public void releaseReturnsPooledBody() throws Exception {
+        BufferPool pool = new BufferPool(4, 4096);
+        ByteBuffer buffer = pool.acquire(100);
+        buffer.put("{}".getBytes("UTF-8")).flip();
+        HttpRequest request = new HttpRequest(new URL("http://localhost/"), "POST");
+        request.setBody(buffer, pool);
+        
+        assertArrayEquals("{}".getBytes("UTF-8"), request.getBody());
+        assertEquals(2, request.getBodyWriter().getContentLength());
+        assertEquals(0, pool.size());
+        
+        request.release();
+        
+        assertEquals(1, pool.size());
+        assertNull(request.getBody());
+        assertSame(buffer, pool.acquire(50));
+    }
+    
+    @Test
+    public void bodyBufferSharesTheBody() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("[{}]".getBytes("UTF-8"), 1, 2);
+        HttpRequest request = new HttpRequest(new URL("http://localhost/"), "POST");
+        request.setBody(buffer);
+        
+        ByteBuffer body = request.getBodyBuffer();
+        assertEquals(2, body.remaining());
+        buffer.put(1, (byte) '[');
+        assertEquals('[', body.get(1));
+        assertEquals(1, buffer.position());
+    }
+    
+    @Test
+    public void poolKeepsBoundedNumberOfBuffers() {
+        BufferPool pool = new BufferPool(1, 4096);
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocate(1024));
+        pool.release(ByteBuffer.allocate(8192));
+        
+        assertEquals(1, pool.size());
+        assertTrue(pool.acquire(2000).capacity() >= 2000);
+        assertEquals(0, pool.size());
+    }
+}
@@ -0,0 +1,219 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestHttpRequester {
+    
+    HttpServer server;
+    URL url;
+    List<Integer> clientPorts = new ArrayList<>();
+    List<Integer> statusCodes = new ArrayList<>();
+    List<String> bodies = new ArrayList<>();
+    List<String> transferEncodings = new ArrayList<>();
+    
+    @Before
+    public void setup() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/api/1/item/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                synchronized (clientPorts) {
+                    clientPorts.add(exchange.getRemoteAddress().getPort());
+                }
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                InputStream requestBody = exchange.getRequestBody();
+                if ("gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+                    requestBody = new GZIPInputStream(requestBody);
+                }
+                try (InputStream in = requestBody) {
+                    int b;
+                    while ((b = in.read()) >= 0) {
+                        body.write(b);
+                    }
+                }
+                synchronized (bodies) {
+                    bodies.add(body.toString("UTF-8"));
+                    transferEncodings.add(exchange.getRequestHeaders().getFirst("Transfer-Encoding"));
+                }
+                int status = exchange.getRequestHeaders().getFirst("X-Fail") != null ? 500 : 200;
+                byte[] response = "{\"err\":0}".getBytes("UTF-8");
+                exchange.getResponseHeaders().add("X-Rate-Limit-Remaining", "42");
+                exchange.sendResponseHeaders(status, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/api/1/item/");
+    }
+    
+    @After
+    public void teardown() {
+        server.stop(0);
+    }
+    
+    private HttpRequest request(String body) {
+        HttpRequest request = new HttpRequest(url, "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setBody(body);
+        return request;
+    }
+    
+    @Test
+    public void batchReusesOneConnection() {
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            requests.add(request("{\"n\":" + i + "}"));
+        }
+        
+        new HttpRequester().sendBatch(requests, new RecordingCallback());
+        
+        assertEquals(5, clientPorts.size());
+        assertEquals(1, new HashSet<>(clientPorts).size());
+    }
+    
+    @Test
+    public void batchReportsEveryItem() {
+        HttpRequest failing = request("{}");
+        failing.setHeader("X-Fail", "true");
+        List<HttpRequest> requests = new ArrayList<>();
+        requests.add(request("{}"));
+        requests.add(failing);
+        requests.add(request("{}"));
+        RecordingCallback callback = new RecordingCallback();
+        
+        new HttpRequester().sendBatch(requests, callback);
+        
+        assertEquals(3, statusCodes.size());
+        assertEquals(Integer.valueOf(200), statusCodes.get(0));
+        assertEquals(Integer.valueOf(500), statusCodes.get(1));
+        assertEquals(Integer.valueOf(200), statusCodes.get(2));
+        assertEquals("42", callback.lastResponse.getHeader("x-rate-limit-remaining"));
+        assertEquals("{\"err\":0}", callback.lastResponse.getBodyText());
+    }
+    
+    @Test
+    public void batchSkipsRequestsTurnedDown() {
+        RecordingCallback callback = new RecordingCallback();
+        List<HttpRequest> requests = new ArrayList<>();
+        requests.add(request("{}"));
+        requests.add(request("{}"));
+        callback.skipped.add(requests.get(0));
+        
+        new HttpRequester().sendBatch(requests, callback);
+        
+        assertEquals(1, statusCodes.size());
+        assertEquals(1, clientPorts.size());
+    }
+    
+    @Test
+    public void batchReportsConnectionFailures() {
+        server.stop(0);
+        RecordingCallback callback = new RecordingCallback();
+        List<HttpRequest> requests = new ArrayList<>();
+        requests.add(request("{}"));
+        requests.add(request("{}"));
+        
+        new HttpRequester().sendBatch(requests, callback);
+        
+        assertEquals(2, callback.failures.size());
+    }
+    
+    @Test
+    public void sendsBufferBodies() throws Exception {
+        ByteBuffer heap = ByteBuffer.wrap("xx{\"heap\":1}xx".getBytes("UTF-8"));
+        heap.position(2).limit(heap.limit() - 2);
+        ByteBuffer direct = ByteBuffer.allocateDirect(64);
+        direct.put("{\"direct\":1}".getBytes("UTF-8")).flip();
+        HttpRequest heapRequest = request("");
+        heapRequest.setBody(heap);
+        HttpRequest directRequest = request("");
+        directRequest.setBody(direct);
+        
+        HttpRequester requester = new HttpRequester();
+        assertEquals(200, requester.send(heapRequest));
+        assertEquals(200, requester.send(directRequest));
+        
+        assertEquals("{\"heap\":1}", bodies.get(0));
+        assertEquals("{\"direct\":1}", bodies.get(1));
+        assertNull(transferEncodings.get(0));
+    }
+    
+    @Test
+    public void streamsBodyWriterOfUnknownLengthChunked() throws Exception {
+        HttpRequest request = request("");
+        request.setBody(new BodyWriter() {
+            @Override
+            public long getContentLength() {
+                return -1;
+            }
+            
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write("{\"streamed\":".getBytes("UTF-8"));
+                out.write("true}".getBytes("UTF-8"));
+            }
+        });
+        
+        assertEquals(200, new HttpRequester().send(request));
+        
+        assertEquals("{\"streamed\":true}", bodies.get(0));
+        assertEquals("chunked", transferEncodings.get(0));
+    }
+    
+    @Test
+    public void sendsCompressedBodies() throws Exception {
+        byte[] json = "{\"compressed\":true}".getBytes("UTF-8");
+        HttpRequest request = request("");
+        request.setHeader("Content-Encoding", "gzip");
+        request.setBody(new GzipEncoder(6).encode(json, 0, json.length, new BufferPool(1, 1024)));
+        
+        assertEquals(200, new HttpRequester().send(request));
+        
+        assertEquals("{\"compressed\":true}", bodies.get(0));
+    }
+    
+    class RecordingCallback implements BatchCallback {
+        HttpResponse lastResponse;
+        Set<HttpRequest> failures = new HashSet<>();
+        Set<HttpRequest> skipped = new HashSet<>();
+        
+        @Override
+        public boolean beforeSend(HttpRequest request) {
+            return !skipped.contains(request);
+        }
+        
+        @Override
+        public void onResponse(HttpRequest request, HttpResponse response) {
+            statusCodes.add(response.getStatusCode());
+            lastResponse = response;
+        }
+        
+        @Override
+        public void onFailure(HttpRequest request, IOException e) {
+            failures.add(request);
+        }
+    }
+}
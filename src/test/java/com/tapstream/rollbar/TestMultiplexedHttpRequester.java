@@ -0,0 +1,145 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TestMultiplexedHttpRequester {
+
+    H2cStubServer server;
+    MultiplexedHttpRequester requester = new MultiplexedHttpRequester();
+
+    @After
+    public void teardown() throws IOException {
+        requester.close();
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private HttpRequest request(URL url, String body) {
+        HttpRequest request = new HttpRequest(url, "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setBody(body);
+        return request;
+    }
+
+    private List<ResponseFuture> sendAll(URL url, int count, String body) {
+        List<ResponseFuture> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ResponseFuture future = new ResponseFuture();
+            requester.sendAsync(request(url, body), future);
+            futures.add(future);
+        }
+        return futures;
+    }
+
+    @Test
+    public void multiplexesRequestsOverOneConnection() throws Exception {
+        server = new H2cStubServer(100);
+        URL url = new URL(server.url());
+        requester.setMaxConcurrentStreams(10);
+
+        assertEquals(200, requester.send(request(url, "{\"n\":0}")));
+        for (ResponseFuture future : sendAll(url, 40, "{}")) {
+            assertEquals(200, future.getResponse().getStatusCode());
+            assertEquals("{\"err\":0}", future.getResponse().getBodyText());
+        }
+
+        assertTrue(requester.isHttp2Available());
+        assertEquals(1, server.connections.get());
+        assertEquals(41, server.bodies.size());
+        assertEquals("{\"n\":0}", server.bodies.get(0));
+        assertEquals(41, requester.getHttp2ResponseCount());
+        assertTrue(String.valueOf(server.getMaxOpenStreams()), server.getMaxOpenStreams() > 1);
+        assertTrue(String.valueOf(server.getMaxOpenStreams()), server.getMaxOpenStreams() <= 10);
+    }
+
+    @Test
+    public void sendsOneRequestUntilTheFirstResponse() throws Exception {
+        server = new H2cStubServer(100);
+
+        for (ResponseFuture future : sendAll(new URL(server.url()), 10, "{}")) {
+            assertEquals(200, future.getResponse().getStatusCode());
+        }
+
+        // the others waited for the upgraded connection rather than opening their own
+        assertEquals(1, server.connections.get());
+    }
+
+    @Test
+    public void limitsTheBytesInFlight() throws Exception {
+        server = new H2cStubServer(50);
+        URL url = new URL(server.url());
+        char[] body = new char[1000];
+        Arrays.fill(body, 'x');
+        requester.setMaxInFlightBytes(3000);
+
+        assertEquals(200, requester.send(request(url, "{}")));
+        for (ResponseFuture future : sendAll(url, 20, new String(body))) {
+            assertEquals(200, future.getResponse().getStatusCode());
+        }
+
+        assertEquals(21, server.bodies.size());
+        assertTrue(String.valueOf(server.getMaxOpenStreams()), server.getMaxOpenStreams() <= 3);
+    }
+
+    @Test
+    public void failsRequestsBeyondTheQueue() throws Exception {
+        server = new H2cStubServer(200);
+        URL url = new URL(server.url());
+        requester.setMaxQueuedRequests(2);
+
+        // one in flight until answered, two waiting, the fourth is refused
+        List<ResponseFuture> futures = sendAll(url, 4, "{}");
+        assertEquals(2, requester.getQueuedCount());
+        try {
+            futures.get(3).getResponse();
+            fail("Full queue expected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("Too many requests waiting"));
+        }
+        for (ResponseFuture future : futures.subList(0, 3)) {
+            assertEquals(200, future.getResponse().getStatusCode());
+        }
+    }
+
+    @Test
+    public void fallsBackToHttpRequester() throws Exception {
+        HttpServer http = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        http.createContext("/api/1/item/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] response = "{\"err\":0}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        http.start();
+        try {
+            requester.setHttp2(false);
+            URL url = new URL("http://127.0.0.1:" + http.getAddress().getPort() + "/api/1/item/");
+
+            assertEquals(200, requester.send(request(url, "{}")));
+            assertFalse(requester.isHttp2Available());
+            assertEquals(0, requester.getHttp2ResponseCount());
+        } finally {
+            http.stop(0);
+        }
+    }
+}
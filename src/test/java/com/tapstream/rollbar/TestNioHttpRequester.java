@@ -0,0 +1,281 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.status.Status;
+
+public class TestNioHttpRequester {
+
+    HttpServer server;
+    ExecutorService serverThreads = Executors.newCachedThreadPool();
+    List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+    NioHttpRequester requester = new NioHttpRequester();
+
+    @After
+    public void teardown() {
+        requester.close();
+        if (server != null) {
+            server.stop(0);
+        }
+        serverThreads.shutdownNow();
+    }
+
+    private URL start(HttpServer server, HttpHandler handler) throws Exception {
+        this.server = server;
+        server.setExecutor(serverThreads);
+        server.createContext("/api/1/item/", handler);
+        server.start();
+        String scheme = server instanceof HttpsServer ? "https" : "http";
+        return new URL(scheme + "://localhost:" + server.getAddress().getPort() + "/api/1/item/");
+    }
+
+    private HttpHandler answering(final CountDownLatch before) {
+        return new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    int b;
+                    while ((b = in.read()) >= 0) {
+                        body.write(b);
+                    }
+                }
+                bodies.add(body.toString("UTF-8"));
+                if (before != null) {
+                    before.countDown();
+                    try {
+                        before.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                byte[] response = "{\"err\":0}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        };
+    }
+
+    private HttpRequest request(URL url, String body) {
+        HttpRequest request = new HttpRequest(url, "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setBody(body);
+        return request;
+    }
+
+    @Test
+    public void keepsHundredsOfRequestsInFlight() throws Exception {
+        int count = 200;
+        // the server only answers once every request got there
+        CountDownLatch allArrived = new CountDownLatch(count);
+        URL url = start(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), count), answering(allArrived));
+        requester.setEventLoopThreads(2);
+        requester.setMaxConnections(count);
+        requester.setTimeout(10000);
+
+        List<ResponseFuture> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            ResponseFuture future = new ResponseFuture();
+            requester.sendAsync(request(url, "{}"), future);
+            futures.add(future);
+        }
+
+        for (ResponseFuture future : futures) {
+            assertEquals(200, future.getResponse().getStatusCode());
+        }
+        assertEquals(0, allArrived.getCount());
+        assertEquals(count, requester.getHandshakeCount());
+    }
+
+    private SSLContext localhostContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = getClass().getResourceAsStream("/localhost.jks")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "changeit".toCharArray());
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        SSLContext sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+        return sslContext;
+    }
+
+    @Test
+    public void reusesOneHttpsConnection() throws Exception {
+        SSLContext sslContext = localhostContext();
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        URL url = start(httpsServer, answering(null));
+        requester.setSslContext(sslContext);
+
+        assertEquals(200, requester.send(request(url, "{\"n\":1}")));
+        assertEquals(200, requester.send(request(url, "{\"n\":2}")));
+        ResponseFuture future = new ResponseFuture();
+        requester.sendAsync(request(url, "{\"n\":3}"), future);
+        assertEquals("{\"err\":0}".length(), Integer.parseInt(future.getResponse().getHeader("content-length")));
+        assertEquals("{\"err\":0}", future.getResponse().getBodyText());
+
+        assertEquals(Arrays.asList("{\"n\":1}", "{\"n\":2}", "{\"n\":3}"), bodies);
+        assertEquals(1, requester.getHandshakeCount());
+        assertEquals(2, requester.getReuseCount());
+    }
+
+    @Test
+    public void warmUpLeavesATlsSessionToResume() throws Exception {
+        SSLContext sslContext = localhostContext();
+        HttpsServer httpsServer = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        httpsServer.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        URL url = start(httpsServer, answering(null));
+        requester.setSslContext(sslContext);
+
+        requester.warmUp(url);
+
+        assertTrue(sslContext.getClientSessionContext().getIds().hasMoreElements());
+        assertEquals(0, requester.getHandshakeCount());
+        assertEquals(200, requester.send(request(url, "{}")));
+    }
+
+    @Test
+    public void connectionsClosedByTheServerAreNotReused() throws Exception {
+        // answers one request per connection and closes it without saying so
+        final ServerSocket plain = new ServerSocket(0);
+        Thread stub = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 2; i++) {
+                        try (Socket socket = plain.accept()) {
+                            readRequest(socket.getInputStream());
+                            socket.getOutputStream().write(
+                                            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                        }
+                    }
+                } catch (IOException e) {
+                    // test over
+                }
+            }
+        });
+        stub.start();
+        URL url = new URL("http://127.0.0.1:" + plain.getLocalPort() + "/api/1/item/");
+
+        try {
+            assertEquals(200, requester.send(request(url, "{}")));
+            Thread.sleep(50);
+            assertEquals(200, requester.send(request(url, "{}")));
+        } finally {
+            plain.close();
+        }
+
+        // the idle connections are seen closed as soon as the server closes them
+        assertEquals(2, requester.getHandshakeCount());
+        assertEquals(0, requester.getReuseCount());
+        assertTrue(requester.getStaleCount() >= 1);
+    }
+
+    @Test
+    public void failsRequestsWithoutResponseInTime() throws Exception {
+        // connections are accepted by the system but never answered
+        try (ServerSocket silent = new ServerSocket(0)) {
+            requester.setTimeout(200);
+            URL url = new URL("http://127.0.0.1:" + silent.getLocalPort() + "/api/1/item/");
+            try {
+                requester.send(request(url, "{}"));
+                fail("Timeout expected");
+            } catch (SocketTimeoutException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("within 200 ms"));
+            }
+        }
+    }
+
+    @Test
+    public void appenderWaitsForItemsInFlightWhenStopped() throws Exception {
+        final CountDownLatch received = new CountDownLatch(1);
+        URL url = start(HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0), new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.countDown();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                answering(null).handle(exchange);
+            }
+        });
+        Logger rootLogger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        LoggerContext loggerContext = rootLogger.getLoggerContext();
+        loggerContext.reset();
+        loggerContext.getStatusManager().clear();
+        RollbarAppender appender = new RollbarAppender();
+        appender.setUrl(url.toString());
+        appender.setApiKey("api key");
+        appender.setEnvironment("test");
+        appender.setHttpRequester(requester);
+        appender.setMaxRetries(0);
+        appender.setContext(loggerContext);
+        appender.start();
+        rootLogger.addAppender(appender);
+
+        rootLogger.error("in flight");
+        assertTrue(received.await(5, TimeUnit.SECONDS));
+        appender.stop();
+
+        assertEquals(1, bodies.size());
+        for (Status status : loggerContext.getStatusManager().getCopyOfStatusList()) {
+            assertTrue(status.toString(), status.getLevel() < Status.WARN);
+        }
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+        // head, then a body of the Content-Length given
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char) in.read());
+        }
+        String lengthHeader = "Content-Length: ";
+        int start = head.indexOf(lengthHeader) + lengthHeader.length();
+        int length = Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)));
+        for (int i = 0; i < length; i++) {
+            in.read();
+        }
+    }
+}
@@ -3,11 +3,16 @@ package com.tapstream.rollbar;
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.when;
 
+import com.tapstream.rollbar.fingerprinter.CustomFingerprinter;
 import com.tapstream.rollbar.fingerprinter.Fingerprinter;
+import com.tapstream.rollbar.json.FrameCache;
+import com.tapstream.rollbar.json.JsonWriter;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.Before;
@@ -15,6 +20,10 @@ import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyVO;
+
 public class TestNotifyBuilder {
     @Mock
     ServerDataProvider serverDataProvider;
@@ -144,4 +153,179 @@ public class TestNotifyBuilder {
         assertFalse(result.getJSONObject("data").has("fingerprint"));
         
     }
+
+    @Test
+    public void traceChainStartsWithRootCause() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        Exception cause = new IllegalStateException("root");
+        Exception error = new RuntimeException("wrapper", cause);
+
+        JSONObject result = builder.build("error", "msg", error, new HashMap<String, String>(), "logger.name");
+
+        JSONArray chain = result.getJSONObject("data").getJSONObject("body").getJSONArray("trace_chain");
+        assertEquals(2, chain.length());
+        assertEquals("root", chain.getJSONObject(0).getJSONObject("exception").get("message"));
+        assertEquals("wrapper", chain.getJSONObject(1).getJSONObject("exception").get("message"));
+        JSONArray frames = chain.getJSONObject(1).getJSONArray("frames");
+        JSONObject lastFrame = frames.getJSONObject(frames.length() - 1);
+        assertEquals(getClass().getName(), lastFrame.get("class_name"));
+        assertEquals("traceChainStartsWithRootCause", lastFrame.get("method"));
+        assertEquals(error.getStackTrace()[0].getLineNumber(), lastFrame.getInt("lineno"));
+    }
+
+    @Test
+    public void laterCustomValuesReplaceEarlierOnes() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        Map<String, String> ctx = new HashMap<>();
+        ctx.put("log", "from mdc");
+        ctx.put("count", "from mdc");
+        ctx.put("quote", "say \"hi\"\n\u00e9\u4e2d\ud83d\ude00");
+        RollbarEvent event = new RollbarEvent(Level.ERROR, "logged", new ThrowableProxy(new Exception()), ctx, "logger", 0);
+
+        JSONObject result = builder.build(event, null, Collections.singletonMap("count", 3));
+
+        JSONObject custom = result.getJSONObject("data").getJSONObject("custom");
+        assertEquals("logged", custom.get("log"));
+        assertEquals(3, custom.getInt("count"));
+        assertEquals("say \"hi\"\n\u00e9\u4e2d\ud83d\ude00", custom.get("quote"));
+    }
+
+    @Test
+    public void cachedFramesAreWrittenUnchanged() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        Exception error = new IllegalStateException("boom");
+        String uncached = builder.build("error", "msg", error, new HashMap<String, String>(), "logger").toString();
+        FrameCache cache = new FrameCache(1000);
+        builder.setFrameCache(cache);
+
+        builder.build("error", "msg", error, new HashMap<String, String>(), "logger");
+        JSONObject cached = builder.build("error", "msg", error, new HashMap<String, String>(), "logger");
+
+        int frames = error.getStackTrace().length;
+        assertEquals(frames, cache.getMissCount());
+        assertEquals(frames, cache.getHitCount());
+        JSONObject expected = new JSONObject(uncached);
+        assertEquals(expected.getJSONObject("data").getJSONObject("body").toString(),
+                        cached.getJSONObject("data").getJSONObject("body").toString());
+    }
+
+    @Test
+    public void itemsOverBudgetAreCutDownInOrder() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        Exception error = new IllegalStateException("boom");
+        StackTraceElement[] elements = new StackTraceElement[300];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new StackTraceElement("com.example.Deep", "call" + i, "Deep.java", i + 1);
+        }
+        error.setStackTrace(elements);
+        Map<String, String> ctx = new HashMap<>();
+        ctx.put("small", "kept");
+        RollbarEvent event = new RollbarEvent(Level.ERROR, "logged", new ThrowableProxy(error), ctx, "logger", 0);
+        JsonWriter out = new JsonWriter();
+
+        builder.write(out, event, null, Collections.<String, Object>emptyMap());
+        int full = out.size();
+        builder.setMaxPayloadBytes(full - 1);
+        builder.write(out, event, null, Collections.<String, Object>emptyMap());
+
+        assertTrue(out.size() < full);
+        JSONObject data = new JSONObject(new String(out.toByteArray(), "UTF-8")).getJSONObject("data");
+        JSONArray frames = data.getJSONObject("body").getJSONArray("trace_chain").getJSONObject(0).getJSONArray("frames");
+        assertEquals(101, frames.length());
+        assertEquals("call299", frames.getJSONObject(0).get("method"));
+        assertEquals("200 frames elided", frames.getJSONObject(50).get("method"));
+        assertEquals("call0", frames.getJSONObject(100).get("method"));
+        JSONObject custom = data.getJSONObject("custom");
+        assertEquals("kept", custom.get("small"));
+        assertEquals(200, custom.getJSONObject("truncation").getInt("elided_frames"));
+        assertEquals(0, custom.getJSONObject("truncation").getInt("truncated_strings"));
+
+        // a budget nothing meets: everything is cut and the item sent anyway
+        ctx.put("large", new String(new char[2000]).replace('\0', 'x'));
+        builder.setMaxPayloadBytes(100);
+        builder.write(out, event, null, Collections.<String, Object>emptyMap());
+
+        custom = new JSONObject(new String(out.toByteArray(), "UTF-8")).getJSONObject("data").getJSONObject("custom");
+        assertFalse(custom.has("large"));
+        assertEquals(280, custom.getJSONObject("truncation").getInt("elided_frames"));
+        assertEquals(3, custom.getJSONObject("truncation").getInt("dropped_custom_entries"));
+    }
+
+    @Test
+    public void itemsWithinBudgetAreNotCut() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        builder.setMaxPayloadBytes(64 * 1024);
+        RollbarEvent event = new RollbarEvent(Level.ERROR, "logged", new ThrowableProxy(new Exception("boom")),
+                        new HashMap<String, String>(), "logger", 0);
+
+        JSONObject result = builder.build(event, null, Collections.<String, Object>emptyMap());
+
+        assertFalse(result.getJSONObject("data").getJSONObject("custom").has("truncation"));
+    }
+
+    @Test
+    public void framesSharedWithTheEnclosingTraceAreElided() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        builder.setElideCommonFrames(true);
+        Exception cause = new IllegalStateException("root");
+        Exception error = new RuntimeException("wrapper", cause);
+        StackTraceElement[] outer = error.getStackTrace();
+        StackTraceElement[] inner = new StackTraceElement[outer.length + 2];
+        inner[0] = new StackTraceElement("com.example.Inner", "fail", "Inner.java", 10);
+        inner[1] = new StackTraceElement("com.example.Inner", "call", "Inner.java", 20);
+        System.arraycopy(outer, 0, inner, 2, outer.length);
+        cause.setStackTrace(inner);
+
+        JSONObject result = builder.build("error", "msg", error, new HashMap<String, String>(), "logger");
+
+        JSONArray chain = result.getJSONObject("data").getJSONObject("body").getJSONArray("trace_chain");
+        JSONArray causeFrames = chain.getJSONObject(0).getJSONArray("frames");
+        assertEquals(3, causeFrames.length());
+        assertEquals(outer.length + " frames in common with the enclosing exception", causeFrames.getJSONObject(0).get("method"));
+        assertEquals("call", causeFrames.getJSONObject(1).get("method"));
+        assertEquals("fail", causeFrames.getJSONObject(2).get("method"));
+        assertEquals(outer.length, chain.getJSONObject(1).getJSONArray("frames").length());
+    }
+
+    @Test
+    public void framesPerTraceAreLimitedToOutermostAndInnermost() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider, null);
+        builder.setMaxFramesPerTrace(4);
+        Exception error = new IllegalStateException("boom");
+        StackTraceElement[] elements = new StackTraceElement[10];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new StackTraceElement("com.example.Deep", "call" + i, "Deep.java", i + 1);
+        }
+        error.setStackTrace(elements);
+
+        JSONObject data = builder.build("error", "msg", error, new HashMap<String, String>(), "logger").getJSONObject("data");
+
+        JSONArray frames = data.getJSONObject("body").getJSONArray("trace_chain").getJSONObject(0).getJSONArray("frames");
+        assertEquals(5, frames.length());
+        assertEquals("call9", frames.getJSONObject(0).get("method"));
+        assertEquals("call8", frames.getJSONObject(1).get("method"));
+        assertEquals("6 frames elided", frames.getJSONObject(2).get("method"));
+        assertEquals("call1", frames.getJSONObject(3).get("method"));
+        assertEquals("call0", frames.getJSONObject(4).get("method"));
+        // a configured limit is not a truncation
+        assertFalse(data.getJSONObject("custom").has("truncation"));
+    }
+
+    @Test
+    public void serializedExceptionsAreWrittenLikeTheOriginal() throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", serverDataProvider, notifierDataProvider,
+                        new CustomFingerprinter());
+        Exception error = new RuntimeException("wrapper", new IllegalStateException("root"));
+        ThrowableProxy proxy = new ThrowableProxy(error);
+        RollbarEvent original = new RollbarEvent(Level.ERROR, "msg", proxy, new HashMap<String, String>(), "logger", 0);
+        RollbarEvent relayed = new RollbarEvent(Level.ERROR, "msg", ThrowableProxyVO.build(proxy),
+                        new HashMap<String, String>(), "logger", 0);
+
+        JSONObject expected = builder.build(original, null, Collections.<String, Object>emptyMap());
+        JSONObject actual = builder.build(relayed, null, Collections.<String, Object>emptyMap());
+
+        assertEquals(expected.getJSONObject("data").getJSONObject("body").toString(),
+                        actual.getJSONObject("data").getJSONObject("body").toString());
+        assertEquals(builder.fingerprint(original), builder.fingerprint(relayed));
+    }
 }
@@ -0,0 +1,228 @@
+package com.tapstream.rollbar;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+
+public class TestPooledHttpRequester {
+
+    HttpsServer server;
+    SSLContext sslContext;
+    URL url;
+    List<String> bodies = new ArrayList<>();
+    PooledHttpRequester requester = new PooledHttpRequester();
+
+    @Before
+    public void setup() throws Exception {
+        // self-signed certificate for localhost and 127.0.0.1
+        KeyStore keyStore = KeyStore.getInstance("JKS");
+        try (InputStream in = getClass().getResourceAsStream("/localhost.jks")) {
+            keyStore.load(in, "changeit".toCharArray());
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, "changeit".toCharArray());
+        TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagers.init(keyStore);
+        sslContext = SSLContext.getInstance("TLS");
+        sslContext.init(keyManagers.getKeyManagers(), trustManagers.getTrustManagers(), null);
+
+        server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setHttpsConfigurator(new HttpsConfigurator(sslContext));
+        server.createContext("/api/1/item/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    int b;
+                    while ((b = in.read()) >= 0) {
+                        body.write(b);
+                    }
+                }
+                synchronized (bodies) {
+                    bodies.add(body.toString("UTF-8"));
+                }
+                byte[] response = "{\"err\":0}".getBytes("UTF-8");
+                exchange.sendResponseHeaders(200, response.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response);
+                }
+            }
+        });
+        server.start();
+        url = new URL("https://localhost:" + server.getAddress().getPort() + "/api/1/item/");
+        requester.setSslSocketFactory(sslContext.getSocketFactory());
+    }
+
+    @After
+    public void teardown() {
+        requester.close();
+        server.stop(0);
+    }
+
+    private HttpRequest request(URL url, String body) {
+        HttpRequest request = new HttpRequest(url, "POST");
+        request.setHeader("Content-Type", "application/json");
+        request.setBody(body);
+        return request;
+    }
+
+    @Test
+    public void reusesOneHttpsConnection() throws Exception {
+        assertEquals(200, requester.send(request(url, "{\"n\":1}")));
+        assertEquals(200, requester.send(request(url, "{\"n\":2}")));
+        final List<Integer> statusCodes = new ArrayList<>();
+        requester.sendBatch(Arrays.asList(request(url, "{\"n\":3}"), request(url, "{\"n\":4}")), new BatchCallback() {
+            @Override
+            public boolean beforeSend(HttpRequest request) {
+                return true;
+            }
+
+            @Override
+            public void onResponse(HttpRequest request, HttpResponse response) {
+                statusCodes.add(response.getStatusCode());
+            }
+
+            @Override
+            public void onFailure(HttpRequest request, IOException e) {
+                fail(e.toString());
+            }
+        });
+
+        assertEquals(Arrays.asList(200, 200), statusCodes);
+        assertEquals(Arrays.asList("{\"n\":1}", "{\"n\":2}", "{\"n\":3}", "{\"n\":4}"), bodies);
+        assertEquals(1, requester.getHandshakeCount());
+        assertEquals(3, requester.getReuseCount());
+        assertEquals(1, requester.getIdleConnectionCount());
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws Exception {
+        requester.setIdleTimeoutMillis(1);
+
+        requester.send(request(url, "{}"));
+        Thread.sleep(20);
+        requester.send(request(url, "{}"));
+
+        assertEquals(2, requester.getHandshakeCount());
+        assertEquals(0, requester.getReuseCount());
+    }
+
+    @Test
+    public void connectionsClosedByTheServerAreNotReused() throws Exception {
+        // answers one request per connection and closes it without saying so
+        final ServerSocket plain = new ServerSocket(0);
+        Thread stub = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < 2; i++) {
+                        try (Socket socket = plain.accept()) {
+                            readRequest(socket.getInputStream());
+                            socket.getOutputStream().write(
+                                            "HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes(StandardCharsets.US_ASCII));
+                        }
+                    }
+                } catch (IOException e) {
+                    // test over
+                }
+            }
+        });
+        stub.start();
+        requester.setValidateAfterIdleMillis(0);
+        URL plainUrl = new URL("http://127.0.0.1:" + plain.getLocalPort() + "/api/1/item/");
+
+        try {
+            assertEquals(200, requester.send(request(plainUrl, "{}")));
+            Thread.sleep(50);
+            assertEquals(200, requester.send(request(plainUrl, "{}")));
+        } finally {
+            plain.close();
+        }
+
+        assertEquals(2, requester.getHandshakeCount());
+        assertEquals(1, requester.getStaleCount());
+    }
+
+    private static void readRequest(InputStream in) throws IOException {
+        // head, then a body of the Content-Length given
+        StringBuilder head = new StringBuilder();
+        while (!head.toString().endsWith("\r\n\r\n")) {
+            head.append((char) in.read());
+        }
+        String lengthHeader = "Content-Length: ";
+        int start = head.indexOf(lengthHeader) + lengthHeader.length();
+        int length = Integer.parseInt(head.substring(start, head.indexOf("\r\n", start)));
+        for (int i = 0; i < length; i++) {
+            in.read();
+        }
+    }
+
+    @Test
+    public void warmUpLeavesAConnectionForTheFirstRequest() throws Exception {
+        requester.warmUp(url);
+        assertEquals(1, requester.getHandshakeCount());
+        assertEquals(1, requester.getIdleConnectionCount());
+
+        assertEquals(200, requester.send(request(url, "{}")));
+
+        assertEquals(1, requester.getHandshakeCount());
+        assertEquals(1, requester.getReuseCount());
+        assertEquals(Arrays.asList("{}"), bodies);
+    }
+
+    @Test
+    public void appenderWarmsUpInTheBackground() throws Exception {
+        Logger rootLogger = (Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
+        LoggerContext loggerContext = rootLogger.getLoggerContext();
+        loggerContext.reset();
+        loggerContext.getStatusManager().clear();
+        RollbarAppender appender = new RollbarAppender();
+        appender.setUrl(url.toString());
+        appender.setApiKey("api key");
+        appender.setEnvironment("test");
+        appender.setHttpRequester(requester);
+        appender.setWarmUp(true);
+        appender.setContext(loggerContext);
+        appender.start();
+        try {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (requester.getIdleConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, requester.getIdleConnectionCount());
+            // nothing was sent
+            assertTrue(bodies.isEmpty());
+        } finally {
+            appender.stop();
+        }
+    }
+}
@@ -2,6 +2,12 @@ package com.tapstream.rollbar;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -13,8 +19,12 @@ import org.slf4j.LoggerFactory;
 import com.tapstream.rollbar.HttpRequest;
 import com.tapstream.rollbar.RollbarAppender;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
 import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.status.StatusListener;
 
 public class TestRollbarAppender {
     
@@ -143,4 +153,331 @@ public class TestRollbarAppender {
 
         assertEquals(root.getJSONObject("data").get("context"), "some.logger");
     }
+
+    @Test
+    public void timestampIsTakenFromEvent() throws JSONException {
+        LoggingEvent event = new LoggingEvent(Logger.class.getName(), rootLogger, Level.ERROR, "late message", null, null);
+        event.setTimeStamp(1500000000123L);
+
+        appender.doAppend(event);
+
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals(1500000000L, root.getJSONObject("data").getLong("timestamp"));
+    }
+
+    @Test
+    public void repeatedErrorsAreRateLimited() throws Exception {
+        ManualClock clock = new ManualClock();
+        appender.stop();
+        appender.setRateLimitPerSecond(20);
+        appender.setRateLimitBurst(1);
+        appender.setClock(clock);
+        appender.start();
+        
+        for (int i = 0; i < 3; i++) {
+            logFailure();
+        }
+        assertEquals(1, httpRequester.getRequestCount());
+        assertEquals(2, appender.getRateLimitedCount());
+        
+        clock.advance(100);
+        logFailure();
+        
+        assertEquals(2, httpRequester.getRequestCount());
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals(2, root.getJSONObject("data").getJSONObject("custom").getInt(RollbarAppender.SUPPRESSED_OCCURRENCES));
+    }
+
+    @Test
+    public void repeatedErrorsAreAggregated() throws Exception {
+        appender.stop();
+        appender.setAggregationWindowMillis(60000);
+        appender.start();
+        
+        for (int i = 0; i < 3; i++) {
+            logFailure();
+        }
+        // the first one is not held back
+        assertEquals(1, httpRequester.getRequestCount());
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertFalse(root.getJSONObject("data").getJSONObject("custom").has("repeats"));
+        
+        appender.stop();
+        
+        assertEquals(2, httpRequester.getRequestCount());
+        root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals(2, root.getJSONObject("data").getJSONObject("custom").getInt("repeats"));
+    }
+    
+    @Test
+    public void queuedItemsAreSentAsOneBatch() throws Exception {
+        appender.stop();
+        appender.setAsync(true);
+        appender.setLingerMillis(60000);
+        appender.setBatchSize(3);
+        appender.start();
+        
+        for (int i = 0; i < 3; i++) {
+            rootLogger.error("batched " + i);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (httpRequester.getRequestCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        
+        assertEquals(3, httpRequester.getRequestCount());
+        assertEquals(3, httpRequester.getLargestBatch());
+        appender.stop();
+    }
+    
+    @Test
+    public void failedSendsAreRetried() throws Exception {
+        appender.stop();
+        appender.setRetryBaseDelayMillis(10);
+        appender.setRetryMaxDelayMillis(20);
+        appender.start();
+        httpRequester.queueResponseCodes(503, 500);
+        
+        rootLogger.error("flaky");
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (httpRequester.getRequestCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, httpRequester.getRequestCount());
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals("flaky", root.getJSONObject("data").getJSONObject("body").getJSONObject("message").get("body"));
+    }
+
+    @Test
+    public void circuitBreakerStopsSendingToFailingEndpoint() throws Exception {
+        appender.stop();
+        appender.setMaxRetries(0);
+        appender.setCircuitBreakerFailureThreshold(2);
+        appender.setCircuitBreakerOpenMillis(60000);
+        appender.start();
+        httpRequester.setResponseCode(503);
+        
+        for (int i = 0; i < 5; i++) {
+            rootLogger.error("down");
+        }
+        
+        assertEquals(2, httpRequester.getRequestCount());
+        assertEquals(3, appender.getCircuitBreakerRejectedCount());
+    }
+    
+    @Test
+    public void throttlingDoesNotOpenTheCircuitBreaker() throws Exception {
+        appender.stop();
+        appender.setMaxRetries(0);
+        appender.setCircuitBreakerFailureThreshold(2);
+        appender.setCircuitBreakerOpenMillis(60000);
+        appender.start();
+        httpRequester.setResponseCode(429);
+        
+        for (int i = 0; i < 5; i++) {
+            rootLogger.error("throttled");
+        }
+        
+        assertEquals(5, httpRequester.getRequestCount());
+        assertEquals(0, appender.getCircuitBreakerRejectedCount());
+    }
+    
+    @Test
+    public void serverQuotaRunningOutKeepsItForErrors() throws Exception {
+        appender.stop();
+        appender.setServerRateLimit(true);
+        appender.setClock(new ManualClock());
+        appender.start();
+        httpRequester.setResponseHeader("X-Rate-Limit-Limit", "100");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining", "10");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining-Seconds", "60");
+        
+        rootLogger.info("before the quota is known");
+        rootLogger.info("shed");
+        rootLogger.error("sent");
+        // errors are spread over the period, this one has to wait
+        rootLogger.error("too soon");
+        
+        assertEquals(2, httpRequester.getRequestCount());
+        assertEquals(1, appender.getServerRateLimitedCount());
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals("sent", root.getJSONObject("data").getJSONObject("body").getJSONObject("message").get("body"));
+        
+        appender.stop();
+        assertEquals(2, httpRequester.getRequestCount());
+    }
+    
+    @Test
+    public void suppressedOccurrencesOutliveAShedItem() throws Exception {
+        ManualClock clock = new ManualClock();
+        appender.stop();
+        appender.setRateLimitPerSecond(20);
+        appender.setRateLimitBurst(1);
+        appender.setServerRateLimit(true);
+        appender.setClock(clock);
+        appender.start();
+        httpRequester.setResponseHeader("X-Rate-Limit-Limit", "100");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining", "10");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining-Seconds", "60");
+        
+        rootLogger.info("repeated");
+        rootLogger.info("repeated");
+        clock.advance(100);
+        // allowed by the rate limiter, shed by the server's quota
+        rootLogger.info("repeated");
+        assertEquals(1, httpRequester.getRequestCount());
+        assertEquals(1, appender.getRateLimitedCount());
+        assertEquals(1, appender.getServerRateLimitedCount());
+        
+        clock.advance(60000);
+        rootLogger.info("repeated");
+        
+        assertEquals(2, httpRequester.getRequestCount());
+        JSONObject root = new JSONObject(new String(httpRequester.getRequest().getBody()));
+        assertEquals(1, root.getJSONObject("data").getJSONObject("custom").getInt(RollbarAppender.SUPPRESSED_OCCURRENCES));
+    }
+    
+    @Test
+    public void errorsWaitForTheQuotaSpentByThrottledItems() throws Exception {
+        ManualClock clock = new ManualClock();
+        appender.stop();
+        appender.setServerRateLimit(true);
+        appender.setClock(clock);
+        appender.start();
+        httpRequester.queueResponseCodes(429);
+        httpRequester.setResponseHeader("Retry-After", "1");
+        
+        rootLogger.error("throttled");
+        // handed to the retry scheduler, not sent
+        rootLogger.error("held");
+        assertEquals(1, httpRequester.getRequestCount());
+        
+        // the retry and the held error once the second is over
+        clock.advance(1000);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (httpRequester.getRequestCount() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(3, httpRequester.getRequestCount());
+        appender.stop();
+    }
+    
+    @Test
+    public void responsesAreNotHandledOnTheCallbackThread() throws Exception {
+        final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+        final String[] callbackThreadName = new String[1];
+        callbackThread.submit(new Runnable() {
+            @Override
+            public void run() {
+                callbackThreadName[0] = Thread.currentThread().getName();
+            }
+        }).get();
+        final List<String> handlingThreads = Collections.synchronizedList(new ArrayList<String>());
+        loggerContext.getStatusManager().add(new StatusListener() {
+            @Override
+            public void addStatusEvent(Status status) {
+                if (status.getMessage().startsWith("Non-2xx")) {
+                    handlingThreads.add(Thread.currentThread().getName());
+                }
+            }
+        });
+        appender.stop();
+        appender.setAsync(true);
+        appender.setSenderCoreThreads(1);
+        appender.setSenderMaxThreads(1);
+        appender.setMaxRetries(0);
+        appender.setHttpRequester(new CallbackThreadRequester() {
+            @Override
+            public void sendAsync(final HttpRequest request, final ResponseCallback callback) {
+                callbackThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onResponse(request, new HttpResponse(400));
+                    }
+                });
+            }
+        });
+        appender.start();
+        
+        for (int i = 0; i < 100; i++) {
+            rootLogger.error("refused " + i);
+        }
+        appender.stop();
+        callbackThread.shutdown();
+        
+        assertEquals(100, handlingThreads.size());
+        assertFalse(handlingThreads.contains(callbackThreadName[0]));
+    }
+    
+    @Test
+    public void itemsBeyondTheHeldOnesAreShed() throws Exception {
+        appender.stop();
+        appender.setServerRateLimit(true);
+        appender.setServerRateLimitMaxHeldItems(2);
+        appender.setClock(new ManualClock());
+        appender.start();
+        httpRequester.queueResponseCodes(429);
+        httpRequester.setResponseHeader("Retry-After", "1");
+        
+        rootLogger.error("throttled");
+        rootLogger.error("held");
+        rootLogger.error("shed");
+        
+        assertEquals(1, httpRequester.getRequestCount());
+        assertEquals(1, appender.getServerRateLimitedCount());
+        appender.stop();
+    }
+    
+    @Test
+    public void retriedWarningsDoNotUseTheReserve() throws Exception {
+        appender.stop();
+        appender.setServerRateLimit(true);
+        appender.setRetryBaseDelayMillis(10);
+        appender.setRetryMaxDelayMillis(20);
+        appender.setClock(new ManualClock());
+        appender.start();
+        httpRequester.queueResponseCodes(503);
+        httpRequester.setResponseHeader("X-Rate-Limit-Limit", "100");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining", "10");
+        httpRequester.setResponseHeader("X-Rate-Limit-Remaining-Seconds", "60");
+        
+        rootLogger.warn("flaky");
+        
+        long deadline = System.currentTimeMillis() + 5000;
+        while (appender.getServerRateLimitedCount() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, appender.getServerRateLimitedCount());
+        assertEquals(1, httpRequester.getRequestCount());
+        appender.stop();
+    }
+    
+    @Test
+    public void largeItemsAreCompressed() throws Exception {
+        appender.stop();
+        appender.setGzip(true);
+        appender.setGzipThresholdBytes(2048);
+        appender.start();
+        
+        rootLogger.info("small");
+        assertNull(httpRequester.getRequest().getHeaders().get("Content-Encoding"));
+        
+        logFailure();
+        HttpRequest request = httpRequester.getRequest();
+        assertEquals("gzip", request.getHeaders().get("Content-Encoding"));
+        JSONObject root = new JSONObject(new String(TestGzipEncoder.gunzip(request.getBody()), "UTF-8"));
+        assertEquals("error", root.getJSONObject("data").get("level"));
+    }
+    
+    private abstract static class CallbackThreadRequester implements IHttpRequester, IAsyncHttpRequester {
+        @Override
+        public int send(HttpRequest request) {
+            throw new UnsupportedOperationException();
+        }
+    }
+    
+    private void logFailure() {
+        rootLogger.error("failure", new IllegalStateException("boom"));
+    }
 }
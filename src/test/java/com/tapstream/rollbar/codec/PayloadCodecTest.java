@@ -0,0 +1,92 @@
+package com.tapstream.rollbar.codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tapstream.rollbar.NotifierDataProvider;
+import com.tapstream.rollbar.NotifyBuilder;
+import com.tapstream.rollbar.RollbarEvent;
+import com.tapstream.rollbar.ServerDataProvider;
+import com.tapstream.rollbar.json.FrameCache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+public class PayloadCodecTest {
+    private final JsonCodec json = new JsonCodec();
+    private final BinaryCodec binary = new BinaryCodec();
+
+    @Test
+    public void bothCodecsPreserveTheSameItem() throws Exception {
+        Map<String, String> ctx = new HashMap<>();
+        ctx.put("request.url", "http://example.com/\u00e9");
+        ctx.put("request.header.Accept", "*/*");
+        ctx.put("person.id", "42");
+        ctx.put("quote", "say \"hi\"\n\u4e2d\ud83d\ude00");
+        RollbarEvent event = new RollbarEvent(Level.ERROR, "logged",
+                        new ThrowableProxy(new RuntimeException("wrapper", new IllegalStateException("root"))), ctx, "logger", 1234567);
+        Map<String, Object> extra = new LinkedHashMap<>();
+        extra.put("occurrences", 3);
+        extra.put("ratio", 0.25);
+        extra.put("huge", Long.MIN_VALUE);
+        extra.put("flags", Arrays.asList(true, false, null));
+        extra.put("nested", new LinkedHashMap<String, Object>());
+
+        Object fromJson = decode(json, event, extra);
+        Object fromBinary = decode(binary, event, extra);
+
+        assertThat(fromBinary).isEqualTo(fromJson);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> data = (Map<String, Object>) ((Map<String, Object>) fromBinary).get("data");
+        assertThat(((Map<?, ?>) data.get("custom")).get("ratio")).isEqualTo(0.25);
+        assertThat(((Map<?, ?>) data.get("person")).get("id")).isEqualTo("42");
+    }
+
+    @Test
+    public void binaryWriterEncodesEveryKindOfValue() {
+        PayloadWriter writer = binary.newWriter(16, 1024);
+        writer.beginObject().field("n", -1).field("s", "x").name("a").beginArray().value(1.5).value(Long.MAX_VALUE)
+                        .nullValue().endArray().endObject();
+
+        Map<String, Object> expected = new LinkedHashMap<>();
+        expected.put("n", -1L);
+        expected.put("s", "x");
+        expected.put("a", Arrays.<Object>asList(1.5, Long.MAX_VALUE, null));
+        assertThat(binary.decode(writer.buffer(), 0, writer.size())).isEqualTo(expected);
+
+        byte[] members = writer.toMembers();
+        writer.reset().beginObject().field("first", 0).raw(members).endObject();
+        @SuppressWarnings("unchecked")
+        Map<String, Object> spliced = (Map<String, Object>) binary.decode(writer.buffer(), 0, writer.size());
+        assertThat(spliced).hasSize(4).containsEntry("first", 0L).containsEntry("s", "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void truncatedBinaryIsRejected() {
+        PayloadWriter writer = binary.newWriter(16, 1024);
+        writer.beginArray().value("abc").endArray();
+
+        binary.decode(writer.buffer(), 0, writer.size() - 1);
+    }
+
+    private Object decode(PayloadCodec codec, RollbarEvent event, Map<String, Object> extra) throws Exception {
+        NotifyBuilder builder = new NotifyBuilder("key", "env", new ServerDataProvider(), new NotifierDataProvider(), null, codec);
+        builder.setFrameCache(new FrameCache(1000));
+        PayloadWriter out = builder.newWriter();
+        builder.write(out, event, "fp", extra);
+        // the second time frames come from the cache
+        builder.write(out, event, "fp", extra);
+        Object decoded = codec.decode(out.buffer(), 0, out.size());
+        assertThat(decoded).isInstanceOf(Map.class);
+        List<?> chain = (List<?>) ((Map<?, ?>) ((Map<?, ?>) ((Map<?, ?>) decoded).get("data")).get("body")).get("trace_chain");
+        assertThat(chain).hasSize(2);
+        return decoded;
+    }
+}
@@ -0,0 +1,73 @@
+package com.tapstream.rollbar.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+public class BoundedRingBufferTest {
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo() {
+        assertThat(new BoundedRingBuffer<String>(1).capacity()).isEqualTo(1);
+        assertThat(new BoundedRingBuffer<String>(5).capacity()).isEqualTo(8);
+        assertThat(new BoundedRingBuffer<String>(8).capacity()).isEqualTo(8);
+    }
+
+    @Test
+    public void pollsInFifoOrder() {
+        BoundedRingBuffer<String> buffer = new BoundedRingBuffer<>(4);
+        buffer.offer("a");
+        buffer.offer("b");
+        buffer.offer("c");
+
+        assertThat(buffer.poll()).isEqualTo("a");
+        assertThat(buffer.poll()).isEqualTo("b");
+        assertThat(buffer.poll()).isEqualTo("c");
+        assertThat(buffer.poll()).isNull();
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        BoundedRingBuffer<String> buffer = new BoundedRingBuffer<>(2);
+
+        assertThat(buffer.offer("a")).isTrue();
+        assertThat(buffer.offer("b")).isTrue();
+        assertThat(buffer.offer("c")).isFalse();
+        assertThat(buffer.size()).isEqualTo(2);
+
+        buffer.poll();
+        assertThat(buffer.offer("c")).isTrue();
+    }
+
+    @Test
+    public void concurrentProducersLoseNothing() throws Exception {
+        final BoundedRingBuffer<Integer> buffer = new BoundedRingBuffer<>(1 << 16);
+        final int producers = 4;
+        final int perProducer = 10000;
+        final CountDownLatch done = new CountDownLatch(producers);
+        for (int p = 0; p < producers; p++) {
+            final int offset = p * perProducer;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        buffer.offer(offset + i);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+
+        Set<Integer> seen = new HashSet<>();
+        Integer item;
+        while ((item = buffer.poll()) != null) {
+            seen.add(item);
+        }
+        assertThat(seen).hasSize(producers * perProducer);
+    }
+}
@@ -0,0 +1,279 @@
+package com.tapstream.rollbar.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class DispatcherTest {
+
+    private final List<String> handled = new CopyOnWriteArrayList<>();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private Dispatcher<String> dispatcher;
+
+    @After
+    public void teardown() {
+        release.countDown();
+        if (dispatcher != null) {
+            dispatcher.shutdown(0, 0);
+        }
+    }
+
+    private Dispatcher<String> blockedDispatcher(OverflowPolicy policy, final CountDownLatch firstTaken) {
+        dispatcher = new Dispatcher<>("test-dispatcher", 2, policy, 10, 1, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                firstTaken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.addAll(events);
+            }
+        });
+        dispatcher.start();
+        return dispatcher;
+    }
+
+    @Test
+    public void handlesEventsOnConsumerThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(3);
+        dispatcher = new Dispatcher<>("test-dispatcher", 16, OverflowPolicy.DROP_NEWEST, 0, 2, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                for (String event : events) {
+                    handled.add(event + "@" + Thread.currentThread().getName());
+                    latch.countDown();
+                }
+            }
+        });
+        dispatcher.start();
+
+        dispatcher.dispatch("a");
+        dispatcher.dispatch("b");
+        dispatcher.dispatch("c");
+
+        assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+        for (String event : handled) {
+            assertThat(event).contains("@test-dispatcher-");
+        }
+    }
+
+    @Test
+    public void dropNewestDiscardsIncomingEvent() throws Exception {
+        CountDownLatch firstTaken = new CountDownLatch(1);
+        blockedDispatcher(OverflowPolicy.DROP_NEWEST, firstTaken);
+        dispatcher.dispatch("in-flight");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(dispatcher.dispatch("a")).isTrue();
+        assertThat(dispatcher.dispatch("b")).isTrue();
+        assertThat(dispatcher.dispatch("c")).isFalse();
+
+        assertThat(dispatcher.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void dropOldestDiscardsQueuedEvent() throws Exception {
+        CountDownLatch firstTaken = new CountDownLatch(1);
+        blockedDispatcher(OverflowPolicy.DROP_OLDEST, firstTaken);
+        dispatcher.dispatch("in-flight");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+
+        dispatcher.dispatch("a");
+        dispatcher.dispatch("b");
+        assertThat(dispatcher.dispatch("c")).isTrue();
+        release.countDown();
+
+        waitForHandled(3);
+        assertThat(handled).containsExactly("in-flight", "b", "c");
+        assertThat(dispatcher.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void blockGivesUpAfterTimeout() throws Exception {
+        CountDownLatch firstTaken = new CountDownLatch(1);
+        blockedDispatcher(OverflowPolicy.BLOCK, firstTaken);
+        dispatcher.dispatch("in-flight");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+
+        dispatcher.dispatch("a");
+        dispatcher.dispatch("b");
+        long started = System.nanoTime();
+        assertThat(dispatcher.dispatch("c")).isFalse();
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started)).isGreaterThanOrEqualTo(10);
+        assertThat(dispatcher.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void lingersUntilBatchIsFull() throws Exception {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        dispatcher = new Dispatcher<>("test-dispatcher", 16, OverflowPolicy.DROP_NEWEST, 0, 1, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                batchSizes.add(events.size());
+                handled.addAll(events);
+            }
+        });
+        dispatcher.setBatchSize(3);
+        dispatcher.setLingerMillis(2000);
+        dispatcher.start();
+
+        dispatcher.dispatch("a");
+        Thread.sleep(50);
+        dispatcher.dispatch("b");
+        dispatcher.dispatch("c");
+
+        waitForHandled(3);
+        assertThat(batchSizes).containsExactly(3);
+        assertThat(handled).containsExactly("a", "b", "c");
+    }
+
+    @Test
+    public void handlesPartialBatchAfterLinger() throws Exception {
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        dispatcher = new Dispatcher<>("test-dispatcher", 16, OverflowPolicy.DROP_NEWEST, 0, 1, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                batchSizes.add(events.size());
+                handled.addAll(events);
+            }
+        });
+        dispatcher.setBatchSize(10);
+        dispatcher.setLingerMillis(20);
+        dispatcher.start();
+
+        dispatcher.dispatch("a");
+        dispatcher.dispatch("b");
+
+        waitForHandled(2);
+        assertThat(batchSizes).containsExactly(2);
+    }
+
+    @Test
+    public void shutdownFlushesQueueInParallel() throws Exception {
+        final List<String> threads = new CopyOnWriteArrayList<>();
+        dispatcher = new Dispatcher<>("test-dispatcher", 64, OverflowPolicy.DROP_NEWEST, 0, 1, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                threads.add(Thread.currentThread().getName());
+                sleep(20);
+                handled.addAll(events);
+            }
+        });
+        dispatcher.start();
+        for (int i = 0; i < 20; i++) {
+            dispatcher.dispatch("e" + i);
+        }
+
+        ShutdownReport report = dispatcher.shutdown(5000, 4);
+
+        assertThat(report.getFlushed()).isGreaterThan(0);
+        assertThat(report.getAbandoned()).isEqualTo(0);
+        assertThat(handled).hasSize(20);
+        assertThat(new HashSet<>(threads).size()).isGreaterThan(1);
+        assertThat(dispatcher.dispatch("late")).isFalse();
+    }
+
+    @Test
+    public void shutdownAbandonsWhatIsLeftAtDeadline() throws Exception {
+        CountDownLatch firstTaken = new CountDownLatch(1);
+        blockedDispatcher(OverflowPolicy.DROP_NEWEST, firstTaken);
+        dispatcher.dispatch("in-flight");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+        dispatcher.dispatch("a");
+
+        ShutdownReport report = dispatcher.shutdown(50, 1);
+
+        assertThat(report.getFlushed()).isEqualTo(0);
+        assertThat(report.getAbandoned()).isEqualTo(2);
+    }
+
+    @Test
+    public void lanesAreServedByWeight() throws Exception {
+        final CountDownLatch firstTaken = new CountDownLatch(1);
+        laneDispatcher(new Lane(16, OverflowPolicy.DROP_NEWEST, 0, 2), new Lane(16, OverflowPolicy.DROP_NEWEST, 0, 1),
+                        firstTaken);
+        dispatcher.dispatch("e0");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 6; i++) {
+            dispatcher.dispatch("e" + i);
+        }
+        dispatcher.dispatch("i1");
+        dispatcher.dispatch("i2");
+
+        release.countDown();
+
+        waitForHandled(9);
+        assertThat(handled).containsExactly("e0", "e1", "i1", "e2", "e3", "i2", "e4", "e5", "e6");
+    }
+
+    @Test
+    public void lanesHaveTheirOwnCapacityAndPolicy() throws Exception {
+        final CountDownLatch firstTaken = new CountDownLatch(1);
+        laneDispatcher(new Lane(2, OverflowPolicy.DROP_NEWEST, 0, 1), new Lane(2, OverflowPolicy.DROP_OLDEST, 0, 1),
+                        firstTaken);
+        dispatcher.dispatch("e0");
+        assertThat(firstTaken.await(5, TimeUnit.SECONDS)).isTrue();
+        for (int i = 1; i <= 3; i++) {
+            dispatcher.dispatch("e" + i);
+            dispatcher.dispatch("i" + i);
+        }
+
+        assertThat(dispatcher.getDroppedCount(0)).isEqualTo(1);
+        assertThat(dispatcher.getDroppedCount(1)).isEqualTo(1);
+        assertThat(dispatcher.getCapacity()).isEqualTo(4);
+        release.countDown();
+        waitForHandled(5);
+        assertThat(handled).containsOnly("e0", "e1", "e2", "i2", "i3");
+    }
+
+    /**
+     * Two lanes: events starting with "e" go to the first one, the others to the second. The consumer takes one
+     * event at a time and holds on to the first one until released.
+     */
+    private void laneDispatcher(Lane first, Lane second, final CountDownLatch firstTaken) {
+        dispatcher = new Dispatcher<>("test-dispatcher", Arrays.asList(first, second), new LaneSelector<String>() {
+            @Override
+            public int laneOf(String event) {
+                return event.startsWith("e") ? 0 : 1;
+            }
+        }, 1, new EventHandler<String>() {
+            @Override
+            public void handle(List<String> events) {
+                firstTaken.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                handled.addAll(events);
+            }
+        });
+        dispatcher.start();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitForHandled(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (handled.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.tapstream.rollbar.dispatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeNotNull;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SenderExecutorsTest {
+
+    private ExecutorService executor;
+
+    @After
+    public void teardown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void platformExecutorUsesNamedDaemonThreads() throws Exception {
+        executor = SenderExecutors.newPlatformExecutor("sender", 1, 2, 1000);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+
+        executor.submit(recordThread(thread)).get(1, TimeUnit.SECONDS);
+
+        assertThat(thread.get().getName()).isEqualTo("sender-0");
+        assertThat(thread.get().isDaemon()).isTrue();
+    }
+
+    @Test
+    public void callerSendsWhenAllThreadsAreBusy() throws Exception {
+        executor = SenderExecutors.newPlatformExecutor("sender", 0, 1, 1000);
+        final CountDownLatch release = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        AtomicReference<Thread> thread = new AtomicReference<>();
+
+        executor.execute(recordThread(thread));
+
+        assertThat(thread.get()).isSameAs(Thread.currentThread());
+        release.countDown();
+    }
+
+    @Test
+    public void callerSendsAfterShutdown() {
+        executor = SenderExecutors.newPlatformExecutor("sender", 1, 1, 1000);
+        executor.shutdown();
+        AtomicReference<Thread> thread = new AtomicReference<>();
+
+        executor.execute(recordThread(thread));
+
+        assertThat(thread.get()).isSameAs(Thread.currentThread());
+    }
+
+    @Test
+    public void virtualThreadExecutorWhenSupported() throws Exception {
+        executor = SenderExecutors.newVirtualThreadExecutor("sender");
+        assumeNotNull(executor);
+        AtomicReference<Thread> thread = new AtomicReference<>();
+
+        executor.submit(recordThread(thread)).get(1, TimeUnit.SECONDS);
+
+        assertThat(thread.get().getName()).isEqualTo("sender-0");
+        assertThat(thread.get().isDaemon()).isTrue();
+    }
+
+    private static Runnable recordThread(final AtomicReference<Thread> thread) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                thread.set(Thread.currentThread());
+            }
+        };
+    }
+}
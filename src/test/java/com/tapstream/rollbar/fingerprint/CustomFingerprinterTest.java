@@ -5,6 +5,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 import com.tapstream.rollbar.fingerprinter.CustomFingerprinter;
 import com.tapstream.rollbar.fingerprinter.HasFingerprint;
 
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyVO;
+
 import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -209,4 +212,15 @@ public class CustomFingerprinterTest {
         
         assertThat(e1).isEqualTo(e2);
     }
+
+    @Test
+    public void serializedProxyFingerprintIsTheExceptionFingerprint() {
+        Exception e = new RuntimeException("x", new IllegalStateException("y"));
+        ThrowableProxyVO serialized = ThrowableProxyVO.build(new ThrowableProxy(e));
+
+        String f = fingerprinter.fingerprintProxy("msg", serialized, null, null);
+
+        assertThat(f).isEqualTo(fingerprinter.fingerprint("msg", e, null, null));
+        assertThat(fingerprinter.fingerprintProxy("msg", new ThrowableProxy(e), null, null)).isEqualTo(f);
+    }
 }
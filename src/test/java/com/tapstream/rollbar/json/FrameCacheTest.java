@@ -0,0 +1,39 @@
+package com.tapstream.rollbar.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class FrameCacheTest {
+
+    private static StackTraceElement frame(int line) {
+        return new StackTraceElement("com.example.Service", "call", "Service.java", line);
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        FrameCache cache = new FrameCache(100);
+        byte[] encoded = { '{', '}' };
+
+        assertThat(cache.get(frame(1))).isNull();
+        cache.put(frame(1), encoded);
+
+        assertThat(cache.get(frame(1))).isSameAs(encoded);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFrames() {
+        FrameCache cache = new FrameCache(64);
+        for (int line = 0; line < 1000; line++) {
+            cache.put(frame(line), new byte[0]);
+            // keep the first frame in use
+            cache.get(frame(0));
+        }
+
+        assertThat(cache.size()).isLessThanOrEqualTo(64);
+        assertThat(cache.get(frame(0))).isNotNull();
+        assertThat(cache.get(frame(1))).isNull();
+    }
+}
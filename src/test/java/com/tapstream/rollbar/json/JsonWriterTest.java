@@ -0,0 +1,120 @@
+package com.tapstream.rollbar.json;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tapstream.rollbar.codec.LimitExceededException;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class JsonWriterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final JsonWriter writer = new JsonWriter(16, 64);
+
+    private String written() {
+        return new String(writer.toByteArray(), UTF_8);
+    }
+
+    @Test
+    public void separatesValuesWithCommas() {
+        writer.beginObject()
+            .field("a", 1)
+            .name("b").beginArray().value(1).value("x").value(true).nullValue().beginObject().endObject().endArray()
+            .name("c").beginObject().field("d", -42).endObject()
+            .endObject();
+
+        assertThat(written()).isEqualTo("{\"a\":1,\"b\":[1,\"x\",true,null,{}],\"c\":{\"d\":-42}}");
+    }
+
+    @Test
+    public void skipsNullFields() {
+        writer.beginObject().field("a", (String) null).field("b", "x").endObject();
+
+        assertThat(written()).isEqualTo("{\"b\":\"x\"}");
+    }
+
+    @Test
+    public void escapesAndEncodesStrings() throws Exception {
+        String value = "quote\" backslash\\ newline\n tab\t control\u0001 accent\u00e9 cjk\u4e2d emoji\ud83d\ude00";
+        writer.beginObject().field("value", value).endObject();
+
+        assertThat(written()).contains("\\\"", "\\\\", "\\n", "\\t", "\\u0001");
+        assertThat(new JSONObject(written()).getString("value")).isEqualTo(value);
+        assertThat(written().getBytes(UTF_8)).isEqualTo(writer.toByteArray());
+    }
+
+    @Test
+    public void replacesUnpairedSurrogates() {
+        writer.value("a\ud83db");
+
+        assertThat(written()).isEqualTo("\"a?b\"");
+    }
+
+    @Test
+    public void writesNumbers() {
+        writer.beginArray().value(0).value(Long.MAX_VALUE).value(Long.MIN_VALUE).value((Object) 2.5).value((Object) 3.0)
+            .value((Object) Double.NaN).endArray();
+
+        assertThat(written()).isEqualTo("[0,9223372036854775807,-9223372036854775808,2.5,3,\"NaN\"]");
+    }
+
+    @Test
+    public void writesObjectsLikeJsonObjectWrap() throws Exception {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("list", Arrays.asList("a", 1));
+        map.put("array", new int[] { 1, 2 });
+        map.put("nested", Collections.singletonMap("k", "v"));
+        map.put("skipped", null);
+        map.put("other", new StringBuilder("text"));
+
+        writer.value(map);
+
+        assertThat(written()).isEqualTo("{\"list\":[\"a\",1],\"array\":[1,2],\"nested\":{\"k\":\"v\"},\"other\":\"text\"}");
+    }
+
+    @Test
+    public void splicesPreEncodedMembers() throws Exception {
+        byte[] members = writer.beginObject().field("a", "x").field("b", 2).endObject().toMembers();
+
+        writer.reset().beginObject().field("first", 1).raw(members).name("last").raw("[]".getBytes(UTF_8))
+            .endObject();
+
+        assertThat(written()).isEqualTo("{\"first\":1,\"a\":\"x\",\"b\":2,\"last\":[]}");
+        writer.reset().beginObject().raw(members).endObject();
+        assertThat(new JSONObject(written()).getInt("b")).isEqualTo(2);
+    }
+
+    @Test
+    public void resetReusesBufferUnlessItGrewTooLarge() {
+        writer.value("a long value that does not fit in sixteen bytes");
+        writer.reset().value("small");
+        assertThat(written()).isEqualTo("\"small\"");
+
+        char[] large = new char[100];
+        Arrays.fill(large, 'x');
+        writer.reset().value(new String(large));
+        writer.reset().beginArray().endArray();
+        assertThat(written()).isEqualTo("[]");
+    }
+
+    @Test
+    public void writesPastTheLimitAreRefused() {
+        writer.limit(10).beginArray().value("abc");
+        try {
+            writer.value("a string that can never fit");
+            throw new AssertionError("limit not enforced");
+        } catch (LimitExceededException e) {
+            assertThat(writer.size()).isLessThanOrEqualTo(10);
+        }
+
+        writer.limit(Integer.MAX_VALUE).reset().beginArray().value("a string that can never fit").endArray();
+        assertThat(written()).isEqualTo("[\"a string that can never fit\"]");
+    }
+}
@@ -0,0 +1,57 @@
+package com.tapstream.rollbar.retry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.tapstream.rollbar.retry.CircuitBreaker.Permission;
+import com.tapstream.rollbar.retry.CircuitBreaker.State;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 1000);
+
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        breaker.onSuccess();
+        breaker.onFailure(0);
+        breaker.onFailure(0);
+        assertThat(breaker.acquire(0)).isEqualTo(Permission.ALL);
+
+        breaker.onFailure(0);
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.acquire(999)).isEqualTo(Permission.NONE);
+        assertThat(breaker.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void letsOneProbeThroughAfterTheOpenPeriod() {
+        CircuitBreaker breaker = new CircuitBreaker(1, 1000);
+        breaker.onFailure(0);
+
+        assertThat(breaker.acquire(1000)).isEqualTo(Permission.PROBE);
+        assertThat(breaker.getState()).isEqualTo(State.HALF_OPEN);
+        assertThat(breaker.acquire(1001)).isEqualTo(Permission.NONE);
+
+        breaker.onSuccess();
+        assertThat(breaker.getState()).isEqualTo(State.CLOSED);
+        assertThat(breaker.acquire(1002)).isEqualTo(Permission.ALL);
+    }
+
+    @Test
+    public void failedProbeOpensTheCircuitAgain() {
+        CircuitBreaker breaker = new CircuitBreaker(5, 1000);
+        for (int i = 0; i < 5; i++) {
+            breaker.onFailure(0);
+        }
+        assertThat(breaker.acquire(1000)).isEqualTo(Permission.PROBE);
+
+        breaker.onFailure(1500);
+
+        assertThat(breaker.getState()).isEqualTo(State.OPEN);
+        assertThat(breaker.acquire(2499)).isEqualTo(Permission.NONE);
+        assertThat(breaker.acquire(2500)).isEqualTo(Permission.PROBE);
+    }
+}
@@ -0,0 +1,68 @@
+package com.tapstream.rollbar.retry;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.tapstream.rollbar.HttpResponse;
+
+public class RetryPolicyTest {
+
+    @Test
+    public void backoffGrowsExponentiallyUpToTheMaximum() {
+        RetryPolicy policy = new RetryPolicy(10, 100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertThat(policy.delayMillis(0, null)).isBetween(0L, 100L);
+            assertThat(policy.delayMillis(2, null)).isBetween(0L, 400L);
+            assertThat(policy.delayMillis(9, null)).isBetween(0L, 1000L);
+        }
+    }
+
+    @Test
+    public void backoffIsJittered() {
+        RetryPolicy policy = new RetryPolicy(10, 1000, 1000);
+        long first = policy.delayMillis(0, null);
+        boolean varied = false;
+        for (int i = 0; i < 100 && !varied; i++) {
+            varied = policy.delayMillis(0, null) != first;
+        }
+        assertThat(varied).isTrue();
+    }
+
+    @Test
+    public void stopsAfterMaxRetries() {
+        RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+        assertThat(policy.delayMillis(1, null)).isNotEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(policy.delayMillis(2, null)).isEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void onlyThrottlingAndServerErrorsAreRetried() {
+        RetryPolicy policy = new RetryPolicy(2, 100, 1000);
+        assertThat(policy.delayMillis(0, new HttpResponse(400))).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(policy.delayMillis(0, new HttpResponse(422))).isEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(policy.delayMillis(0, new HttpResponse(500))).isNotEqualTo(RetryPolicy.NO_RETRY);
+        assertThat(policy.delayMillis(0, new HttpResponse(429))).isNotEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void honorsRetryAfterOnThrottling() {
+        RetryPolicy policy = new RetryPolicy(2, 100, 10000);
+        HttpResponse throttled = new HttpResponse(429, Collections.singletonMap("retry-after", "3"));
+        assertThat(policy.delayMillis(0, throttled)).isEqualTo(3000);
+
+        HttpResponse tooLong = new HttpResponse(429, Collections.singletonMap("Retry-After", "60"));
+        assertThat(policy.delayMillis(0, tooLong)).isEqualTo(RetryPolicy.NO_RETRY);
+    }
+
+    @Test
+    public void parsesRetryAfterDates() {
+        long now = 1445412480000L; // Wed, 21 Oct 2015 07:28:00 GMT
+        assertThat(RetryPolicy.retryAfterMillis("Wed, 21 Oct 2015 07:28:05 GMT", now)).isEqualTo(5000);
+        assertThat(RetryPolicy.retryAfterMillis("Wed, 21 Oct 2015 07:27:00 GMT", now)).isEqualTo(0);
+        assertThat(RetryPolicy.retryAfterMillis("soon", now)).isEqualTo(-1);
+        assertThat(RetryPolicy.retryAfterMillis(null, now)).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,143 @@
+package com.tapstream.rollbar.spool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class SpoolJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+
+    private static String text(SpoolRecord record) {
+        return new String(record.getData());
+    }
+
+    @Test
+    public void readsRecordsInOrderUntilCommitted() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        journal.append(bytes("a"));
+        journal.append(bytes("b"));
+
+        List<SpoolRecord> records = journal.read(10);
+        assertThat(records).hasSize(2);
+        assertThat(text(records.get(0))).isEqualTo("a");
+        assertThat(text(records.get(1))).isEqualTo("b");
+        assertThat(journal.read(10)).hasSize(2);
+
+        journal.commit(records.get(0));
+        assertThat(text(journal.read(10).get(0))).isEqualTo("b");
+
+        journal.commit(records.get(1));
+        assertThat(journal.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void survivesReopening() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        journal.append(bytes("a"));
+        journal.append(bytes("b"));
+        journal.commit(journal.read(1).get(0));
+        journal.close();
+
+        SpoolJournal reopened = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        List<SpoolRecord> records = reopened.read(10);
+        assertThat(records).hasSize(1);
+        assertThat(text(records.get(0))).isEqualTo("b");
+
+        reopened.append(bytes("c"));
+        assertThat(reopened.read(10)).hasSize(2);
+    }
+
+    @Test
+    public void rotatesSegmentsAndDeletesConsumedOnes() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 64, 1024);
+        for (int i = 0; i < 10; i++) {
+            journal.append(bytes("record-" + i));
+        }
+        assertThat(segmentFiles()).isGreaterThan(1);
+
+        List<SpoolRecord> records = journal.read(100);
+        assertThat(records).hasSize(10);
+        assertThat(text(records.get(9))).isEqualTo("record-9");
+
+        journal.commit(records.get(9));
+        assertThat(segmentFiles()).isEqualTo(1);
+    }
+
+    @Test
+    public void dropsOldestSegmentWhenOverBudget() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 64, 128);
+        for (int i = 0; i < 10; i++) {
+            journal.append(bytes("record-" + i));
+        }
+
+        List<SpoolRecord> records = journal.read(100);
+        assertThat(journal.getDroppedCount()).isGreaterThan(0);
+        assertThat(records.size() + journal.getDroppedCount()).isEqualTo(10);
+        assertThat(text(records.get(records.size() - 1))).isEqualTo("record-9");
+    }
+
+    @Test
+    public void rejectsRecordsLargerThanSegment() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 64, 1024);
+
+        assertThat(journal.append(new byte[100])).isFalse();
+        assertThat(journal.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void rejectsEmptyRecordsWithoutHidingLaterOnes() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        journal.append(bytes("a"));
+
+        assertThat(journal.append(new byte[0])).isFalse();
+        journal.append(bytes("b"));
+
+        List<SpoolRecord> records = journal.read(10);
+        assertThat(records).hasSize(2);
+        assertThat(text(records.get(1))).isEqualTo("b");
+        assertThat(journal.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void ignoresCorruptedRecordOnReopen() throws Exception {
+        SpoolJournal journal = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        journal.append(bytes("good"));
+        journal.append(bytes("torn"));
+        journal.close();
+
+        File segment = folder.getRoot().listFiles()[0].getName().startsWith("segment")
+                        ? folder.getRoot().listFiles()[0] : folder.getRoot().listFiles()[1];
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            // flip a byte of the second record's payload
+            raf.seek(8 + 4 + 8);
+            raf.write('X');
+        }
+
+        SpoolJournal reopened = new SpoolJournal(folder.getRoot(), 1024, 4096);
+        List<SpoolRecord> records = reopened.read(10);
+        assertThat(records).hasSize(1);
+        assertThat(text(records.get(0))).isEqualTo("good");
+    }
+
+    private int segmentFiles() {
+        int count = 0;
+        for (String name : folder.getRoot().list()) {
+            if (name.startsWith("segment-")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
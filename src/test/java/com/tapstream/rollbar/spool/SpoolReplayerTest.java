@@ -0,0 +1,107 @@
+package com.tapstream.rollbar.spool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import com.tapstream.rollbar.HttpRequest;
+import com.tapstream.rollbar.HttpRequester;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class SpoolReplayerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private HttpServer server;
+    private int port;
+    private SpoolJournal journal;
+    private SpoolReplayer replayer;
+
+    @Before
+    public void setup() throws Exception {
+        server = startServer(0);
+        port = server.getAddress().getPort();
+        journal = new SpoolJournal(folder.getRoot(), 4096, 65536);
+        final HttpRequester requester = new HttpRequester();
+        replayer = new SpoolReplayer("test-spool", journal, new SpoolReplayer.Sender() {
+            @Override
+            public int send(byte[] record) throws IOException {
+                HttpRequest request = new HttpRequest(new URL("http://127.0.0.1:" + port + "/"), "POST");
+                request.setBody(record);
+                return requester.send(request);
+            }
+        }, 3, 60000);
+        replayer.start();
+    }
+
+    @After
+    public void teardown() {
+        replayer.stop(5000);
+        server.stop(0);
+    }
+
+    private HttpServer startServer(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                StringBuilder body = new StringBuilder();
+                try (InputStream in = exchange.getRequestBody()) {
+                    int c;
+                    while ((c = in.read()) >= 0) {
+                        body.append((char) c);
+                    }
+                }
+                received.add(body.toString());
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    @Test
+    public void replaysEverythingWhenEndpointIsUp() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            journal.append(("item-" + i).getBytes());
+        }
+
+        assertThat(replayer.replay()).isEqualTo(10);
+
+        assertThat(received).hasSize(10);
+        assertThat(received).contains("item-0", "item-9");
+        assertThat(journal.isEmpty()).isTrue();
+        assertThat(replayer.getReplayedCount()).isEqualTo(10);
+    }
+
+    @Test
+    public void keepsRecordsWhileEndpointIsDownAndReplaysWhenItIsBack() throws Exception {
+        server.stop(0);
+        journal.append("item-0".getBytes());
+        journal.append("item-1".getBytes());
+
+        assertThat(replayer.replay()).isEqualTo(0);
+        assertThat(journal.read(10)).hasSize(2);
+
+        server = startServer(port);
+        assertThat(replayer.replay()).isEqualTo(2);
+        assertThat(received).containsExactly("item-0", "item-1");
+        assertThat(journal.isEmpty()).isTrue();
+    }
+}
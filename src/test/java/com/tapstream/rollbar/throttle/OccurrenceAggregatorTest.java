@@ -0,0 +1,117 @@
+package com.tapstream.rollbar.throttle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.tapstream.rollbar.ManualClock;
+import com.tapstream.rollbar.RollbarEvent;
+import com.tapstream.rollbar.dispatch.EventHandler;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import ch.qos.logback.classic.Level;
+
+public class OccurrenceAggregatorTest {
+
+    private final List<OccurrenceAggregate> flushed = new ArrayList<>();
+    private final ManualClock clock = new ManualClock();
+    private final OccurrenceAggregator aggregator = new OccurrenceAggregator("test-aggregator", 10000, 2, 2,
+                    new EventHandler<OccurrenceAggregate>() {
+                        @Override
+                        public void handle(List<OccurrenceAggregate> events) {
+                            flushed.addAll(events);
+                        }
+                    }, clock);
+
+    private RollbarEvent event(String message, long timestamp, String user) {
+        return new RollbarEvent(Level.ERROR, message, null, Collections.singletonMap("user", user), "logger", timestamp);
+    }
+
+    @Test
+    public void collapsesRepeatsOfSameKey() {
+        assertThat(aggregator.add("a", "fp", event("first", 1000, "u1"))).isFalse();
+        assertThat(aggregator.add("a", "fp", event("second", 5000, "u2"))).isTrue();
+        aggregator.add("a", "fp", event("third", 3000, "u1"));
+        aggregator.add("a", "fp", event("fourth", 2000, "u1"));
+        aggregator.add("b", null, event("other", 2000, "u1"));
+
+        aggregator.flush(Long.MAX_VALUE);
+
+        assertThat(flushed).hasSize(1);
+        OccurrenceAggregate a = flushed.get(0);
+        assertThat(a.getCount()).isEqualTo(3);
+        assertThat(a.getFirstEvent().getMessage()).isEqualTo("second");
+
+        Map<String, Object> custom = a.toCustomData();
+        assertThat(custom.get("repeats")).isEqualTo(3L);
+        assertThat(custom.get("first_occurrence_timestamp")).isEqualTo(2L);
+        assertThat(custom.get("last_occurrence_timestamp")).isEqualTo(5L);
+        assertThat(custom.get("sample_messages")).isEqualTo(Arrays.asList("second", "third"));
+        assertThat(custom.get("sample_context")).isEqualTo(Collections.singletonMap("user", Arrays.asList("u2", "u1")));
+        assertThat(aggregator.getOpenWindowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void singleOccurrenceIsOnlySentRightAway() {
+        assertThat(aggregator.add("a", null, event("only", 1000, "u1"))).isFalse();
+
+        aggregator.flush(Long.MAX_VALUE);
+
+        assertThat(flushed).isEmpty();
+        assertThat(aggregator.getOpenWindowCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void singleRepeatHasNoAggregateData() {
+        aggregator.add("a", null, event("first", 1000, "u1"));
+        aggregator.add("a", null, event("repeat", 1000, "u1"));
+
+        aggregator.flush(Long.MAX_VALUE);
+
+        assertThat(flushed.get(0).toCustomData()).isEmpty();
+    }
+
+    @Test
+    public void keepsWindowOpenUntilItExpires() {
+        aggregator.add("a", null, event("first", 1000, "u1"));
+        aggregator.add("a", null, event("second", 1000, "u1"));
+
+        clock.advance(9999);
+        aggregator.flush(clock.currentTimeMillis());
+        assertThat(flushed).isEmpty();
+
+        clock.advance(1);
+        aggregator.flush(clock.currentTimeMillis());
+        assertThat(flushed).hasSize(1);
+    }
+
+    @Test
+    public void rejectsNewKeysWhenFull() {
+        aggregator.add("a", null, event("a", 1000, "u1"));
+        aggregator.add("b", null, event("b", 1000, "u1"));
+
+        assertThat(aggregator.add("c", null, event("c", 1000, "u1"))).isFalse();
+        assertThat(aggregator.add("c", null, event("c", 1000, "u1"))).isFalse();
+        assertThat(aggregator.getOpenWindowCount()).isEqualTo(2);
+        assertThat(aggregator.add("a", null, event("a", 1000, "u1"))).isTrue();
+    }
+
+    @Test
+    public void startsNewWindowAfterFlush() {
+        aggregator.add("a", null, event("first", 1000, "u1"));
+        aggregator.add("a", null, event("repeat", 1000, "u1"));
+        aggregator.flush(Long.MAX_VALUE);
+
+        assertThat(aggregator.add("a", null, event("second", 2000, "u1"))).isFalse();
+        aggregator.add("a", null, event("repeat", 2000, "u1"));
+        aggregator.flush(Long.MAX_VALUE);
+
+        assertThat(flushed).hasSize(2);
+        assertThat(flushed.get(1).getFirstEvent().getTimestamp()).isEqualTo(2000);
+    }
+}
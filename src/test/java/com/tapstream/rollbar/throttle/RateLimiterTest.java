@@ -0,0 +1,78 @@
+package com.tapstream.rollbar.throttle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void allowsBurstThenSuppresses() {
+        RateLimiter limiter = new RateLimiter(1, 3, 100);
+
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(-1);
+        assertThat(limiter.getSuppressedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void keysAreLimitedIndependently() {
+        RateLimiter limiter = new RateLimiter(1, 1, 100);
+
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(-1);
+        assertThat(limiter.tryAcquire("b", 0)).isEqualTo(0);
+    }
+
+    @Test
+    public void refillsAtConfiguredRateAndReportsSuppressed() {
+        RateLimiter limiter = new RateLimiter(2, 1, 100);
+
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", SECOND / 10)).isEqualTo(-1);
+        assertThat(limiter.tryAcquire("a", SECOND / 5)).isEqualTo(-1);
+
+        assertThat(limiter.tryAcquire("a", SECOND / 2)).isEqualTo(2);
+        assertThat(limiter.tryAcquire("a", SECOND)).isEqualTo(0);
+    }
+
+    @Test
+    public void restoredCountIsReportedByTheNextPermittedOccurrence() {
+        RateLimiter limiter = new RateLimiter(1, 1, 100);
+
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 0)).isEqualTo(-1);
+        assertThat(limiter.tryAcquire("a", SECOND)).isEqualTo(1);
+        limiter.restore("a", 1);
+
+        assertThat(limiter.tryAcquire("a", 2 * SECOND)).isEqualTo(1);
+    }
+
+    @Test
+    public void refillNeverExceedsBurst() {
+        RateLimiter limiter = new RateLimiter(100, 2, 100);
+
+        limiter.tryAcquire("a", 0);
+        assertThat(limiter.tryAcquire("a", 100 * SECOND)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 100 * SECOND)).isEqualTo(0);
+        assertThat(limiter.tryAcquire("a", 100 * SECOND)).isEqualTo(-1);
+    }
+
+    @Test
+    public void forgetsLeastRecentlyUsedKeys() {
+        RateLimiter limiter = new RateLimiter(1, 1, 16);
+        limiter.tryAcquire("first", 0);
+
+        for (int i = 0; i < 1000; i++) {
+            limiter.tryAcquire("key" + i, 0);
+        }
+
+        assertThat(limiter.tryAcquire("first", 0)).isEqualTo(0);
+    }
+}
@@ -0,0 +1,122 @@
+package com.tapstream.rollbar.throttle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.tapstream.rollbar.HttpResponse;
+
+public class ServerQuotaTest {
+
+    private static HttpResponse response(int status, String... headers) {
+        Map<String, String> map = new HashMap<>();
+        for (int i = 0; i < headers.length; i += 2) {
+            map.put(headers[i], headers[i + 1]);
+        }
+        return new HttpResponse(status, map);
+    }
+
+    private static HttpResponse quota(long limit, long remaining, long remainingSeconds) {
+        return response(200, "X-Rate-Limit-Limit", String.valueOf(limit), "X-Rate-Limit-Remaining",
+                        String.valueOf(remaining), "X-Rate-Limit-Remaining-Seconds", String.valueOf(remainingSeconds));
+    }
+
+    @Test
+    public void sendsEverythingWithoutQuotaHeaders() {
+        ServerQuota quota = new ServerQuota(0.2);
+        quota.update(response(200), 0);
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(quota.acquire(false, false, 0)).isEqualTo(0);
+        }
+        assertThat(quota.getShedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void shedsOtherItemsOnceOnlyTheReserveIsLeft() {
+        ServerQuota quota = new ServerQuota(0.2);
+        quota.update(quota(100, 22, 60), 0);
+
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(ServerQuota.SHED);
+        assertThat(quota.getShedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void keepsTheReserveWithoutALimitHeader() {
+        ServerQuota quota = new ServerQuota(0.5);
+        quota.update(response(200, "X-Rate-Limit-Remaining", "4", "X-Rate-Limit-Remaining-Seconds", "60"), 0);
+
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        quota.update(response(200, "X-Rate-Limit-Remaining", "2", "X-Rate-Limit-Remaining-Seconds", "60"), 0);
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(ServerQuota.SHED);
+        assertThat(quota.acquire(true, true, 0)).isEqualTo(0);
+    }
+
+    @Test
+    public void spreadsImportantItemsOverThePeriodLeft() {
+        ServerQuota quota = new ServerQuota(0.2);
+        quota.update(quota(100, 10, 60), 0);
+
+        // 10 left for 60 seconds, one every 6 seconds
+        assertThat(quota.acquire(true, true, 0)).isEqualTo(0);
+        assertThat(quota.acquire(true, true, 1000)).isEqualTo(5000);
+        assertThat(quota.acquire(true, false, 1000)).isEqualTo(ServerQuota.SHED);
+        assertThat(quota.acquire(true, true, 6000)).isEqualTo(0);
+    }
+
+    @Test
+    public void holdsImportantItemsUntilTheNextPeriodOnceSpent() {
+        ServerQuota quota = new ServerQuota(0);
+        quota.update(quota(100, 1, 30), 0);
+
+        assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        assertThat(quota.acquire(true, true, 10000)).isEqualTo(20000);
+        assertThat(quota.acquire(false, true, 10000)).isEqualTo(ServerQuota.SHED);
+
+        assertThat(quota.acquire(false, true, 30000)).isEqualTo(0);
+    }
+
+    @Test
+    public void countsItemsInFlightAgainstTheQuota() {
+        ServerQuota quota = new ServerQuota(0.5);
+        quota.update(quota(10, 10, 60), 0);
+        for (int i = 0; i < 5; i++) {
+            assertThat(quota.acquire(false, true, 0)).isEqualTo(0);
+        }
+
+        // answers to the first items, sent before the others were counted by the server
+        quota.update(quota(10, 9, 60), 100);
+        assertThat(quota.acquire(false, true, 100)).isEqualTo(ServerQuota.SHED);
+
+        // a new period starts over
+        quota.update(quota(10, 10, 60), 60000);
+        assertThat(quota.acquire(false, true, 60000)).isEqualTo(0);
+    }
+
+    @Test
+    public void throttledResponseSpendsTheQuota() {
+        ServerQuota quota = new ServerQuota(0.2);
+        quota.update(response(429, "Retry-After", "5"), 0);
+
+        assertThat(quota.acquire(true, true, 1000)).isEqualTo(4000);
+        assertThat(quota.acquire(true, true, 5000)).isEqualTo(0);
+
+        quota.update(response(429), 10000);
+        assertThat(quota.acquire(true, true, 10000)).isEqualTo(60000);
+    }
+
+    @Test
+    public void usesTheResetTimestampWithoutRemainingSeconds() {
+        ServerQuota quota = new ServerQuota(0);
+        quota.update(response(200, "X-Rate-Limit-Limit", "10", "X-Rate-Limit-Remaining", "0",
+                        "X-Rate-Limit-Reset", "120"), 100000);
+
+        assertThat(quota.acquire(true, true, 100000)).isEqualTo(20000);
+    }
+}
@@ -0,0 +1,44 @@
+package com.tapstream.rollbar.transport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class DnsCacheTest {
+
+    @Test
+    public void resolvesOncePerTtl() throws Exception {
+        DnsCache dns = new DnsCache(60000);
+
+        InetAddress first = dns.resolve("localhost");
+        assertThat(dns.resolve("localhost")).isSameAs(first);
+        assertThat(dns.resolve("127.0.0.1").isLoopbackAddress()).isTrue();
+
+        assertThat(dns.getLookupCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void resolvesEveryTimeWithoutTtl() throws Exception {
+        DnsCache dns = new DnsCache(0);
+
+        dns.resolve("localhost");
+        dns.resolve("localhost");
+
+        assertThat(dns.getLookupCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void failsForUnknownHosts() {
+        DnsCache dns = new DnsCache(60000);
+        try {
+            dns.resolve("unknown.invalid");
+            fail("UnknownHostException expected");
+        } catch (UnknownHostException e) {
+            assertThat(e.getMessage()).contains("unknown.invalid");
+        }
+    }
+}